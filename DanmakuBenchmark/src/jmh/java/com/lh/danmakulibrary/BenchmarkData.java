@@ -0,0 +1,83 @@
+package com.lh.danmakulibrary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * 基准测试使用的数据:固定随机种子,按平均每秒20条弹幕生成,和B站普通视频的密度接近
+ */
+
+final class BenchmarkData {
+
+    static final long INTERVAL = 50; //平均每条弹幕的间隔(ms)
+
+    private BenchmarkData() {
+    }
+
+    static long duration(int size) {
+        return size * INTERVAL;
+    }
+
+    //弹幕属性字符串,格式与B站xml中的p属性相同,时间无序
+    static String[] createAttributes(int size) {
+        Random random = new Random(42);
+        String[] attributes = new String[size];
+        StringBuilder builder = new StringBuilder(64);
+        for (int i = 0; i < size; i++) {
+            builder.setLength(0);
+            long time = (long) (random.nextDouble() * duration(size));
+            int type = random.nextInt(10) == 0 ? (random.nextBoolean() ? 4 : 5) : 1;
+            int textSize = random.nextInt(8) == 0 ? 36 : 25;
+            int color = random.nextInt(5) == 0 ? random.nextInt(0x1000000) : 0xFFFFFF;
+            builder.append(time / 1000).append('.').append(String.format("%03d", time % 1000)).append(',')
+                    .append(type).append(',').append(textSize).append(',').append(color).append(',')
+                    .append(1474628396 + i).append(",0,").append(Integer.toHexString(random.nextInt())).append(',')
+                    .append(2000000000L + i);
+            attributes[i] = builder.toString();
+        }
+        return attributes;
+    }
+
+    static String content(Random random) {
+        return "弹幕内容" + random.nextInt(2000);
+    }
+
+    static byte[] createXml(int size) throws Exception {
+        String[] attributes = createAttributes(size);
+        Random random = new Random(7);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(size * 100);
+        Writer writer = new OutputStreamWriter(stream, "utf-8");
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><i>");
+        for (String attribute : attributes) {
+            writer.write("<d p=\"");
+            writer.write(attribute);
+            writer.write("\">");
+            writer.write(content(random));
+            writer.write("</d>\n");
+        }
+        writer.write("</i>");
+        writer.close();
+        return stream.toByteArray();
+    }
+
+    //未排序的弹幕列表
+    static ArrayList<Danmaku> createDanmakus(int size) {
+        String[] attributes = createAttributes(size);
+        Random random = new Random(7);
+        ArrayList<Danmaku> danmakus = new ArrayList<>(size);
+        for (String attribute : attributes) {
+            Danmaku danmaku = Danmaku.parse(attribute);
+            danmaku.setContent(content(random));
+            danmakus.add(danmaku);
+        }
+        return danmakus;
+    }
+
+    //代替measureText,宽度只由内容决定
+    static float widthOf(String content) {
+        return content == null ? 0 : content.length() * 22 + (content.hashCode() & 31);
+    }
+}
@@ -0,0 +1,74 @@
+package com.lh.danmakulibrary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存:冷启动(解析xml并写入缓存)和之后打开同一个文件时读取DanmakuCache的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+public class CacheBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private File sourceFile;
+    private File cacheFile;
+    private File coldCacheFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        sourceFile = File.createTempFile("benchmark_danmaku", ".xml");
+        cacheFile = new File(sourceFile.getPath() + ".cache");
+        coldCacheFile = new File(sourceFile.getPath() + ".cold");
+        FileOutputStream out = new FileOutputStream(sourceFile);
+        try {
+            out.write(BenchmarkData.createXml(size));
+        } finally {
+            out.close();
+        }
+        DanmakuStore store = DanmakuCache.load(sourceFile, cacheFile, new BiliBiliDanmakuParser());
+        if (store.size() != size || DanmakuCache.read(cacheFile, sourceFile) == null) {
+            throw new IllegalStateException("cache was not written");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        sourceFile.delete();
+        cacheFile.delete();
+        coldCacheFile.delete();
+    }
+
+    //长度和修改时间都没变,不读取源文件
+    @Benchmark
+    public DanmakuStore readCache() throws Exception {
+        return DanmakuCache.load(sourceFile, cacheFile, new BiliBiliDanmakuParser());
+    }
+
+    //没有缓存:解析xml、计算CRC并写入缓存
+    @Benchmark
+    public DanmakuStore loadCold() throws Exception {
+        coldCacheFile.delete();
+        return DanmakuCache.load(sourceFile, coldCacheFile, new BiliBiliDanmakuParser());
+    }
+}
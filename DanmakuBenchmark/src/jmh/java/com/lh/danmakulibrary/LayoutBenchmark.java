@@ -0,0 +1,135 @@
+package com.lh.danmakulibrary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ListIterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 轨道分配:播放时的实时分配、后台预先计算分配方案、带补全的seek,以及DanmakuList的遍历
+ * 视口1920px,20条轨道,同屏最多40条,与DanmakuView的默认配置相同
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+public class LayoutBenchmark {
+
+    private static final int SEEK_COUNT = 100;
+    private static final long FRAME = 16;
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private DanmakuStore store;
+    private DanmakuTimeline timeline;
+    private DanmakuLayoutEngine engine;
+    private long[] seekTimes;
+    private DanmakuList<DanmakuLayoutEngine.Item> list;
+
+    private final DanmakuLayoutPlan.WidthMeasurer measurer = new DanmakuLayoutPlan.WidthMeasurer() {
+        @Override
+        public float measureWidth(DanmakuStore store, int index) {
+            return BenchmarkData.widthOf(store.getContent(index));
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        ArrayList<Danmaku> danmakus = BenchmarkData.createDanmakus(size);
+        Collections.sort(danmakus);
+        store = DanmakuStore.create(danmakus);
+        timeline = new DanmakuTimeline(store);
+        final ArrayList<DanmakuLayoutEngine.Item> pool = new ArrayList<>();
+        engine = new DanmakuLayoutEngine(new DanmakuLayoutEngine.Callback() {
+            @Override
+            public DanmakuLayoutEngine.Item obtainItem(DanmakuStore store, int index) {
+                DanmakuLayoutEngine.Item item = pool.isEmpty() ? new DanmakuLayoutEngine.Item() : pool.remove(pool.size() - 1);
+                DanmakuStore.Item danmaku = item.danmaku instanceof DanmakuStore.Item ? (DanmakuStore.Item) item.danmaku : new DanmakuStore.Item();
+                item.danmaku = danmaku.moveTo(store, index);
+                item.width = BenchmarkData.widthOf(danmaku.getContent());
+                return item;
+            }
+
+            @Override
+            public void onItemRemoved(DanmakuLayoutEngine.Item item) {
+                pool.add(item);
+            }
+        });
+        engine.setViewportWidth(1920);
+        engine.setTrackCount(20);
+        engine.setMaxDanmakuCount(40);
+
+        Random random = new Random(1);
+        seekTimes = new long[SEEK_COUNT];
+        for (int i = 0; i < SEEK_COUNT; i++) {
+            seekTimes[i] = (long) (random.nextDouble() * BenchmarkData.duration(size));
+        }
+
+        list = new DanmakuList<>();
+        for (int i = 0; i < size; i++) {
+            list.addToLast(new DanmakuLayoutEngine.Item());
+        }
+    }
+
+    //按16ms一帧播放完整个时间轴:加入到期弹幕、分配轨道、计算位置
+    @Benchmark
+    public int playback() {
+        engine.clear();
+        timeline.reset();
+        int count = 0;
+        long duration = BenchmarkData.duration(size) + FRAME;
+        for (long time = 0; time < duration; time += FRAME) {
+            engine.addDue(timeline, time);
+            engine.layout(time);
+            count += engine.getItemCount();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public DanmakuLayoutPlan buildPlan() {
+        DanmakuLayoutPlan plan = new DanmakuLayoutPlan(store, engine);
+        plan.build(measurer);
+        return plan;
+    }
+
+    //单次seek(清空并补出屏幕中的弹幕)的时间
+    @Benchmark
+    @OperationsPerInvocation(SEEK_COUNT)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int seekWithBackFill() {
+        int count = 0;
+        for (long time : seekTimes) {
+            engine.seekTo(timeline, time);
+            count += engine.getItemCount();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public float iterateList() {
+        float sum = 0;
+        ListIterator<DanmakuLayoutEngine.Item> iterator = list.getHeadIterator();
+        while (iterator.hasNext()) {
+            sum += iterator.next().x;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,80 @@
+package com.lh.danmakulibrary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解析:Danmaku.parse(属性字符串,与原先基于split的实现对照)和完整的xml解析(包括排序),单线程和分块多线程
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+public class ParseBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private String[] attributes;
+    private byte[] xml;
+
+    @Setup
+    public void setUp() throws Exception {
+        attributes = BenchmarkData.createAttributes(size);
+        xml = BenchmarkData.createXml(size);
+    }
+
+    @Benchmark
+    public void parseAttributes(Blackhole blackhole) {
+        for (String attribute : attributes) {
+            blackhole.consume(Danmaku.parse(attribute));
+        }
+    }
+
+    //原先基于split的实现,作为parseAttributes的对照
+    @Benchmark
+    public void parseAttributesBySplit(Blackhole blackhole) {
+        for (String attribute : attributes) {
+            Danmaku danmaku = new Danmaku();
+            String[] strs = attribute.split(",");
+            danmaku.setTime((long) (Float.parseFloat(strs[0]) * 1000L));
+            danmaku.setType(Integer.parseInt(strs[1]));
+            danmaku.setTextSize(Integer.parseInt(strs[2]));
+            int color;
+            try {
+                color = Integer.parseInt(strs[3]) | 0xFF000000;
+            } catch (NumberFormatException e) {
+                color = 0xFFFFFFFF;
+            }
+            danmaku.setTextColor(color);
+            blackhole.consume(danmaku);
+        }
+    }
+
+    @Benchmark
+    public ArrayList<Danmaku> parseXml() throws Exception {
+        return new BiliBiliDanmakuParser().parse(new ByteArrayInputStream(xml));
+    }
+
+    //分块多线程解析,线程数为CPU核数
+    @Benchmark
+    public ArrayList<Danmaku> parseXmlParallel() throws Exception {
+        return new BiliBiliDanmakuParser().parseParallel(new ByteArrayInputStream(xml), Runtime.getRuntime().availableProcessors());
+    }
+}
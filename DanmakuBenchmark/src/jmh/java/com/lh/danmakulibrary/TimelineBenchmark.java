@@ -0,0 +1,95 @@
+package com.lh.danmakulibrary;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 时间轴:排序、建立DanmakuStore、seek和播放时每帧取出到期弹幕的扫描
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx3g"})
+public class TimelineBenchmark {
+
+    private static final int SEEK_COUNT = 1000;
+    private static final long FRAME = 16;
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private ArrayList<Danmaku> unsorted;
+    private ArrayList<Danmaku> sorted;
+    private DanmakuTimeline timeline;
+    private long[] seekTimes;
+
+    @Setup
+    public void setUp() {
+        unsorted = BenchmarkData.createDanmakus(size);
+        sorted = new ArrayList<>(unsorted);
+        Collections.sort(sorted);
+        timeline = new DanmakuTimeline(sorted);
+        Random random = new Random(1);
+        seekTimes = new long[SEEK_COUNT];
+        for (int i = 0; i < SEEK_COUNT; i++) {
+            seekTimes[i] = (long) (random.nextDouble() * BenchmarkData.duration(size));
+        }
+    }
+
+    //包括复制列表
+    @Benchmark
+    public ArrayList<Danmaku> sort() {
+        ArrayList<Danmaku> danmakus = new ArrayList<>(unsorted);
+        Collections.sort(danmakus);
+        return danmakus;
+    }
+
+    @Benchmark
+    public DanmakuStore createStore() {
+        return DanmakuStore.create(sorted);
+    }
+
+    //单次seek的时间
+    @Benchmark
+    @OperationsPerInvocation(SEEK_COUNT)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int seek() {
+        int cursor = 0;
+        for (long time : seekTimes) {
+            timeline.seekTo(time);
+            cursor += timeline.getCursor();
+        }
+        return cursor;
+    }
+
+    //按16ms一帧播放完整个时间轴,每帧取出到期的弹幕
+    @Benchmark
+    public int scan() {
+        timeline.reset();
+        int count = 0;
+        long duration = BenchmarkData.duration(size) + FRAME;
+        for (long time = 0; time < duration; time += FRAME) {
+            while (timeline.pollDue(time) >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
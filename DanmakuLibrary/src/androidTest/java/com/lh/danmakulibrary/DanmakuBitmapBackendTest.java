@@ -0,0 +1,69 @@
+package com.lh.danmakulibrary;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * 不需要窗口,把布局结果离屏绘制到Bitmap中检查
+ */
+@RunWith(AndroidJUnit4.class)
+public class DanmakuBitmapBackendTest {
+
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 200;
+
+    @Test
+    public void render_drawsDanmakuInItsTrack() throws Exception {
+        final DanmakuRenderer renderer = new DanmakuRenderer(2);
+        final DanmakuLayoutEngine engine = new DanmakuLayoutEngine(renderer);
+        final float[] trackY = {0, renderer.getTrackHeight()};
+        engine.setViewportWidth(WIDTH);
+        engine.setTrackCount(trackY.length);
+
+        Danmaku danmaku = new Danmaku();
+        danmaku.setType(DanmakuLayoutEngine.TYPE_TOP);
+        danmaku.setTextSize(25);
+        danmaku.setTextColor(Color.RED);
+        danmaku.setContent("弹幕弹幕弹幕");
+        assertTrue(engine.add(renderer.obtainItem(danmaku), 0));
+        engine.layout(100);
+
+        DanmakuBitmapBackend backend = new DanmakuBitmapBackend(WIDTH, HEIGHT);
+        backend.attach(new DanmakuRenderBackend.Renderer() {
+            @Override
+            public void onRender(Canvas canvas) {
+                renderer.render(canvas, engine, trackY);
+            }
+        });
+        backend.requestRender();
+        assertEquals(1, backend.getRenderCount());
+
+        Bitmap bitmap = backend.getBitmap();
+        assertTrue(hasPixels(bitmap, 0, (int) trackY[1]));
+        assertFalse(hasPixels(bitmap, (int) trackY[1], HEIGHT));
+
+        engine.layout(10000); //居中弹幕已经消失
+        backend.requestRender();
+        assertFalse(hasPixels(bitmap, 0, HEIGHT));
+    }
+
+    private static boolean hasPixels(Bitmap bitmap, int top, int bottom) {
+        for (int y = top; y < bottom; y++) {
+            for (int x = 0; x < bitmap.getWidth(); x++) {
+                if (Color.alpha(bitmap.getPixel(x, y)) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,73 @@
+package com.lh.danmakulibrary;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.text.TextPaint;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * DanmakuTextMeasurer 的结果与measureText一致,并且重复的内容直接命中缓存
+ */
+@RunWith(AndroidJUnit4.class)
+public class DanmakuTextMeasurerTest {
+
+    @Test
+    public void measureText_matchesPaint() throws Exception {
+        TextPaint paint = new TextPaint();
+        paint.setAntiAlias(true);
+        paint.setFakeBoldText(true);
+        paint.setTextSize(40);
+        DanmakuTextMeasurer measurer = new DanmakuTextMeasurer();
+        String[] contents = {"我从未见过如此厚颜无耻之猴", "233333", "ｗｗｗ！", "안녕하세요", "تجربة", "emoji😂"};
+        for (String content : contents) {
+            assertEquals(paint.measureText(content), measurer.measureText(content, 40), 1f);
+        }
+        assertEquals(0, measurer.getHitCount());
+        assertEquals(6, measurer.getAdvanceCount() + measurer.getMeasureCount());
+        assertTrue(measurer.getAdvanceCount() >= 3); //CJK、全角和韩文总是使用宽度表
+        assertTrue(measurer.getMeasureCount() >= 2);
+
+        measurer.measureText("233333", 40);
+        assertEquals(1, measurer.getHitCount());
+        assertEquals(paint.getFontMetrics().top, measurer.getFontMetrics(40).top);
+    }
+
+    @Test
+    public void measureText_keepsKerningAndLigatures() throws Exception {
+        TextPaint paint = new TextPaint();
+        paint.setAntiAlias(true);
+        paint.setFakeBoldText(true);
+        DanmakuTextMeasurer measurer = new DanmakuTextMeasurer();
+        String[] contents = {"AV", "To", "fi", "ff", "AVATAR office", "Wait, flat"};
+        for (float textSize : new float[]{25, 40, 64}) {
+            paint.setTextSize(textSize);
+            for (String content : contents) {
+                assertEquals(paint.measureText(content), measurer.measureText(content, textSize), 0.1f);
+            }
+        }
+    }
+
+    @Test
+    public void measureStored_matchesStringPath() throws Exception {
+        String[] contents = {"我从未见过如此厚颜无耻之猴", "233333", "ｗｗｗ！", "안녕하세요", "تجربة", "emoji😂", "", null};
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        for (String content : contents) {
+            Danmaku danmaku = new Danmaku();
+            danmaku.setContent(content);
+            danmakus.add(danmaku);
+        }
+        DanmakuStore store = DanmakuStore.create(danmakus);
+        DanmakuTextMeasurer measurer = new DanmakuTextMeasurer();
+        DanmakuTextMeasurer expected = new DanmakuTextMeasurer();
+        for (int i = 0; i < store.size(); i++) {
+            float width = contents[i] == null ? 0 : expected.measureText(contents[i], 40);
+            assertEquals(width, measurer.measureText(store, i, 40), 0f);
+        }
+    }
+}
@@ -1,12 +1,24 @@
 package com.lh.danmakulibrary;
 
-import android.util.Xml;
-
 import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserFactory;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Created by liuhui on 2016/9/23.
@@ -14,35 +26,257 @@ import java.util.Collections;
 
 public class BiliBiliDanmakuParser {
 
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int MIN_CHUNK_BYTES = 256 * 1024; //分块太小时线程调度的开销大于解析
+    private static final int CHUNKS_PER_THREAD = 4; //多分几块,避免某个线程的块解析慢时其他线程空等
+    private static final int SHARED_CONTENT_SLOTS = 256; //常见的重复文本(如"+1")很少,槽位不需要多
+    private static final byte[] ROOT_START = {'<', 'i', '>'};
+    private static final byte[] ROOT_END = {'<', '/', 'i', '>'};
+
+    private volatile DanmakuFilter mFilter; //解析时丢弃被屏蔽的弹幕
+
+    //解析进度回调,在解析线程中调用
+    public interface OnDanmakuParsedListener {
+        //每解析batchSize条弹幕回调一次,batch未排序,接收方可以持有该列表
+        void onDanmakuParsed(List<Danmaku> batch);
+
+        void onParseFinished();
+    }
+
     public ArrayList<Danmaku> parse(InputStream stream) throws Exception {
-        ArrayList<Danmaku> danmakus = null;
+        final ArrayList<Danmaku> danmakus = new ArrayList<>();
+        parse(stream, DEFAULT_BATCH_SIZE, new OnDanmakuParsedListener() {
+            @Override
+            public void onDanmakuParsed(List<Danmaku> batch) {
+                danmakus.addAll(batch);
+            }
+
+            @Override
+            public void onParseFinished() {
+            }
+        });
+        DanmakuTimeSort.sort(danmakus);
+        return danmakus;
+    }
+
+    /**
+     * 多线程解析,适合上百万条弹幕的文件
+     * 读入整个文档后在<d>标签的边界处分成若干块,每块在线程池中单独解析,再按时间做稳定的基数排序
+     * 结果与parse(stream)相同,文档需要是UTF-8编码
+     */
+    public ArrayList<Danmaku> parseParallel(InputStream stream, int threadCount) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            return parseParallel(readFully(stream), threadCount * CHUNKS_PER_THREAD, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    //使用调用方的线程池,data在解析过程中不能修改
+    public ArrayList<Danmaku> parseParallel(byte[] data, int chunkCount, ExecutorService executor) throws Exception {
+        int start = indexOfRecord(data, 0, data.length);
+        int end = lastIndexOfEndTag(data); //根元素的结束标签,之前是所有的弹幕
+        if (start < 0 || end < start) { //没有弹幕
+            return new ArrayList<>();
+        }
+        chunkCount = Math.max(1, Math.min(chunkCount, (end - start) / MIN_CHUNK_BYTES));
+        ArrayList<Future<ArrayList<Danmaku>>> futures = new ArrayList<>(chunkCount);
+        int chunkStart = start;
+        for (int i = 1; i <= chunkCount && chunkStart < end; i++) {
+            int chunkEnd = end;
+            if (i < chunkCount) { //从均分的位置向后找到下一条弹幕的开始
+                int from = start + (int) ((long) (end - start) * i / chunkCount);
+                int next = indexOfRecord(data, Math.max(from, chunkStart + 1), end);
+                chunkEnd = next < 0 ? end : next;
+            }
+            futures.add(executor.submit(new ChunkTask(data, chunkStart, chunkEnd)));
+            chunkStart = chunkEnd;
+        }
+        int total = 0;
+        ArrayList<ArrayList<Danmaku>> chunks = new ArrayList<>(futures.size());
+        for (Future<ArrayList<Danmaku>> future : futures) {
+            ArrayList<Danmaku> chunk;
+            try {
+                chunk = future.get();
+            } catch (ExecutionException e) {
+                for (Future<ArrayList<Danmaku>> other : futures) {
+                    other.cancel(true);
+                }
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+            chunks.add(chunk);
+            total += chunk.size();
+        }
+        //按文档顺序拼接,时间相同的弹幕保持文档中的顺序
+        ArrayList<Danmaku> danmakus = new ArrayList<>(total);
+        for (ArrayList<Danmaku> chunk : chunks) {
+            danmakus.addAll(chunk);
+        }
+        DanmakuTimeSort.sort(danmakus);
+        return danmakus;
+    }
+
+    //解析一段只包含<d>元素的数据,补上根元素后交给XmlPullParser
+    private class ChunkTask implements Callable<ArrayList<Danmaku>> {
+        private final byte[] data;
+        private final int start;
+        private final int end;
+
+        private ChunkTask(byte[] data, int start, int end) {
+            this.data = data;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public ArrayList<Danmaku> call() throws Exception {
+            final ArrayList<Danmaku> danmakus = new ArrayList<>();
+            InputStream stream = new SequenceInputStream(new ByteArrayInputStream(ROOT_START),
+                    new SequenceInputStream(new ByteArrayInputStream(data, start, end - start), new ByteArrayInputStream(ROOT_END)));
+            parse(stream, DEFAULT_BATCH_SIZE, new OnDanmakuParsedListener() {
+                @Override
+                public void onDanmakuParsed(List<Danmaku> batch) {
+                    danmakus.addAll(batch);
+                }
+
+                @Override
+                public void onParseFinished() {
+                }
+            });
+            return danmakus;
+        }
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        byte[] buffer = new byte[Math.max(stream.available(), 64 * 1024)];
+        int length = 0;
+        int read;
+        while ((read = stream.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    //在[from, to)中查找下一个<d标签的开始位置,没有则返回-1;文本中的'<'已被转义,不会误判
+    private static int indexOfRecord(byte[] data, int from, int to) {
+        for (int i = from; i < to - 2; i++) {
+            if (data[i] == '<' && data[i + 1] == 'd') {
+                byte next = data[i + 2];
+                if (next == ' ' || next == '\t' || next == '\r' || next == '\n' || next == '>' || next == '/') {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOfEndTag(byte[] data) {
+        for (int i = data.length - 2; i >= 0; i--) {
+            if (data[i] == '<' && data[i + 1] == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 根据开头的字节自动解压:gzip、zlib或B站接口返回的raw deflate,未压缩的xml原样返回
+     */
+    public static InputStream decompress(InputStream stream) throws IOException {
+        BufferedInputStream input = new BufferedInputStream(stream);
+        input.mark(2);
+        int b0 = input.read();
+        int b1 = input.read();
+        input.reset();
+        //空、xml或带BOM的xml;不能用Character.isWhitespace,gzip的第一个字节0x1F也会被当作空白
+        if (b0 < 0 || b0 == '<' || b0 == 0xEF || b0 == ' ' || b0 == '\t' || b0 == '\r' || b0 == '\n') {
+            return input;
+        }
+        if (b0 == 0x1F && b1 == 0x8B) {
+            return new GZIPInputStream(input);
+        }
+        if ((b0 & 0x0F) == 8 && b1 >= 0 && ((b0 << 8) | b1) % 31 == 0) { //zlib头
+            return new InflaterInputStream(input);
+        }
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(input, inflater) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end(); //自己创建的Inflater需要手动释放
+            }
+        };
+    }
+
+    //解析时应用的屏蔽规则,为null时不过滤
+    public void setFilter(DanmakuFilter filter) {
+        mFilter = filter;
+    }
+
+    public DanmakuFilter getFilter() {
+        return mFilter;
+    }
+
+    //流式解析,边读边把弹幕分批交给listener;解析线程被中断时在下一批之前抛出InterruptedException
+    public void parse(InputStream stream, int batchSize, OnDanmakuParsedListener listener) throws Exception {
+        ArrayList<Danmaku> batch = new ArrayList<>(batchSize);
+        String[] contents = new String[SHARED_CONTENT_SLOTS]; //直接映射的表,重复的文本共用一个String;槽位冲突时替换,占用的内存有上限
         Danmaku danmaku = null;
-        XmlPullParser pullParser = Xml.newPullParser();
+        XmlPullParser pullParser = XmlPullParserFactory.newInstance().newPullParser(); //Android和JVM(kxml2)上都可以使用
         pullParser.setInput(stream, "utf-8");
         int eventType = pullParser.getEventType();
         while (eventType != XmlPullParser.END_DOCUMENT) {
             switch (eventType) {
-                case XmlPullParser.START_DOCUMENT:
-                    danmakus = new ArrayList<>();
-                    break;
                 case XmlPullParser.START_TAG:
                     if (pullParser.getName().equals("d")) {
                         String attrs = pullParser.getAttributeValue(0);
                         danmaku = Danmaku.parse(attrs);
                         if (pullParser.next() == XmlPullParser.TEXT) {
-                            danmaku.setContent(pullParser.getText());
+                            String content = pullParser.getText();
+                            int slot = (content.hashCode() & 0x7FFFFFFF) % SHARED_CONTENT_SLOTS;
+                            String shared = contents[slot];
+                            if (content.equals(shared)) {
+                                content = shared;
+                            } else {
+                                contents[slot] = content;
+                            }
+                            danmaku.setContent(content);
                         }
                     }
                     break;
                 case XmlPullParser.END_TAG:
                     if (pullParser.getName().equals("d")) {
-                        danmakus.add(danmaku);
+                        DanmakuFilter filter = mFilter;
+                        if (filter != null && filter.isBlocked(danmaku)) {
+                            break;
+                        }
+                        batch.add(danmaku);
+                        if (batch.size() >= batchSize) {
+                            checkInterrupted();
+                            listener.onDanmakuParsed(batch);
+                            batch = new ArrayList<>(batchSize);
+                        }
                     }
                     break;
             }
             eventType = pullParser.next();
         }
-        Collections.sort(danmakus);
-        return danmakus;
+        if (!batch.isEmpty()) {
+            checkInterrupted();
+            listener.onDanmakuParsed(batch);
+        }
+        listener.onParseFinished();
+    }
+
+    //解析线程被中断,例如数据源已被替换或DanmakuView已释放
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
     }
 }
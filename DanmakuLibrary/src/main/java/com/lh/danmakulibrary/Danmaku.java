@@ -1,6 +1,5 @@
 package com.lh.danmakulibrary;
 
-import android.graphics.Color;
 import android.support.annotation.NonNull;
 
 /**
@@ -8,11 +7,17 @@ import android.support.annotation.NonNull;
  */
 
 public class Danmaku implements Comparable<Danmaku> {
+    static final int WHITE = 0xFFFFFFFF; //即Color.WHITE,不引用Android类以便在JVM上使用
+
     private long time;//s
     private int type;
     private int textSize;
     private int textColor;
     private String content;
+    private long sendTime; //发送时间戳(s)
+    private int poolId; //弹幕池id
+    private String userHash; //用户hash
+    private long danmakuId; //弹幕id
 
     public long getTime() {
         return time;
@@ -54,24 +59,172 @@ public class Danmaku implements Comparable<Danmaku> {
         this.content = content;
     }
 
+    public long getSendTime() {
+        return sendTime;
+    }
+
+    public void setSendTime(long sendTime) {
+        this.sendTime = sendTime;
+    }
+
+    public int getPoolId() {
+        return poolId;
+    }
+
+    public void setPoolId(int poolId) {
+        this.poolId = poolId;
+    }
+
+    public String getUserHash() {
+        return userHash;
+    }
+
+    public void setUserHash(String userHash) {
+        this.userHash = userHash;
+    }
+
+    public long getDanmakuId() {
+        return danmakuId;
+    }
+
+    public void setDanmakuId(long danmakuId) {
+        this.danmakuId = danmakuId;
+    }
+
+    // <d p="23.826000213623,1,25,16777215,1422201084,0,057075e9,757076900">我从未见过如此厚颜无耻之猴</d>
+    // 0:时间(弹幕出现时间,s)
+    // 1:类型(1从右至左滚动弹幕|6从左至右滚动弹幕|5顶端固定弹幕|4底端固定弹幕|7高级弹幕|8脚本弹幕)
+    // 2:字号(弹幕大小 12非常小,16特小,18小,25中,36大,45很大,64特别大)
+    // 3:颜色(十进制RGB)
+    // 4:发送时间戳(s)
+    // 5:弹幕池id
+    // 6:用户hash
+    // 7:弹幕id
+    // 逐字符扫描,除用户hash外不创建子串
     public static Danmaku parse(String str) {
         Danmaku danmaku = new Danmaku();
-        String[] strs = str.split(",");
-        danmaku.setTime((long) (Float.parseFloat(strs[0]) * 1000L));
-        danmaku.setType(Integer.parseInt(strs[1]));
-        danmaku.setTextSize(Integer.parseInt(strs[2]));
-        int color;
-        try {
-            color = Integer.parseInt(strs[3]) | 0xFF000000;
-        } catch (NumberFormatException e){
-            color = Color.WHITE;
+        danmaku.textColor = WHITE; //缺少颜色时使用白色
+        int length = str.length();
+        int start = 0;
+        for (int field = 0; field < 8 && start <= length; field++) {
+            int end = start;
+            while (end < length && str.charAt(end) != ',') {
+                end++;
+            }
+            switch (field) {
+                case 0:
+                    danmaku.time = parseTimeMillis(str, start, end);
+                    break;
+                case 1:
+                    danmaku.type = (int) parseLong(str, start, end);
+                    break;
+                case 2:
+                    danmaku.textSize = (int) parseLong(str, start, end);
+                    break;
+                case 3:
+                    danmaku.textColor = parseColor(str, start, end);
+                    break;
+                case 4:
+                    danmaku.sendTime = parseLong(str, start, end);
+                    break;
+                case 5:
+                    danmaku.poolId = (int) parseLong(str, start, end);
+                    break;
+                case 6:
+                    danmaku.userHash = str.substring(start, end);
+                    break;
+                case 7:
+                    danmaku.danmakuId = parseLong(str, start, end);
+                    break;
+            }
+            start = end + 1;
         }
-        danmaku.setTextColor(color);
         return danmaku;
     }
 
+    //"23.826000213623" -> 23826,只取到毫秒
+    private static long parseTimeMillis(String str, int start, int end) {
+        boolean negative = start < end && str.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i >= end) {
+            throw new NumberFormatException(str);
+        }
+        long seconds = 0;
+        char c;
+        while (i < end && (c = str.charAt(i)) != '.') {
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException(str);
+            }
+            seconds = seconds * 10 + (c - '0');
+            i++;
+        }
+        long millis = 0;
+        int digits = 0;
+        for (i++; i < end; i++) {
+            c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException(str);
+            }
+            if (digits < 3) {
+                millis = millis * 10 + (c - '0');
+                digits++;
+            }
+        }
+        for (; digits < 3; digits++) {
+            millis *= 10;
+        }
+        long result = seconds * 1000 + millis;
+        return negative ? -result : result;
+    }
+
+    private static long parseLong(String str, int start, int end) {
+        boolean negative = start < end && str.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i >= end) {
+            throw new NumberFormatException(str);
+        }
+        long result = 0;
+        for (; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException(str);
+            }
+            result = result * 10 + (c - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    //与Integer.parseInt(颜色) | 0xFF000000的结果相同(包括负数),格式不对或超出int范围时使用白色
+    private static int parseColor(String str, int start, int end) {
+        boolean negative = start < end && str.charAt(start) == '-';
+        int i = start < end && (negative || str.charAt(start) == '+') ? start + 1 : start;
+        if (i >= end) {
+            return WHITE;
+        }
+        long color = 0;
+        for (; i < end; i++) {
+            char c = str.charAt(i);
+            if (c < '0' || c > '9') {
+                return WHITE;
+            }
+            color = color * 10 + (c - '0');
+            if (color > -(long) Integer.MIN_VALUE) {
+                return WHITE;
+            }
+        }
+        if (negative) {
+            color = -color;
+        }
+        if (color > Integer.MAX_VALUE) {
+            return WHITE;
+        }
+        return (int) color | 0xFF000000;
+    }
+
     @Override
     public int compareTo(@NonNull Danmaku another) {
-        return time < another.getTime() ? -1 : 1;
+        long time = getTime();
+        long anotherTime = another.getTime();
+        return time < anotherTime ? -1 : (time == anotherTime ? 0 : 1); //相同时间返回0,否则违反Comparable的约定
     }
 }
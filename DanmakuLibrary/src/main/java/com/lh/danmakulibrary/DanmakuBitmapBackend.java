@@ -0,0 +1,63 @@
+package com.lh.danmakulibrary;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Looper;
+
+/**
+ * 离屏绘制到Bitmap,requestRender在调用线程同步绘制
+ * 不需要窗口,可以用于截图、录制或在测试中检查绘制结果
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuBitmapBackend implements DanmakuRenderBackend {
+
+    private final Bitmap mBitmap;
+    private final Canvas mCanvas;
+    private final Looper mLooper;
+    private Renderer mRenderer;
+    private int mRenderCount;
+
+    //帧时钟运行在创建时所在的Looper线程,没有Looper时使用主线程
+    public DanmakuBitmapBackend(int width, int height) {
+        mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+        Looper looper = Looper.myLooper();
+        mLooper = looper != null ? looper : Looper.getMainLooper();
+    }
+
+    @Override
+    public Looper getLooper() {
+        return mLooper;
+    }
+
+    @Override
+    public synchronized void attach(Renderer renderer) {
+        mRenderer = renderer;
+    }
+
+    @Override
+    public synchronized void requestRender() {
+        if (mRenderer == null || mBitmap.isRecycled()) {
+            return;
+        }
+        mBitmap.eraseColor(Color.TRANSPARENT);
+        mRenderer.onRender(mCanvas);
+        mRenderCount++;
+    }
+
+    @Override
+    public synchronized void detach() {
+        mRenderer = null;
+    }
+
+    //最近一次绘制的结果,读取时应与requestRender在同一线程或自行同步
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    public synchronized int getRenderCount() {
+        return mRenderCount;
+    }
+}
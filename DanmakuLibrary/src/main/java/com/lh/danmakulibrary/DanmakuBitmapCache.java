@@ -0,0 +1,78 @@
+package com.lh.danmakulibrary;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.LruCache;
+
+/**
+ * 预先绘制好的弹幕位图缓存(包含描边),按文本/字号/颜色区分,按字节数限制大小
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuBitmapCache {
+
+    public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    private final LruCache<String, Bitmap> mCache;
+    private final Canvas mCanvas;
+
+    public DanmakuBitmapCache(int maxBytes) {
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        mCanvas = new Canvas();
+    }
+
+    public static String createKey(String content, float textSize, int textColor) {
+        return textColor + "|" + textSize + "|" + content;
+    }
+
+    public Bitmap get(String key) {
+        return mCache.get(key);
+    }
+
+    /**
+     * 把文本连同描边绘制到新的位图中并放入缓存
+     * 文本基线位于 (padding, padding - fontMetrics.top)
+     */
+    public Bitmap create(String key, String content, float textWidth, Paint.FontMetrics fontMetrics,
+                         float padding, Paint paint, Paint strokePaint) {
+        int width = (int) Math.ceil(textWidth + padding * 2);
+        int height = (int) Math.ceil(fontMetrics.bottom - fontMetrics.top + padding * 2);
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mCanvas.setBitmap(bitmap);
+        float baseLine = padding - fontMetrics.top;
+        mCanvas.drawText(content, padding, baseLine, paint);
+        mCanvas.drawText(content, padding, baseLine, strokePaint);
+        mCanvas.setBitmap(null);
+        mCache.put(key, bitmap);
+        return bitmap;
+    }
+
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    public int getSizeBytes() {
+        return mCache.size();
+    }
+
+    public int getMaxBytes() {
+        return mCache.maxSize();
+    }
+}
@@ -0,0 +1,275 @@
+package com.lh.danmakulibrary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * 解析结果的二进制缓存,第一次解析后写入,之后读取时不需要再解析xml:
+ * 文件映射后按列批量复制到DanmakuStore的数组中,文本保持UTF-8不解码
+ * 源文件的长度和修改时间都没变时直接使用缓存,不读取源文件;只有修改时间变了才计算CRC确认内容是否相同
+ * <p>
+ * 文件格式(大端):
+ * magic(int) version(int) sourceLength(long) sourceModified(long) sourceCrc(long) count(int) stringCount(int)
+ * times(long[count]) sendTimes(long[count]) danmakuIds(long[count])
+ * colors(int[count]) poolIds(int[count]) contents(int[count]) userHashes(int[count])
+ * sizes(short[count]) types(byte[count])
+ * stringOffsets(int[stringCount + 1]) strings(UTF-8)
+ * 字符串表第0项表示null
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuCache {
+
+    private static final int MAGIC = 0x444D4B43; //"DMKC"
+    private static final int VERSION = 3;
+    private static final int MODIFIED_OFFSET = 4 + 4 + 8; //sourceModified在文件中的位置
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4;
+    private static final int ROW_SIZE = 8 + 8 + 8 + 4 + 4 + 4 + 4 + 2 + 1; //每条弹幕在各列中占用的字节数
+
+    /**
+     * 读取缓存,缓存不存在、版本不同、与源文件不匹配或者文件损坏时返回null
+     */
+    public static DanmakuStore read(File cacheFile, File sourceFile) throws IOException {
+        if (!cacheFile.exists()) {
+            return null;
+        }
+        long sourceLength = sourceFile.length();
+        long sourceModified = sourceFile.lastModified();
+        RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+        DanmakuStore store;
+        boolean touched = false; //源文件只是修改时间变了,内容没有变
+        try {
+            FileChannel channel = file.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != sourceLength) {
+                return null;
+            }
+            long modified = buffer.getLong();
+            long crc = buffer.getLong();
+            if (modified != sourceModified) {
+                if (crc != checksum(sourceFile)) {
+                    return null;
+                }
+                touched = true;
+            }
+            int count = buffer.getInt();
+            int stringCount = buffer.getInt();
+            //分配数组之前先检查长度,截断或损坏的文件不能导致越界或者分配过大的数组
+            if (count < 0 || stringCount < 0
+                    || HEADER_SIZE + (long) count * ROW_SIZE + (stringCount + 1L) * 4 > fileSize) {
+                return null;
+            }
+            long[] times = new long[count];
+            long[] sendTimes = new long[count];
+            long[] danmakuIds = new long[count];
+            int[] colors = new int[count];
+            int[] poolIds = new int[count];
+            int[] contents = new int[count];
+            int[] userHashes = new int[count];
+            short[] sizes = new short[count];
+            byte[] types = new byte[count];
+            buffer.asLongBuffer().get(times);
+            buffer.position(buffer.position() + count * 8);
+            buffer.asLongBuffer().get(sendTimes);
+            buffer.position(buffer.position() + count * 8);
+            buffer.asLongBuffer().get(danmakuIds);
+            buffer.position(buffer.position() + count * 8);
+            buffer.asIntBuffer().get(colors);
+            buffer.position(buffer.position() + count * 4);
+            buffer.asIntBuffer().get(poolIds);
+            buffer.position(buffer.position() + count * 4);
+            buffer.asIntBuffer().get(contents);
+            buffer.position(buffer.position() + count * 4);
+            buffer.asIntBuffer().get(userHashes);
+            buffer.position(buffer.position() + count * 4);
+            buffer.asShortBuffer().get(sizes);
+            buffer.position(buffer.position() + count * 2);
+            buffer.get(types);
+
+            int[] offsets = new int[stringCount + 1];
+            buffer.asIntBuffer().get(offsets);
+            buffer.position(buffer.position() + offsets.length * 4);
+            if (!isValidOffsets(offsets, buffer.remaining())
+                    || !isValidIndexes(contents, stringCount) || !isValidIndexes(userHashes, stringCount)) {
+                return null;
+            }
+            byte[] bytes = new byte[offsets[stringCount]];
+            buffer.get(bytes); //文本保持UTF-8,显示时才解码
+            store = new DanmakuStore(times, types, sizes, colors, sendTimes, poolIds, danmakuIds,
+                    contents, userHashes, bytes, offsets, stringCount);
+        } finally {
+            file.close();
+        }
+        if (touched) {
+            updateModified(cacheFile, sourceModified); //下次不需要再计算CRC
+        }
+        return store;
+    }
+
+    public static void write(DanmakuStore store, File cacheFile, File sourceFile) throws IOException {
+        write(store, cacheFile, sourceFile.length(), sourceFile.lastModified(), checksum(sourceFile));
+    }
+
+    //先写临时文件再重命名,避免读到写了一半的缓存
+    public static void write(DanmakuStore store, File cacheFile,
+                             long sourceLength, long sourceModified, long sourceCrc) throws IOException {
+        int count = store.size();
+        int stringCount = store.stringCount();
+        byte[] stringBytes = store.stringBytes();
+        int[] stringOffsets = store.stringOffsets();
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024));
+        boolean written = false;
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceLength);
+            out.writeLong(sourceModified);
+            out.writeLong(sourceCrc);
+            out.writeInt(count);
+            out.writeInt(stringCount);
+            writeLongs(out, store.times(), count);
+            writeLongs(out, store.sendTimes(), count);
+            writeLongs(out, store.danmakuIds(), count);
+            writeInts(out, store.textColors(), count);
+            writeInts(out, store.poolIds(), count);
+            writeInts(out, store.contents(), count);
+            writeInts(out, store.userHashes(), count);
+            short[] sizes = store.textSizes();
+            for (int i = 0; i < count; i++) {
+                out.writeShort(sizes[i]);
+            }
+            out.write(store.types(), 0, count);
+
+            writeInts(out, stringOffsets, stringCount + 1);
+            out.write(stringBytes, 0, stringOffsets[stringCount]); //文本表本身就是UTF-8,直接写出
+            out.close();
+            written = true;
+        } finally {
+            if (!written) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    //抛出原来的异常
+                }
+                tempFile.delete(); //不留下写了一半的临时文件
+            }
+        }
+        if (!tempFile.renameTo(cacheFile)) {
+            tempFile.delete();
+            throw new IOException("rename " + tempFile + " failed");
+        }
+    }
+
+    /**
+     * 优先读取缓存,缓存无效时解析源文件并写入缓存
+     * 缓存只是加速,写入失败(例如空间不足)不影响返回结果,下次调用时会重新解析并再次尝试写入
+     */
+    public static DanmakuStore load(File sourceFile, File cacheFile, BiliBiliDanmakuParser parser) throws Exception {
+        long sourceLength = sourceFile.length();
+        long sourceModified = sourceFile.lastModified();
+        if (cacheFile.exists()) {
+            try {
+                DanmakuStore store = read(cacheFile, sourceFile);
+                if (store != null) {
+                    return store;
+                }
+            } catch (IOException | RuntimeException e) {
+                cacheFile.delete(); //缓存无法读取,删除后重新解析
+            }
+        }
+        InputStream stream = new BufferedInputStream(new FileInputStream(sourceFile));
+        DanmakuStore store;
+        try {
+            store = DanmakuStore.create(parser.parse(stream));
+        } finally {
+            stream.close();
+        }
+        try {
+            write(store, cacheFile, sourceLength, sourceModified, checksum(sourceFile));
+        } catch (IOException e) {
+            cacheFile.delete(); //旧的缓存已经与源文件不匹配
+        }
+        return store;
+    }
+
+    public static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream stream = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            stream.close();
+        }
+        return crc.getValue();
+    }
+
+    //写入失败只是下次仍需要计算CRC
+    private static void updateModified(File cacheFile, long sourceModified) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(cacheFile, "rw");
+            try {
+                file.seek(MODIFIED_OFFSET);
+                file.writeLong(sourceModified);
+            } finally {
+                file.close();
+            }
+        } catch (IOException ignored) {
+            //缓存仍然有效
+        }
+    }
+
+    //偏移从0开始、不递减,且不超过剩余的字节数
+    private static boolean isValidOffsets(int[] offsets, int remaining) {
+        if (offsets[0] != 0) {
+            return false;
+        }
+        for (int i = 1; i < offsets.length; i++) {
+            if (offsets[i] < offsets[i - 1]) {
+                return false;
+            }
+        }
+        return offsets[offsets.length - 1] <= remaining;
+    }
+
+    //索引0表示null,没有字符串时只能是0
+    private static boolean isValidIndexes(int[] indexes, int stringCount) {
+        int limit = Math.max(stringCount, 1);
+        for (int index : indexes) {
+            if (index < 0 || index >= limit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.writeLong(values[i]);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+}
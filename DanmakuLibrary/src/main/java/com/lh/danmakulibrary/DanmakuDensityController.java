@@ -0,0 +1,129 @@
+package com.lh.danmakulibrary;
+
+/**
+ * 根据实际的帧间隔调整同屏弹幕数量的上限:
+ * 平均帧间隔超过目标时按比例降低上限,持续低于目标时逐步提高(AIMD)
+ * 与View无关,在帧线程中每帧调用onFrame
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuDensityController {
+
+    public static final long DEFAULT_TARGET_FRAME_NANOS = 1000000000L / 60;
+
+    private static final long MAX_FRAME_GAP_NANOS = 250000000L; //超过这个间隔认为是暂停或切到后台,不计入
+    private static final float SLOW_FACTOR = 1.25f; //平均帧间隔超过目标的倍数时降低上限
+    private static final float FAST_FACTOR = 1.1f; //平均帧间隔低于目标的倍数时认为流畅
+    private static final int DECREASE_COOLDOWN_FRAMES = 30; //降低后等待平均值稳定的帧数
+    private static final int INCREASE_AFTER_FRAMES = 60; //连续流畅多少帧后提高上限
+    private static final int INCREASE_STEP = 2;
+
+    private final int mMinCount;
+    private final int mMaxCount;
+    private long mTargetFrameNanos = DEFAULT_TARGET_FRAME_NANOS;
+
+    private int mBudget;
+    private long mLastFrameTimeNanos = -1;
+    private float mAverageFrameNanos; //帧间隔的指数滑动平均
+    private int mCooldownFrames;
+    private int mFastFrames;
+
+    public DanmakuDensityController(int minCount, int maxCount, int initialCount) {
+        if (minCount < 0 || maxCount < minCount) {
+            throw new IllegalArgumentException("invalid range: " + minCount + ".." + maxCount);
+        }
+        mMinCount = minCount;
+        mMaxCount = maxCount;
+        mBudget = Math.max(minCount, Math.min(maxCount, initialCount));
+        mAverageFrameNanos = mTargetFrameNanos;
+    }
+
+    //目标帧间隔,例如屏幕刷新率为90Hz时为1000000000 / 90;平均帧间隔从新的目标重新开始
+    public void setTargetFrameNanos(long targetFrameNanos) {
+        if (targetFrameNanos <= 0) {
+            throw new IllegalArgumentException("targetFrameNanos <= 0");
+        }
+        mTargetFrameNanos = targetFrameNanos;
+        mAverageFrameNanos = targetFrameNanos;
+    }
+
+    public long getTargetFrameNanos() {
+        return mTargetFrameNanos;
+    }
+
+    //重新开始计时,例如暂停后恢复
+    public void reset() {
+        mLastFrameTimeNanos = -1;
+        mAverageFrameNanos = mTargetFrameNanos;
+        mCooldownFrames = 0;
+        mFastFrames = 0;
+    }
+
+    /**
+     * 每帧调用一次,返回当前的同屏弹幕数量上限
+     * frameTimeNanos: 本帧开始的时间
+     */
+    public int onFrame(long frameTimeNanos) {
+        long last = mLastFrameTimeNanos;
+        mLastFrameTimeNanos = frameTimeNanos;
+        if (last < 0) {
+            return mBudget;
+        }
+        long interval = frameTimeNanos - last;
+        if (interval <= 0 || interval > MAX_FRAME_GAP_NANOS) {
+            return mBudget;
+        }
+        mAverageFrameNanos += (interval - mAverageFrameNanos) / 8;
+        if (mCooldownFrames > 0) {
+            mCooldownFrames--;
+            return mBudget;
+        }
+        if (mAverageFrameNanos > mTargetFrameNanos * SLOW_FACTOR) {
+            mBudget = Math.max(mMinCount, mBudget * 3 / 4);
+            mCooldownFrames = DECREASE_COOLDOWN_FRAMES;
+            mFastFrames = 0;
+        } else if (mAverageFrameNanos < mTargetFrameNanos * FAST_FACTOR) {
+            if (++mFastFrames >= INCREASE_AFTER_FRAMES) {
+                mBudget = Math.min(mMaxCount, mBudget + INCREASE_STEP);
+                mFastFrames = 0;
+            }
+        } else {
+            mFastFrames = 0;
+        }
+        return mBudget;
+    }
+
+    public int getBudget() {
+        return mBudget;
+    }
+
+    public float getAverageFrameNanos() {
+        return mAverageFrameNanos;
+    }
+
+    public int getMinCount() {
+        return mMinCount;
+    }
+
+    public int getMaxCount() {
+        return mMaxCount;
+    }
+
+    /**
+     * 默认的排序:彩色弹幕和大字号弹幕优先,居中弹幕其次
+     */
+    public static class StyleRanker implements DanmakuLayoutEngine.Ranker {
+
+        @Override
+        public int rank(DanmakuStore store, int index) {
+            int rank = store.getTextSize(index);
+            if (store.getTextColor(index) != Danmaku.WHITE) {
+                rank += 100;
+            }
+            if (store.getType(index) != DanmakuLayoutEngine.TYPE_SCROLL) {
+                rank += 10;
+            }
+            return rank;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.lh.danmakulibrary;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * 屏蔽规则:关键词编译成Aho-Corasick自动机,一次扫描内容即可匹配所有关键词;用户hash放在HashSet中
+ * DanmakuStore中的弹幕直接扫描文本表中的UTF-8字节,用户hash按字节的hash查找,不需要解码
+ * 创建后不可修改,可以在任意线程使用;修改规则时创建新的DanmakuFilter替换即可
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuFilter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final boolean ignoreCase;
+    private final HashSet<String> blockedUsers;
+    private final byte[][] userTable; //blockedUsers的UTF-8字节,按DanmakuTextArena的hash开放寻址
+    private final int keywordCount;
+
+    //自动机:转移表用开放寻址的哈希表保存,键为(状态 << 16 | 字符)
+    private final long[] transitionKeys;
+    private final int[] transitionTargets;
+    private final int[] fail;
+    private final boolean[] output; //到达这个状态(或它的后缀状态)时匹配到关键词
+
+    private DanmakuFilter(Builder builder) {
+        ignoreCase = builder.ignoreCase;
+        blockedUsers = new HashSet<>(builder.users);
+        blockedUsers.remove(null);
+        int userCapacity = 2;
+        while (userCapacity < blockedUsers.size() * 2) {
+            userCapacity <<= 1;
+        }
+        userTable = new byte[userCapacity][];
+        for (String user : blockedUsers) {
+            byte[] bytes = user.getBytes(UTF_8);
+            int index = DanmakuTextArena.hash(bytes, 0, bytes.length) & (userCapacity - 1);
+            while (userTable[index] != null) {
+                index = (index + 1) & (userCapacity - 1);
+            }
+            userTable[index] = bytes;
+        }
+
+        //建立trie,统计状态数
+        ArrayList<String> keywords = new ArrayList<>();
+        for (String keyword : builder.keywords) {
+            if (keyword != null && !keyword.isEmpty()) {
+                keywords.add(ignoreCase ? keyword.toLowerCase() : keyword);
+            }
+        }
+        keywordCount = keywords.size();
+        int maxStates = 1;
+        for (String keyword : keywords) {
+            maxStates += keyword.length();
+        }
+        int capacity = 2;
+        while (capacity < maxStates * 2) {
+            capacity <<= 1;
+        }
+        transitionKeys = new long[capacity];
+        transitionTargets = new int[capacity];
+        Arrays.fill(transitionTargets, -1);
+        boolean[] terminal = new boolean[maxStates];
+        int[] firstChild = new int[maxStates]; //用于BFS遍历的孩子链表
+        int[] nextSibling = new int[maxStates];
+        char[] edge = new char[maxStates];
+        Arrays.fill(firstChild, -1);
+        int stateCount = 1;
+        for (String keyword : keywords) {
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = keyword.charAt(i);
+                int next = get(state, c);
+                if (next < 0) {
+                    next = stateCount++;
+                    put(state, c, next);
+                    edge[next] = c;
+                    nextSibling[next] = firstChild[state];
+                    firstChild[state] = next;
+                }
+                state = next;
+            }
+            terminal[state] = true;
+        }
+
+        //BFS计算失败指针
+        fail = new int[stateCount];
+        output = Arrays.copyOf(terminal, stateCount);
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        for (int child = firstChild[0]; child >= 0; child = nextSibling[child]) {
+            fail[child] = 0;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int child = firstChild[state]; child >= 0; child = nextSibling[child]) {
+                char c = edge[child];
+                int f = fail[state];
+                int target;
+                while ((target = get(f, c)) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = target >= 0 && target != child ? target : 0;
+                output[child] |= output[fail[child]];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int get(int state, char c) {
+        long key = ((long) state << 16) | c;
+        int mask = transitionKeys.length - 1;
+        for (int index = mix(key) & mask; transitionTargets[index] >= 0; index = (index + 1) & mask) {
+            if (transitionKeys[index] == key) {
+                return transitionTargets[index];
+            }
+        }
+        return -1;
+    }
+
+    private void put(int state, char c, int target) {
+        long key = ((long) state << 16) | c;
+        int mask = transitionKeys.length - 1;
+        int index = mix(key) & mask;
+        while (transitionTargets[index] >= 0) {
+            index = (index + 1) & mask;
+        }
+        transitionKeys[index] = key;
+        transitionTargets[index] = target;
+    }
+
+    //从state读入字符c后的状态
+    private int step(int state, char c) {
+        if (ignoreCase) {
+            c = Character.toLowerCase(c);
+        }
+        int next;
+        while ((next = get(state, c)) < 0 && state != 0) {
+            state = fail[state];
+        }
+        return next < 0 ? 0 : next;
+    }
+
+    //内容中是否包含任意一个关键词
+    public boolean containsKeyword(String content) {
+        if (content == null || keywordCount == 0) {
+            return false;
+        }
+        int state = 0;
+        for (int i = 0; i < content.length(); i++) {
+            state = step(state, content.charAt(i));
+            if (output[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //文本表中第id项是否包含关键词,边解码UTF-8边按UTF-16字符读入自动机,结果与containsKeyword(String)相同
+    boolean containsKeyword(DanmakuTextArena strings, int id) {
+        if (id == 0 || keywordCount == 0) {
+            return false;
+        }
+        int end = strings.end(id);
+        int position = strings.start(id);
+        byte[] data = strings.bytes();
+        int state = 0;
+        while (position < end) {
+            int decoded = DanmakuTextArena.decodeAt(data, position, end);
+            int codePoint = decoded & DanmakuTextArena.CODE_POINT_MASK;
+            position += decoded >>> DanmakuTextArena.LENGTH_SHIFT;
+            if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                state = step(state, (char) codePoint);
+            } else { //代理对
+                state = step(state, (char) ((codePoint >>> 10) + (Character.MIN_HIGH_SURROGATE - (Character.MIN_SUPPLEMENTARY_CODE_POINT >>> 10))));
+                if (output[state]) {
+                    return true;
+                }
+                state = step(state, (char) ((codePoint & 0x3FF) + Character.MIN_LOW_SURROGATE));
+            }
+            if (output[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isBlockedUser(String userHash) {
+        return userHash != null && blockedUsers.contains(userHash);
+    }
+
+    //文本表中第id项是否是被屏蔽的用户hash,按字节比较
+    boolean isBlockedUser(DanmakuTextArena strings, int id) {
+        if (id == 0 || blockedUsers.isEmpty()) {
+            return false;
+        }
+        int start = strings.start(id);
+        int end = strings.end(id);
+        byte[] data = strings.bytes();
+        int mask = userTable.length - 1;
+        for (int index = DanmakuTextArena.hash(data, start, end) & mask; userTable[index] != null; index = (index + 1) & mask) {
+            byte[] user = userTable[index];
+            if (user.length == end - start && regionEquals(user, data, start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean regionEquals(byte[] value, byte[] data, int start) {
+        for (int i = 0; i < value.length; i++) {
+            if (value[i] != data[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isBlocked(String content, String userHash) {
+        return isBlockedUser(userHash) || containsKeyword(content);
+    }
+
+    public boolean isBlocked(Danmaku danmaku) {
+        if (danmaku instanceof DanmakuStore.Item) { //没有被修改过的文本直接读取文本表
+            DanmakuStore.Item item = (DanmakuStore.Item) danmaku;
+            if (item.contentId() >= 0 && item.userHashId() >= 0) {
+                return isBlockedUser(item.strings(), item.userHashId()) || containsKeyword(item.strings(), item.contentId());
+            }
+        }
+        return isBlocked(danmaku.getContent(), danmaku.getUserHash());
+    }
+
+    public boolean isBlocked(DanmakuStore store, int index) {
+        DanmakuTextArena strings = store.strings();
+        return isBlockedUser(strings, store.userHashId(index)) || containsKeyword(strings, store.contentId(index));
+    }
+
+    public int getKeywordCount() {
+        return keywordCount;
+    }
+
+    public int getBlockedUserCount() {
+        return blockedUsers.size();
+    }
+
+    public static class Builder {
+        private final ArrayList<String> keywords = new ArrayList<>();
+        private final ArrayList<String> users = new ArrayList<>();
+        private boolean ignoreCase = true;
+
+        public Builder addKeyword(String keyword) {
+            keywords.add(keyword);
+            return this;
+        }
+
+        public Builder addKeywords(Collection<String> keywords) {
+            this.keywords.addAll(keywords);
+            return this;
+        }
+
+        //用户hash,即弹幕属性中的第7项
+        public Builder addUser(String userHash) {
+            users.add(userHash);
+            return this;
+        }
+
+        public Builder addUsers(Collection<String> userHashes) {
+            users.addAll(userHashes);
+            return this;
+        }
+
+        //关键词是否忽略大小写,默认忽略
+        public Builder setIgnoreCase(boolean ignoreCase) {
+            this.ignoreCase = ignoreCase;
+            return this;
+        }
+
+        public DanmakuFilter build() {
+            return new DanmakuFilter(this);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.lh.danmakulibrary;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * 跟随屏幕刷新(vsync)的帧时钟,在指定Looper所在的线程回调,API 16以下用Handler模拟
+ * start/stop可以在其他线程调用,会转到Looper线程执行
+ */
+
+abstract class DanmakuFrameClock {
+
+    interface Callback {
+        //frameTimeNanos: 本帧开始的时间,单调递增,只用于计算帧间隔
+        void onFrame(long frameTimeNanos);
+    }
+
+    protected final Callback mCallback;
+    protected final Handler mHandler;
+    protected volatile boolean mRunning;
+
+    private final Runnable mScheduleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mRunning) {
+                scheduleFrame();
+            }
+        }
+    };
+
+    private final Runnable mCancelRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                cancelFrame();
+            }
+        }
+    };
+
+    private DanmakuFrameClock(Looper looper, Callback callback) {
+        mCallback = callback;
+        mHandler = new Handler(looper);
+    }
+
+    static DanmakuFrameClock create(Callback callback) {
+        return create(Looper.getMainLooper(), callback);
+    }
+
+    static DanmakuFrameClock create(Looper looper, Callback callback) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return new ChoreographerClock(looper, callback);
+        }
+        return new HandlerClock(looper, callback);
+    }
+
+    void start() {
+        if (!mRunning) {
+            mRunning = true;
+            runOnLooper(mScheduleRunnable);
+        }
+    }
+
+    void stop() {
+        if (mRunning) {
+            mRunning = false;
+            runOnLooper(mCancelRunnable);
+        }
+    }
+
+    private void runOnLooper(Runnable runnable) {
+        if (Looper.myLooper() == mHandler.getLooper()) {
+            runnable.run();
+        } else {
+            mHandler.post(runnable);
+        }
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    protected abstract void scheduleFrame();
+
+    protected abstract void cancelFrame();
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static class ChoreographerClock extends DanmakuFrameClock implements Choreographer.FrameCallback {
+
+        private Choreographer mChoreographer; //每个Looper线程有自己的Choreographer,在Looper线程中获取
+
+        private ChoreographerClock(Looper looper, Callback callback) {
+            super(looper, callback);
+        }
+
+        @Override
+        protected void scheduleFrame() {
+            if (mChoreographer == null) {
+                mChoreographer = Choreographer.getInstance();
+            }
+            mChoreographer.removeFrameCallback(this);
+            mChoreographer.postFrameCallback(this);
+        }
+
+        @Override
+        protected void cancelFrame() {
+            if (mChoreographer != null) {
+                mChoreographer.removeFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (mRunning) {
+                mChoreographer.postFrameCallback(this);
+                mCallback.onFrame(frameTimeNanos);
+            }
+        }
+    }
+
+    private static class HandlerClock extends DanmakuFrameClock implements Runnable {
+
+        private static final long FRAME_DELAY = 16;
+
+        private HandlerClock(Looper looper, Callback callback) {
+            super(looper, callback);
+        }
+
+        @Override
+        protected void scheduleFrame() {
+            mHandler.removeCallbacks(this);
+            mHandler.postDelayed(this, FRAME_DELAY);
+        }
+
+        @Override
+        protected void cancelFrame() {
+            mHandler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            if (mRunning) {
+                mHandler.postDelayed(this, FRAME_DELAY);
+                mCallback.onFrame(SystemClock.uptimeMillis() * 1000000L);
+            }
+        }
+    }
+}
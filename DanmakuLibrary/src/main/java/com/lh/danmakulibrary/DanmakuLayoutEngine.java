@@ -0,0 +1,660 @@
+package com.lh.danmakulibrary;
+
+import java.util.Arrays;
+import java.util.ListIterator;
+
+/**
+ * 与View无关的弹幕布局:每条弹幕的位置只由播放时间决定
+ * 弹幕在自己的出现时间进入轨道,滚动弹幕 x(t) = 视口宽度 - speed * (t - enterTime)
+ * 因此同样的数据和视口在任意时间点得到的布局都相同,seek后可以直接补出应该在屏幕中的弹幕
+ * 轨道的空闲时间由DanmakuTrackAllocator维护,选择轨道为O(log T)
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuLayoutEngine {
+
+    public static final int TYPE_SCROLL = 1;
+    public static final int TYPE_BOTTOM = 4;
+    public static final int TYPE_TOP = 5;
+
+    public interface Callback {
+        //为数据源中的一条弹幕创建(或从回收池取出)布局项,需要设置好宽度,返回null表示跳过
+        Item obtainItem(DanmakuStore store, int index);
+
+        //布局项离开屏幕或被清除,可以回收
+        void onItemRemoved(Item item);
+    }
+
+    public interface BadgeMeasurer {
+        //合并了mergeCount条弹幕时角标的宽度(px)
+        float measureBadge(Item item, int mergeCount);
+    }
+
+    public interface Ranker {
+        //数值越大越优先显示
+        int rank(DanmakuStore store, int index);
+    }
+
+    private final Callback mCallback;
+
+    private int mViewportWidth;
+    private float mSpeedRatio = 1.0f; //速度倍率
+    private long mScrollDanmakuShowTime = 8000; //滚动弹幕显示时长
+    private long mCenterDanmakuShowTime = 4000; //居中弹幕的显示时长
+    private int mMaxDanmakuCount = 40; //最大同时显示的弹幕数量
+    private boolean mAvoidOverLapping = true; //是否避免弹幕重叠
+
+    private DanmakuLayoutPlan mPlan; //预先计算的轨道分配方案,可以为null
+    private DanmakuFilter mFilter; //屏蔽规则,可以为null
+    private DanmakuMerger mMerger; //合并重复弹幕,可以为null
+    private BadgeMeasurer mBadgeMeasurer; //合并后的角标计入弹幕宽度,为null时不占宽度
+    private Ranker mRanker; //同一帧到期的弹幕超过剩余数量时按它挑选,为null时先到先得
+    private DanmakuMetrics mMetrics; //加入和丢弃的统计,可以为null
+
+    private DanmakuStore[] mDueStores = new DanmakuStore[16]; //addDue中复用的数组
+    private int[] mDueIndices = new int[16];
+    private int[] mDueRanks = new int[16];
+    private int[] mSortedRanks = new int[16];
+
+    private DanmakuList<Item>[] mTracks;
+    private DanmakuTrackAllocator mAllocator;
+    private int mItemCount;
+    private long mRemovedTime = Long.MIN_VALUE; //上一次移除过期弹幕的时间
+    //每条轨道和所有轨道中最早的消失时间,只是下界(合并会推迟消失时间),用于跳过没有过期弹幕的轨道
+    private double[] mTrackExitTimes;
+    private double mNextExitTime = Double.POSITIVE_INFINITY;
+
+    public DanmakuLayoutEngine(Callback callback) {
+        mCallback = callback;
+        setTrackCount(0);
+    }
+
+    public void setViewportWidth(int viewportWidth) {
+        mViewportWidth = viewportWidth;
+    }
+
+    public int getViewportWidth() {
+        return mViewportWidth;
+    }
+
+    //视口高度能容纳的轨道数,不超过maxTrackCount;DanmakuView和DanmakuSimulator使用同样的计算
+    public static int computeTrackCount(int viewportHeight, float trackHeight, int maxTrackCount) {
+        if (trackHeight <= 0) {
+            return 0;
+        }
+        float trackTotalHeight = 0;
+        int trackCount = 0;
+        while (trackTotalHeight + trackHeight < viewportHeight && trackCount < maxTrackCount) {
+            trackTotalHeight += trackHeight;
+            trackCount++;
+        }
+        return trackCount;
+    }
+
+    //重新设置轨道数量会清除所有弹幕
+    //Java不能创建泛型数组,数组中只会放入DanmakuList<Item>,所以这里的原始类型是安全的
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setTrackCount(int trackCount) {
+        if (mTracks != null) {
+            clear();
+        }
+        mTracks = new DanmakuList[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            mTracks[i] = new DanmakuList<>();
+        }
+        mTrackExitTimes = new double[trackCount];
+        Arrays.fill(mTrackExitTimes, Double.POSITIVE_INFINITY);
+        mNextExitTime = Double.POSITIVE_INFINITY;
+        mAllocator = new DanmakuTrackAllocator(trackCount);
+    }
+
+    public int getTrackCount() {
+        return mTracks.length;
+    }
+
+    public void setSpeedRatio(float speedRatio) {
+        mSpeedRatio = speedRatio;
+    }
+
+    public float getSpeedRatio() {
+        return mSpeedRatio;
+    }
+
+    public void setScrollDanmakuShowTime(long scrollDanmakuShowTime) {
+        mScrollDanmakuShowTime = scrollDanmakuShowTime;
+    }
+
+    public long getScrollDanmakuShowTime() {
+        return mScrollDanmakuShowTime;
+    }
+
+    public void setCenterDanmakuShowTime(long centerDanmakuShowTime) {
+        mCenterDanmakuShowTime = centerDanmakuShowTime;
+    }
+
+    public long getCenterDanmakuShowTime() {
+        return mCenterDanmakuShowTime;
+    }
+
+    public void setMaxDanmakuCount(int maxDanmakuCount) {
+        mMaxDanmakuCount = maxDanmakuCount;
+    }
+
+    public int getMaxDanmakuCount() {
+        return mMaxDanmakuCount;
+    }
+
+    public void setAvoidOverLapping(boolean avoidOverLapping) {
+        mAvoidOverLapping = avoidOverLapping;
+    }
+
+    public boolean isAvoidOverLapping() {
+        return mAvoidOverLapping;
+    }
+
+    /**
+     * 使用预先计算的轨道分配方案,数据源中的弹幕直接查表得到轨道
+     * 方案与当前的数据源或视口不匹配时仍然实时分配
+     */
+    public void setPlan(DanmakuLayoutPlan plan) {
+        mPlan = plan;
+    }
+
+    public DanmakuLayoutPlan getPlan() {
+        return mPlan;
+    }
+
+    //替换屏蔽规则,只影响之后加入的弹幕
+    public void setFilter(DanmakuFilter filter) {
+        mFilter = filter;
+    }
+
+    public DanmakuFilter getFilter() {
+        return mFilter;
+    }
+
+    //设置后内容相同的弹幕在时间窗口内只显示一条,重新设置会清除当前弹幕
+    public void setMerger(DanmakuMerger merger) {
+        clear();
+        mMerger = merger;
+    }
+
+    public DanmakuMerger getMerger() {
+        return mMerger;
+    }
+
+    public void setBadgeMeasurer(BadgeMeasurer badgeMeasurer) {
+        mBadgeMeasurer = badgeMeasurer;
+    }
+
+    public void setRanker(Ranker ranker) {
+        mRanker = ranker;
+    }
+
+    public Ranker getRanker() {
+        return mRanker;
+    }
+
+    //记录每条弹幕被加入或丢弃(及原因)
+    public void setMetrics(DanmakuMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    public DanmakuMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    private void drop(int reason) {
+        if (mMetrics != null) {
+            mMetrics.onDropped(reason);
+        }
+    }
+
+    //弹幕从出现到消失最长的时间,seek时往前补这么长时间内的弹幕
+    public long getMaxShowTime() {
+        return Math.max((long) (mScrollDanmakuShowTime / mSpeedRatio), mCenterDanmakuShowTime);
+    }
+
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    public int getTrackItemCount(int track) {
+        return mTracks[track].size();
+    }
+
+    //轨道中的弹幕,按加入顺序排列;返回的迭代器会被复用
+    public ListIterator<Item> getTrackItems(int track) {
+        return mTracks[track].getHeadIterator();
+    }
+
+    /**
+     * 在enterTime时刻把弹幕放入合适的轨道
+     * item需要已经设置好danmaku和width,返回false表示没有位置,由调用方回收
+     */
+    public boolean add(Item item, long enterTime) {
+        if (mFilter != null && mFilter.isBlocked(item.getDanmaku())) {
+            drop(DanmakuMetrics.DROP_FILTERED);
+            return false;
+        }
+        removeExpired(enterTime);
+        if (mMerger != null && mergeInto(mMerger.find(item.getDanmaku(), enterTime))) {
+            drop(DanmakuMetrics.DROP_MERGED);
+            return false;
+        }
+        if (mItemCount >= mMaxDanmakuCount) {
+            drop(DanmakuMetrics.DROP_OVER_BUDGET);
+            return false;
+        }
+        item.enterTime = enterTime;
+        return allocate(item);
+    }
+
+    //为已设置好enterTime的item实时选择轨道
+    private boolean allocate(Item item) {
+        int trackIndex;
+        switch (item.getType()) {
+            case TYPE_SCROLL:
+                trackIndex = mAllocator.findScrollTrack(item.enterTime, computeCatchWindow(item.width));
+                break;
+            case TYPE_TOP:
+                trackIndex = mAllocator.findTopTrack(item.enterTime);
+                break;
+            case TYPE_BOTTOM:
+                trackIndex = mAllocator.findBottomTrack(item.enterTime);
+                break;
+            default:
+                trackIndex = -1;
+                break;
+        }
+        if (trackIndex < 0) {
+            drop(DanmakuMetrics.DROP_NO_TRACK);
+            return false;
+        }
+        addToTrack(item, trackIndex);
+        return true;
+    }
+
+    private double computeCatchWindow(float width) {
+        return mAvoidOverLapping ? mViewportWidth / computeSpeed(width) : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * 新弹幕合并到正在显示的target中,target为null或者放不下变宽的角标时返回false
+     * 滚动弹幕只有在轨道中最后一条时才能变宽(后面没有弹幕会被追上),变宽后重新占用轨道
+     */
+    private boolean mergeInto(Item target) {
+        if (target == null) {
+            return false;
+        }
+        float extra = mBadgeMeasurer == null ? 0 : mBadgeMeasurer.measureBadge(target, target.mergeCount + 1) - target.badgeWidth;
+        if (extra > 0) {
+            if (target.getType() == TYPE_SCROLL) {
+                if (mTracks[target.track].getLast() != target) {
+                    return false;
+                }
+                target.width += extra;
+                target.exitTime = target.enterTime + (mViewportWidth + target.width) / target.speed; //速度不变,尾部变长
+                mAllocator.occupyScroll(target.track, target.enterTime + target.width / target.speed, target.exitTime);
+            } else {
+                target.width += extra;
+            }
+            target.badgeWidth += extra;
+        }
+        mMerger.onMerged(target);
+        return true;
+    }
+
+    //item需要已经设置好enterTime
+    private void addToTrack(Item item, int trackIndex) {
+        item.track = trackIndex;
+        item.mergeCount = 1;
+        item.badgeWidth = 0;
+        if (item.getType() == TYPE_SCROLL) {
+            double speed = computeSpeed(item.width);
+            item.speed = (float) speed;
+            item.exitTime = item.enterTime + (mViewportWidth + item.width) / speed;
+            mAllocator.occupyScroll(trackIndex, item.enterTime + item.width / speed, item.exitTime);
+        } else {
+            item.exitTime = item.enterTime + mCenterDanmakuShowTime;
+            mAllocator.occupyCenter(trackIndex, item.exitTime);
+        }
+        item.x = computeX(item, item.enterTime);
+        mTracks[trackIndex].addToLast(item);
+        if (item.exitTime < mTrackExitTimes[trackIndex]) {
+            mTrackExitTimes[trackIndex] = item.exitTime;
+            mNextExitTime = Math.min(mNextExitTime, item.exitTime);
+        }
+        mItemCount++;
+        if (mMerger != null) {
+            mMerger.onAdded(item);
+        }
+        if (mMetrics != null) {
+            mMetrics.onAdmitted();
+        }
+    }
+
+    /**
+     * 加入数据源中所有在time之前到期的弹幕
+     * 设置了Ranker且到期的弹幕多于剩余数量时,只加入排序靠前的弹幕(仍按时间顺序加入)
+     */
+    public void addDue(DanmakuTimeline timeline, long time) {
+        DanmakuStore store = timeline.getStore();
+        int index;
+        if (mRanker == null) {
+            while ((index = timeline.pollDue(time)) >= 0) {
+                addFromStore(store, index);
+            }
+            return;
+        }
+        int dueCount = 0;
+        while ((index = timeline.pollDue(time)) >= 0) {
+            dueCount = collectDue(store, index, dueCount);
+        }
+        addDueRanked(dueCount);
+    }
+
+    //加入多个数据源中所有在time之前到期的弹幕,按时间顺序
+    public void addDue(DanmakuMultiTimeline timeline, long time) {
+        int index;
+        if (mRanker == null) {
+            while ((index = timeline.pollDue(time)) >= 0) {
+                addFromStore(timeline.getPolledStore(), index);
+            }
+            return;
+        }
+        int dueCount = 0;
+        while ((index = timeline.pollDue(time)) >= 0) {
+            dueCount = collectDue(timeline.getPolledStore(), index, dueCount);
+        }
+        addDueRanked(dueCount);
+    }
+
+    private int collectDue(DanmakuStore store, int index, int dueCount) {
+        if (dueCount == mDueIndices.length) {
+            mDueIndices = Arrays.copyOf(mDueIndices, dueCount * 2);
+            mDueStores = Arrays.copyOf(mDueStores, dueCount * 2);
+        }
+        mDueStores[dueCount] = store;
+        mDueIndices[dueCount] = index;
+        return dueCount + 1;
+    }
+
+    //先屏蔽和合并,只对剩下的弹幕排序并分配空位,被屏蔽或合并的弹幕不占用名额
+    private void addDueRanked(int dueCount) {
+        int count = 0;
+        for (int i = 0; i < dueCount; i++) {
+            if (screen(mDueStores[i], mDueIndices[i])) {
+                mDueStores[count] = mDueStores[i];
+                mDueIndices[count] = mDueIndices[i];
+                count++;
+            }
+        }
+        Arrays.fill(mDueStores, count, dueCount, null);
+        dueCount = count;
+        if (dueCount == 0) {
+            return;
+        }
+        int free = mMaxDanmakuCount - mItemCount;
+        if (dueCount <= free) {
+            for (int i = 0; i < dueCount; i++) {
+                admitDue(i);
+            }
+        } else if (free <= 0) {
+            if (mMetrics != null) {
+                mMetrics.onDropped(DanmakuMetrics.DROP_OVER_BUDGET, dueCount);
+            }
+        } else {
+            if (mDueRanks.length < dueCount) {
+                mDueRanks = new int[mDueIndices.length];
+                mSortedRanks = new int[mDueIndices.length];
+            }
+            for (int i = 0; i < dueCount; i++) {
+                mDueRanks[i] = mRanker.rank(mDueStores[i], mDueIndices[i]);
+            }
+            System.arraycopy(mDueRanks, 0, mSortedRanks, 0, dueCount);
+            Arrays.sort(mSortedRanks, 0, dueCount);
+            int threshold = mSortedRanks[dueCount - free];
+            int aboveThreshold = 0; //排序高于阈值的都会加入,等于阈值的按时间先后补足
+            for (int i = dueCount - free; i < dueCount; i++) {
+                if (mSortedRanks[i] > threshold) {
+                    aboveThreshold++;
+                }
+            }
+            int equalQuota = free - aboveThreshold;
+            for (int i = 0; i < dueCount; i++) {
+                int rank = mDueRanks[i];
+                if (rank > threshold || (rank == threshold && equalQuota-- > 0)) {
+                    admitDue(i);
+                } else {
+                    drop(DanmakuMetrics.DROP_OVER_BUDGET);
+                }
+            }
+        }
+        Arrays.fill(mDueStores, 0, dueCount, null); //不持有已经替换掉的数据源
+    }
+
+    //同一批中内容相同的弹幕,在前一条加入之后才能合并
+    private void admitDue(int i) {
+        DanmakuStore store = mDueStores[i];
+        int index = mDueIndices[i];
+        if (mMerger != null && mergeInto(mMerger.find(store, index, store.getTime(index)))) {
+            drop(DanmakuMetrics.DROP_MERGED);
+            return;
+        }
+        admit(store, index);
+    }
+
+    /**
+     * 跳转到time:清空当前弹幕,把[time - 最长显示时间, time)内的弹幕按各自的出现时间重新布局
+     * 这样跳转后屏幕上立即有正在飞行中的弹幕
+     */
+    public void seekTo(DanmakuTimeline timeline, long time) {
+        clear();
+        DanmakuStore store = timeline.getStore();
+        int end = timeline.lowerBound(time);
+        for (int i = timeline.lowerBound(time - getMaxShowTime()); i < end; i++) {
+            addFromStore(store, i);
+        }
+        timeline.seekTo(time);
+        layout(time);
+    }
+
+    //多个数据源的seekTo,按时间顺序补出正在飞行中的弹幕
+    public void seekTo(DanmakuMultiTimeline timeline, long time) {
+        clear();
+        timeline.seekTo(time - getMaxShowTime());
+        int index;
+        while ((index = timeline.pollDue(time - 1)) >= 0) { //时间 < time 的弹幕
+            addFromStore(timeline.getPolledStore(), index);
+        }
+        layout(time);
+    }
+
+    private void addFromStore(DanmakuStore store, int index) {
+        if (screen(store, index)) {
+            admit(store, index);
+        }
+    }
+
+    /**
+     * 屏蔽规则、方案中的丢弃和合并,每条弹幕只检查一次
+     * 返回true表示还需要加入(检查数量上限并分配轨道)
+     */
+    private boolean screen(DanmakuStore store, int index) {
+        if (mFilter != null && mFilter.isBlocked(store, index)) {
+            drop(DanmakuMetrics.DROP_FILTERED);
+            return false;
+        }
+        DanmakuLayoutPlan plan = mPlan;
+        if (plan != null && plan.matches(store, this) && plan.getTrack(index) == DanmakuLayoutPlan.DROPPED) {
+            drop(DanmakuMetrics.DROP_PLAN);
+            return false;
+        }
+        long enterTime = store.getTime(index);
+        removeExpired(enterTime);
+        if (mMerger != null && mergeInto(mMerger.find(store, index, enterTime))) { //合并的弹幕不需要测量
+            drop(DanmakuMetrics.DROP_MERGED);
+            return false;
+        }
+        return true;
+    }
+
+    //已经通过screen的弹幕:检查数量上限,有方案时使用方案中的轨道,否则实时分配
+    private void admit(DanmakuStore store, int index) {
+        if (mItemCount >= mMaxDanmakuCount) { //有方案时上限也可能被动态降低
+            drop(DanmakuMetrics.DROP_OVER_BUDGET);
+            return;
+        }
+        Item item = mCallback.obtainItem(store, index);
+        if (item == null) {
+            return;
+        }
+        item.enterTime = store.getTime(index);
+        DanmakuLayoutPlan plan = mPlan;
+        if (plan != null && plan.matches(store, this) && isTrackFree(item, plan.getTrack(index))) {
+            addToTrack(item, plan.getTrack(index));
+        } else if (!allocate(item)) { //没有方案,或者前面的弹幕因为合并角标变宽,方案中的轨道已被占用
+            mCallback.onItemRemoved(item);
+        }
+    }
+
+    private boolean isTrackFree(Item item, int trackIndex) {
+        if (item.getType() == TYPE_SCROLL) {
+            return mAllocator.isScrollTrackFree(trackIndex, item.enterTime, computeCatchWindow(item.width));
+        }
+        return mAllocator.isCenterTrackFree(trackIndex, item.enterTime);
+    }
+
+    //计算time时刻所有弹幕的位置,并移除已经消失的弹幕
+    public void layout(long time) {
+        removeExpired(time);
+        for (DanmakuList<Item> track : mTracks) {
+            ListIterator<Item> iterator = track.getHeadIterator();
+            while (iterator.hasNext()) {
+                Item item = iterator.next();
+                item.x = computeX(item, time);
+            }
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < mTracks.length; i++) {
+            ListIterator<Item> iterator = mTracks[i].getHeadIterator();
+            while (iterator.hasNext()) {
+                Item item = iterator.next();
+                iterator.remove();
+                mCallback.onItemRemoved(item);
+            }
+        }
+        if (mMerger != null) {
+            mMerger.clear();
+        }
+        mAllocator.reset();
+        mItemCount = 0;
+        mRemovedTime = Long.MIN_VALUE;
+        Arrays.fill(mTrackExitTimes, Double.POSITIVE_INFINITY);
+        mNextExitTime = Double.POSITIVE_INFINITY;
+    }
+
+    //每次加入弹幕前都会调用,没有弹幕到达消失时间时不遍历,只遍历有过期弹幕的轨道
+    private void removeExpired(long time) {
+        if (time == mRemovedTime || time <= mNextExitTime) { //同一时刻加入的弹幕不会过期
+            return;
+        }
+        mRemovedTime = time;
+        double nextExitTime = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < mTracks.length; i++) {
+            if (time > mTrackExitTimes[i]) {
+                double trackExitTime = Double.POSITIVE_INFINITY;
+                ListIterator<Item> iterator = mTracks[i].getHeadIterator();
+                while (iterator.hasNext()) {
+                    Item item = iterator.next();
+                    if (isExpired(item, time)) {
+                        iterator.remove();
+                        mItemCount--;
+                        if (mMerger != null) {
+                            mMerger.onRemoved(item);
+                        }
+                        mCallback.onItemRemoved(item);
+                    } else if (item.exitTime < trackExitTime) {
+                        trackExitTime = item.exitTime;
+                    }
+                }
+                mTrackExitTimes[i] = trackExitTime;
+            }
+            nextExitTime = Math.min(nextExitTime, mTrackExitTimes[i]);
+        }
+        mNextExitTime = nextExitTime;
+    }
+
+    //滚动弹幕的速度(px/ms),与DanmakuLayoutPlan使用同样的计算
+    double computeSpeed(float width) {
+        return mSpeedRatio * (mViewportWidth + width) / mScrollDanmakuShowTime;
+    }
+
+    public float computeX(Item item, long time) {
+        if (item.getType() == TYPE_SCROLL) {
+            return mViewportWidth - item.speed * (time - item.enterTime);
+        }
+        return (mViewportWidth - item.width) / 2;
+    }
+
+    //与轨道分配使用同一个消失时间,避免浮点误差导致两者不一致
+    public boolean isExpired(Item item, long time) {
+        return time > item.exitTime;
+    }
+
+    //一条参与布局的弹幕
+    public static class Item {
+        Danmaku danmaku;
+        float width;
+        int track = -1;
+        long enterTime;
+        float speed; //px/ms
+        double exitTime; //滚动弹幕完全离开屏幕、居中弹幕消失的时间
+        float x;
+        int mergeCount = 1; //合并的重复弹幕数量(包括自己)
+        float badgeWidth; //width中角标占用的宽度
+
+        public Item() {
+        }
+
+        public Item(Danmaku danmaku, float width) {
+            this.danmaku = danmaku;
+            this.width = width;
+        }
+
+        public Danmaku getDanmaku() {
+            return danmaku;
+        }
+
+        public int getType() {
+            return danmaku.getType();
+        }
+
+        public float getWidth() {
+            return width;
+        }
+
+        public int getTrack() {
+            return track;
+        }
+
+        public long getEnterTime() {
+            return enterTime;
+        }
+
+        public float getX() {
+            return x;
+        }
+
+        public int getMergeCount() {
+            return mergeCount;
+        }
+
+        public float getBadgeWidth() {
+            return badgeWidth;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.lh.danmakulibrary;
+
+import java.util.Arrays;
+
+/**
+ * 预先计算好的轨道分配方案:对数据源中的每条弹幕算出它所在的轨道(或被丢弃)
+ * 弹幕仍在自己的时间出现,和DanmakuLayoutEngine实时分配的规则一致,复杂度约为O(n log T)
+ * 方案只对创建时的数据源内容、视口宽度、轨道数和布局设置有效,数据源之后被修改则失效
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuLayoutPlan {
+
+    public static final int DROPPED = -1;
+
+    public interface WidthMeasurer {
+        //数据源中第index条弹幕的文本宽度(px)
+        float measureWidth(DanmakuStore store, int index);
+    }
+
+    private final DanmakuStore store;
+    private final int modCount; //创建时数据源的修改次数
+    private final int viewportWidth;
+    private final int trackCount;
+    private final float speedRatio;
+    private final long scrollDanmakuShowTime;
+    private final long centerDanmakuShowTime;
+    private final int maxDanmakuCount;
+    private final boolean avoidOverLapping;
+    private final float textScale; //测量宽度时使用的文本缩放倍率
+
+    private short[] tracks;
+    private volatile boolean cancelled;
+
+    //测量的宽度与文本缩放无关时使用
+    public DanmakuLayoutPlan(DanmakuStore store, DanmakuLayoutEngine engine) {
+        this(store, engine, 1f);
+    }
+
+    /**
+     * 在调用线程复制engine的配置,之后可以在后台线程调用build
+     * textScale: build时WidthMeasurer使用的文本缩放倍率,只用于判断方案是否仍然有效
+     */
+    public DanmakuLayoutPlan(DanmakuStore store, DanmakuLayoutEngine engine, float textScale) {
+        this.store = store;
+        this.modCount = store.modCount();
+        this.viewportWidth = engine.getViewportWidth();
+        this.trackCount = engine.getTrackCount();
+        this.speedRatio = engine.getSpeedRatio();
+        this.scrollDanmakuShowTime = engine.getScrollDanmakuShowTime();
+        this.centerDanmakuShowTime = engine.getCenterDanmakuShowTime();
+        this.maxDanmakuCount = engine.getMaxDanmakuCount();
+        this.avoidOverLapping = engine.isAvoidOverLapping();
+        this.textScale = textScale;
+    }
+
+    /**
+     * 计算方案,返回false表示被取消或者数据源在计算期间被修改
+     */
+    public boolean build(WidthMeasurer measurer) {
+        int size = store.size();
+        short[] result = new short[size];
+        DanmakuTrackAllocator allocator = new DanmakuTrackAllocator(trackCount);
+        LongHeap activeEndTimes = new LongHeap(maxDanmakuCount + 1);
+        for (int i = 0; i < size; i++) {
+            if (cancelled) {
+                return false;
+            }
+            long time = store.getTime(i);
+            while (activeEndTimes.size() > 0 && activeEndTimes.peek() < time) {
+                activeEndTimes.poll();
+            }
+            int track = DROPPED;
+            if (activeEndTimes.size() < maxDanmakuCount) {
+                int type = store.getType(i);
+                if (type == DanmakuLayoutEngine.TYPE_SCROLL) {
+                    float width = measurer.measureWidth(store, i);
+                    double speed = speedRatio * (viewportWidth + width) / scrollDanmakuShowTime; //与DanmakuLayoutEngine.computeSpeed一致
+                    track = allocator.findScrollTrack(time, avoidOverLapping ? viewportWidth / speed : Double.POSITIVE_INFINITY);
+                    if (track >= 0) {
+                        double exitTime = time + (viewportWidth + width) / speed;
+                        allocator.occupyScroll(track, time + width / speed, exitTime);
+                        activeEndTimes.add((long) Math.floor(exitTime));
+                    }
+                } else if (type == DanmakuLayoutEngine.TYPE_TOP || type == DanmakuLayoutEngine.TYPE_BOTTOM) {
+                    track = type == DanmakuLayoutEngine.TYPE_TOP ? allocator.findTopTrack(time) : allocator.findBottomTrack(time);
+                    if (track >= 0) {
+                        allocator.occupyCenter(track, time + centerDanmakuShowTime);
+                        activeEndTimes.add(time + centerDanmakuShowTime);
+                    }
+                }
+            }
+            result[i] = (short) track;
+        }
+        if (isStale()) {
+            return false;
+        }
+        tracks = result;
+        return true;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isBuilt() {
+        return tracks != null;
+    }
+
+    //方案是否适用于当前的数据源、视口和engine的布局设置
+    public boolean matches(DanmakuStore store, DanmakuLayoutEngine engine) {
+        return this.store == store && !isStale()
+                && viewportWidth == engine.getViewportWidth() && trackCount == engine.getTrackCount()
+                && hasSameSettings(engine, textScale);
+    }
+
+    //除视口外的布局设置是否与创建时相同,不同时需要重新计算
+    public boolean hasSameSettings(DanmakuLayoutEngine engine, float textScale) {
+        return speedRatio == engine.getSpeedRatio()
+                && scrollDanmakuShowTime == engine.getScrollDanmakuShowTime()
+                && centerDanmakuShowTime == engine.getCenterDanmakuShowTime()
+                && maxDanmakuCount == engine.getMaxDanmakuCount()
+                && avoidOverLapping == engine.isAvoidOverLapping()
+                && this.textScale == textScale;
+    }
+
+    //第index条弹幕的轨道,DROPPED表示不显示
+    public int getTrack(int index) {
+        return tracks[index];
+    }
+
+    //数据源在创建方案之后被修改过
+    public boolean isStale() {
+        return store.modCount() != modCount;
+    }
+
+    public DanmakuStore getStore() {
+        return store;
+    }
+
+    public int getViewportWidth() {
+        return viewportWidth;
+    }
+
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    public float getTextScale() {
+        return textScale;
+    }
+
+    //long类型的最小堆,记录同屏弹幕的消失时间
+    private static class LongHeap {
+        private long[] values;
+        private int size;
+
+        private LongHeap(int capacity) {
+            values = new long[Math.max(capacity, 1)];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private long peek() {
+            return values[0];
+        }
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            int index = size++;
+            while (index > 0) {
+                int parent = (index - 1) >>> 1;
+                if (values[parent] <= value) {
+                    break;
+                }
+                values[index] = values[parent];
+                index = parent;
+            }
+            values[index] = value;
+        }
+
+        private long poll() {
+            long result = values[0];
+            long last = values[--size];
+            int index = 0;
+            int half = size >>> 1;
+            while (index < half) {
+                int child = index * 2 + 1;
+                if (child + 1 < size && values[child + 1] < values[child]) {
+                    child++;
+                }
+                if (last <= values[child]) {
+                    break;
+                }
+                values[index] = values[child];
+                index = child;
+            }
+            values[index] = last;
+            return result;
+        }
+    }
+}
@@ -41,6 +41,11 @@ public class DanmakuList<T> implements Iterable<T> {
         size = 0;
     }
 
+    //最后加入的元素,没有则返回null
+    public T getLast() {
+        return end.prior == head ? null : end.prior.data;
+    }
+
     @SuppressWarnings("unused")
     public int size() {
         return size;
@@ -0,0 +1,142 @@
+package com.lh.danmakulibrary;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 直播弹幕的接收队列:任意线程都可以添加,帧线程每帧批量取出
+ * 取出的弹幕按时间重新排序,等待reorderDelay以容忍轻微的乱序,
+ * 因此弹幕最晚在 time + reorderDelay 时显示;超过maxLatency仍未显示的弹幕被丢弃
+ * 弹幕的时间需要与播放时间使用同一个时间轴,例如直播开始后的毫秒数
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuLiveQueue {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long DEFAULT_REORDER_DELAY = 300;
+    public static final long DEFAULT_MAX_LATENCY = 3000;
+
+    public interface Sink {
+        //弹幕到期,在drain的调用线程回调
+        void onDanmakuDue(Danmaku danmaku);
+    }
+
+    private static final Comparator<Danmaku> TIME_COMPARATOR = new Comparator<Danmaku>() {
+        @Override
+        public int compare(Danmaku lhs, Danmaku rhs) {
+            long l = lhs.getTime();
+            long r = rhs.getTime();
+            return l < r ? -1 : (l == r ? 0 : 1);
+        }
+    };
+
+    private final int capacity;
+    private final long reorderDelay;
+    private final long maxLatency;
+
+    private final ConcurrentLinkedQueue<Danmaku> incoming = new ConcurrentLinkedQueue<>(); //生产者写入
+    private final AtomicInteger pendingCount = new AtomicInteger(); //incoming和reorder中的数量,用于限制容量
+    private final AtomicInteger droppedCount = new AtomicInteger(); //队列已满时丢弃的数量
+    private final PriorityQueue<Danmaku> reorder = new PriorityQueue<>(64, TIME_COMPARATOR); //只在消费者线程使用
+
+    private int staleCount; //超过maxLatency被丢弃的数量
+    private int deliveredCount;
+
+    public DanmakuLiveQueue() {
+        this(DEFAULT_CAPACITY, DEFAULT_REORDER_DELAY, DEFAULT_MAX_LATENCY);
+    }
+
+    public DanmakuLiveQueue(int capacity, long reorderDelay, long maxLatency) {
+        if (maxLatency < reorderDelay) {
+            throw new IllegalArgumentException("maxLatency < reorderDelay");
+        }
+        this.capacity = capacity;
+        this.reorderDelay = reorderDelay;
+        this.maxLatency = maxLatency;
+    }
+
+    //可以在任意线程调用,队列已满时返回false
+    public boolean offer(Danmaku danmaku) {
+        if (pendingCount.incrementAndGet() > capacity) {
+            pendingCount.decrementAndGet();
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        incoming.offer(danmaku);
+        return true;
+    }
+
+    //批量添加,返回实际加入的数量
+    public int offerAll(Collection<? extends Danmaku> danmakus) {
+        int count = 0;
+        for (Danmaku danmaku : danmakus) {
+            if (offer(danmaku)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 在消费者线程调用:把 time <= currentTime - reorderDelay 的弹幕按时间顺序交给sink
+     * 返回交给sink的数量
+     */
+    public int drain(long currentTime, Sink sink) {
+        Danmaku danmaku;
+        while ((danmaku = incoming.poll()) != null) {
+            reorder.add(danmaku);
+        }
+        int count = 0;
+        long dueTime = currentTime - reorderDelay;
+        long staleTime = currentTime - maxLatency;
+        while ((danmaku = reorder.peek()) != null && danmaku.getTime() <= dueTime) {
+            reorder.poll();
+            pendingCount.decrementAndGet();
+            if (danmaku.getTime() < staleTime) {
+                staleCount++;
+                continue;
+            }
+            sink.onDanmakuDue(danmaku);
+            count++;
+        }
+        deliveredCount += count;
+        return count;
+    }
+
+    //在消费者线程调用
+    public void clear() {
+        while (incoming.poll() != null) {
+            pendingCount.decrementAndGet();
+        }
+        pendingCount.addAndGet(-reorder.size());
+        reorder.clear();
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public int getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public int getStaleCount() {
+        return staleCount;
+    }
+
+    public int getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    public long getReorderDelay() {
+        return reorderDelay;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+}
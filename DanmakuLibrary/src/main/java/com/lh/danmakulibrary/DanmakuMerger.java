@@ -0,0 +1,200 @@
+package com.lh.danmakulibrary;
+
+import java.util.Arrays;
+
+/**
+ * 合并短时间内重复的弹幕:内容相同、且正在显示的弹幕在window时间内出现过时,
+ * 新弹幕不再占用轨道,只增加已显示弹幕的计数(绘制时显示为角标)
+ * 由DanmakuLayoutEngine在帧线程中调用
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuMerger {
+
+    public static final long DEFAULT_WINDOW = 5000;
+
+    private final long window;
+    //内容 -> 正在显示的弹幕,按内容UTF-8字节的hash开放寻址,删除时后移填补空位
+    private DanmakuLayoutEngine.Item[] items = new DanmakuLayoutEngine.Item[16];
+    private int[] hashes = new int[16];
+    private int size;
+    private int mergedCount;
+
+    public DanmakuMerger() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public DanmakuMerger(long window) {
+        this.window = window;
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * 内容相同、在window时间内出现的正在显示的弹幕,没有则返回null
+     * 直接比较文本表中的索引或字节,不解码文本
+     */
+    DanmakuLayoutEngine.Item find(DanmakuStore store, int index, long time) {
+        int contentId = store.contentId(index);
+        if (contentId == 0) {
+            return null;
+        }
+        DanmakuTextArena strings = store.strings();
+        return find(find(strings.hash(contentId), strings, contentId, null), time);
+    }
+
+    DanmakuLayoutEngine.Item find(Danmaku danmaku, long time) {
+        return find(find(danmaku), time);
+    }
+
+    private DanmakuLayoutEngine.Item find(int slot, long time) {
+        if (slot < 0) {
+            return null;
+        }
+        DanmakuLayoutEngine.Item item = items[slot];
+        if (time - item.enterTime > window) { //超出窗口,重新显示一条
+            removeAt(slot);
+            return null;
+        }
+        return item;
+    }
+
+    //新弹幕已合并到item中
+    void onMerged(DanmakuLayoutEngine.Item item) {
+        item.mergeCount++;
+        mergedCount++;
+    }
+
+    void onAdded(DanmakuLayoutEngine.Item item) {
+        Danmaku danmaku = item.getDanmaku();
+        if (!hasContent(danmaku)) {
+            return;
+        }
+        int slot = find(danmaku);
+        if (slot >= 0) { //替换成新显示的一条
+            items[slot] = item;
+            return;
+        }
+        if ((size + 1) * 2 > items.length) {
+            resize(items.length * 2);
+        }
+        int hash = hashOf(danmaku);
+        int mask = items.length - 1;
+        int index = hash & mask;
+        while (items[index] != null) {
+            index = (index + 1) & mask;
+        }
+        items[index] = item;
+        hashes[index] = hash;
+        size++;
+    }
+
+    //需要在布局项被回收之前调用
+    void onRemoved(DanmakuLayoutEngine.Item item) {
+        int slot = find(item.getDanmaku());
+        if (slot >= 0 && items[slot] == item) {
+            removeAt(slot);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(items, null);
+        size = 0;
+    }
+
+    //内容来自文本表且没有被修改过
+    private static boolean isStored(Danmaku danmaku) {
+        return danmaku instanceof DanmakuStore.Item && ((DanmakuStore.Item) danmaku).contentId() >= 0;
+    }
+
+    private static boolean hasContent(Danmaku danmaku) {
+        return isStored(danmaku) ? ((DanmakuStore.Item) danmaku).contentId() != 0 : danmaku.getContent() != null;
+    }
+
+    private static int hashOf(Danmaku danmaku) {
+        if (isStored(danmaku)) {
+            DanmakuStore.Item item = (DanmakuStore.Item) danmaku;
+            return item.strings().hash(item.contentId());
+        }
+        return DanmakuTextArena.hash(danmaku.getContent());
+    }
+
+    //内容与danmaku相同的正在显示的弹幕所在的槽位,没有则返回-1
+    private int find(Danmaku danmaku) {
+        if (!hasContent(danmaku)) {
+            return -1;
+        }
+        if (isStored(danmaku)) {
+            DanmakuStore.Item item = (DanmakuStore.Item) danmaku;
+            return find(hashOf(danmaku), item.strings(), item.contentId(), null);
+        }
+        return find(hashOf(danmaku), null, 0, danmaku.getContent());
+    }
+
+    //内容为strings中的第contentId项(strings不为null时)或content
+    private int find(int hash, DanmakuTextArena strings, int contentId, String content) {
+        int mask = items.length - 1;
+        for (int index = hash & mask; items[index] != null; index = (index + 1) & mask) {
+            if (hashes[index] == hash && contentEquals(items[index].getDanmaku(), strings, contentId, content)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean contentEquals(Danmaku danmaku, DanmakuTextArena strings, int contentId, String content) {
+        if (isStored(danmaku)) {
+            DanmakuStore.Item item = (DanmakuStore.Item) danmaku;
+            return strings != null ? item.strings().equals(item.contentId(), strings, contentId)
+                    : item.strings().equals(item.contentId(), content);
+        }
+        String value = danmaku.getContent();
+        if (value == null) {
+            return false;
+        }
+        return strings != null ? strings.equals(contentId, value) : value.equals(content);
+    }
+
+    private void removeAt(int slot) {
+        int mask = items.length - 1;
+        items[slot] = null;
+        size--;
+        //把后面同一段中可以前移的项移到空位,保证查找时不会提前遇到空位
+        int index = (slot + 1) & mask;
+        while (items[index] != null) {
+            int home = hashes[index] & mask;
+            if (((index - home) & mask) >= ((index - slot) & mask)) {
+                items[slot] = items[index];
+                hashes[slot] = hashes[index];
+                items[index] = null;
+                slot = index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void resize(int capacity) {
+        DanmakuLayoutEngine.Item[] oldItems = items;
+        int[] oldHashes = hashes;
+        items = new DanmakuLayoutEngine.Item[capacity];
+        hashes = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldItems.length; i++) {
+            if (oldItems[i] != null) {
+                int index = oldHashes[i] & mask;
+                while (items[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                items[index] = oldItems[i];
+                hashes[index] = oldHashes[i];
+            }
+        }
+    }
+
+    //被合并掉的弹幕总数
+    public int getMergedCount() {
+        return mergedCount;
+    }
+}
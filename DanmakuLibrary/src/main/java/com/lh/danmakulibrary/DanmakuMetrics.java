@@ -0,0 +1,267 @@
+package com.lh.danmakulibrary;
+
+import java.util.Arrays;
+
+/**
+ * 播放统计:帧间隔直方图、弹幕加入和按原因分类的丢弃计数、调度延迟
+ * 记录在帧线程中进行,不分配内存;读取时复制到调用方提供的Snapshot中
+ * 不是线程安全的,DanmakuView在持有布局锁时记录和复制
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuMetrics {
+
+    //丢弃原因
+    public static final int DROP_FILTERED = 0; //被屏蔽规则过滤
+    public static final int DROP_MERGED = 1; //合并到正在显示的重复弹幕
+    public static final int DROP_OVER_BUDGET = 2; //超过同屏数量上限(包括按Ranker挑选时落选)
+    public static final int DROP_NO_TRACK = 3; //没有空闲的轨道
+    public static final int DROP_PLAN = 4; //预先计算的分配方案中被丢弃
+    public static final int DROP_QUEUE_FULL = 5; //等待加入的队列(addDanamku或直播队列)已满
+    public static final int DROP_STALE = 6; //直播弹幕到达太晚,超过最大延迟
+    public static final int DROP_REASON_COUNT = 7;
+
+    //帧间隔直方图每个区间的上限(ms),最后一个区间没有上限
+    private static final int[] BUCKET_BOUNDS_MS = {8, 12, 17, 20, 25, 34, 50, 100};
+    public static final int BUCKET_COUNT = BUCKET_BOUNDS_MS.length + 1;
+
+    private static final long MAX_FRAME_GAP_NANOS = 250000000L; //超过这个间隔认为是暂停或切到后台,不计入
+    private static final long FPS_WINDOW_NANOS = 1000000000L;
+
+    public interface Listener {
+        //每帧在帧线程中回调,snapshot会被复用,不能保存引用
+        void onMetrics(Snapshot snapshot);
+    }
+
+    private final long[] mBucketBoundsNanos = new long[BUCKET_BOUNDS_MS.length];
+    private final long[] mFrameTimeHistogram = new long[BUCKET_COUNT];
+    private final long[] mDroppedCounts = new long[DROP_REASON_COUNT];
+    private long mAdmittedCount;
+
+    private long mFrameCount;
+    private long mLastFrameTimeNanos = -1;
+    private long mLastIntervalNanos;
+    private long mMaxIntervalNanos;
+
+    private long mLagNanos; //本帧回调比帧开始时间晚了多少
+    private long mMaxLagNanos;
+
+    private long mFpsStartNanos = -1;
+    private int mFpsFrames;
+    private int mFps;
+
+    public DanmakuMetrics() {
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+            mBucketBoundsNanos[i] = BUCKET_BOUNDS_MS[i] * 1000000L;
+        }
+    }
+
+    //第bucket个区间的上限(ms),最后一个区间返回Integer.MAX_VALUE
+    public static int getBucketBound(int bucket) {
+        return bucket < BUCKET_BOUNDS_MS.length ? BUCKET_BOUNDS_MS[bucket] : Integer.MAX_VALUE;
+    }
+
+    public void onAdmitted() {
+        mAdmittedCount++;
+    }
+
+    public void onDropped(int reason) {
+        mDroppedCounts[reason]++;
+    }
+
+    public void onDropped(int reason, int count) {
+        mDroppedCounts[reason] += count;
+    }
+
+    /**
+     * 每帧调用一次
+     * frameTimeNanos: 本帧开始的时间;lagNanos: 帧回调实际执行时比frameTimeNanos晚的时间
+     */
+    public void onFrame(long frameTimeNanos, long lagNanos) {
+        mFrameCount++;
+        mLagNanos = lagNanos;
+        if (lagNanos > mMaxLagNanos) {
+            mMaxLagNanos = lagNanos;
+        }
+        long last = mLastFrameTimeNanos;
+        mLastFrameTimeNanos = frameTimeNanos;
+        long interval = last < 0 ? 0 : frameTimeNanos - last;
+        if (interval <= 0 || interval > MAX_FRAME_GAP_NANOS) {
+            mFpsStartNanos = frameTimeNanos;
+            mFpsFrames = 0;
+            return;
+        }
+        mLastIntervalNanos = interval;
+        if (interval > mMaxIntervalNanos) {
+            mMaxIntervalNanos = interval;
+        }
+        int bucket = 0;
+        while (bucket < mBucketBoundsNanos.length && interval > mBucketBoundsNanos[bucket]) {
+            bucket++;
+        }
+        mFrameTimeHistogram[bucket]++;
+        mFpsFrames++;
+        long window = frameTimeNanos - mFpsStartNanos;
+        if (window >= FPS_WINDOW_NANOS) {
+            mFps = (int) (mFpsFrames * 1000000000L / window);
+            mFpsFrames = 0;
+            mFpsStartNanos = frameTimeNanos;
+        }
+    }
+
+    public void reset() {
+        Arrays.fill(mFrameTimeHistogram, 0);
+        Arrays.fill(mDroppedCounts, 0);
+        mAdmittedCount = 0;
+        mFrameCount = 0;
+        mLastFrameTimeNanos = -1;
+        mLastIntervalNanos = 0;
+        mMaxIntervalNanos = 0;
+        mLagNanos = 0;
+        mMaxLagNanos = 0;
+        mFpsStartNanos = -1;
+        mFpsFrames = 0;
+        mFps = 0;
+    }
+
+    public long getAdmittedCount() {
+        return mAdmittedCount;
+    }
+
+    public long getDroppedCount(int reason) {
+        return mDroppedCounts[reason];
+    }
+
+    //复制计数到out;布局引擎和回收池的部分由fillEngine、fillPool填写
+    public void snapshot(Snapshot out) {
+        System.arraycopy(mFrameTimeHistogram, 0, out.frameTimeHistogram, 0, BUCKET_COUNT);
+        System.arraycopy(mDroppedCounts, 0, out.droppedCounts, 0, DROP_REASON_COUNT);
+        out.admittedCount = mAdmittedCount;
+        out.frameCount = mFrameCount;
+        out.lastFrameNanos = mLastIntervalNanos;
+        out.maxFrameNanos = mMaxIntervalNanos;
+        out.lagNanos = mLagNanos;
+        out.maxLagNanos = mMaxLagNanos;
+        out.fps = mFps;
+    }
+
+    //某一时刻的统计,可以复用以避免分配
+    public static class Snapshot {
+        private final long[] frameTimeHistogram = new long[BUCKET_COUNT];
+        private final long[] droppedCounts = new long[DROP_REASON_COUNT];
+        private long admittedCount;
+        private long frameCount;
+        private long lastFrameNanos;
+        private long maxFrameNanos;
+        private long lagNanos;
+        private long maxLagNanos;
+        private int fps;
+
+        private int itemCount;
+        private int maxItemCount;
+        private int trackCount;
+        private int[] trackItemCounts = new int[0];
+        private long currentTime;
+
+        private int poolHitCount;
+        private int poolMissCount;
+        private int poolSize;
+
+        //复制布局引擎的当前状态,只在轨道数变化时分配
+        public void fillEngine(DanmakuLayoutEngine engine, long currentTime) {
+            itemCount = engine.getItemCount();
+            maxItemCount = engine.getMaxDanmakuCount();
+            trackCount = engine.getTrackCount();
+            if (trackItemCounts.length < trackCount) {
+                trackItemCounts = new int[trackCount];
+            }
+            for (int i = 0; i < trackCount; i++) {
+                trackItemCounts[i] = engine.getTrackItemCount(i);
+            }
+            this.currentTime = currentTime;
+        }
+
+        public void fillPool(DanmakuPool<?> pool) {
+            poolHitCount = pool.getHitCount();
+            poolMissCount = pool.getMissCount();
+            poolSize = pool.size();
+        }
+
+        //帧间隔落在第bucket个区间的帧数,见getBucketBound
+        public long getFrameTimeCount(int bucket) {
+            return frameTimeHistogram[bucket];
+        }
+
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        public long getLastFrameNanos() {
+            return lastFrameNanos;
+        }
+
+        public long getMaxFrameNanos() {
+            return maxFrameNanos;
+        }
+
+        public int getFps() {
+            return fps;
+        }
+
+        public long getLagNanos() {
+            return lagNanos;
+        }
+
+        public long getMaxLagNanos() {
+            return maxLagNanos;
+        }
+
+        public long getAdmittedCount() {
+            return admittedCount;
+        }
+
+        public long getDroppedCount(int reason) {
+            return droppedCounts[reason];
+        }
+
+        public long getTotalDroppedCount() {
+            long total = 0;
+            for (long count : droppedCounts) {
+                total += count;
+            }
+            return total;
+        }
+
+        public int getItemCount() {
+            return itemCount;
+        }
+
+        public int getMaxItemCount() {
+            return maxItemCount;
+        }
+
+        public int getTrackCount() {
+            return trackCount;
+        }
+
+        public int getTrackItemCount(int track) {
+            return trackItemCounts[track];
+        }
+
+        public long getCurrentTime() {
+            return currentTime;
+        }
+
+        public int getPoolHitCount() {
+            return poolHitCount;
+        }
+
+        public int getPoolMissCount() {
+            return poolMissCount;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+    }
+}
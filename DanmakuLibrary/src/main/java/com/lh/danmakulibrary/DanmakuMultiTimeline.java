@@ -0,0 +1,150 @@
+package com.lh.danmakulibrary;
+
+import java.util.Arrays;
+
+/**
+ * 把多个各自按时间排序的数据源按时间合并成一个游标,例如主弹幕池、字幕池和本地的历史弹幕
+ * 不复制数据:每个数据源保留自己的DanmakuTimeline游标,用最小堆(按下一条弹幕的时间)选出最早到期的一条
+ * 取出一条为O(log k),添加或移除数据源为O(k),不需要重新排序
+ * 时间相同的弹幕按数据源添加的先后顺序取出
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuMultiTimeline {
+
+    private DanmakuTimeline[] sources = new DanmakuTimeline[4];
+    private int sourceCount;
+    private int[] heap = new int[4]; //数据源的下标,按下一条弹幕的时间排列
+    private DanmakuStore polledStore; //上一次pollDue返回的弹幕所在的数据源
+
+    public int getSourceCount() {
+        return sourceCount;
+    }
+
+    public DanmakuTimeline getSource(int i) {
+        return sources[i];
+    }
+
+    //游标保持在数据源当前的位置,播放中添加时需要先seekTo到当前时间
+    public void add(DanmakuTimeline source) {
+        if (sourceCount == sources.length) {
+            sources = Arrays.copyOf(sources, sourceCount * 2);
+            heap = new int[sourceCount * 2];
+        }
+        sources[sourceCount++] = source;
+        rebuild();
+    }
+
+    //已经显示出来的弹幕不受影响
+    public boolean remove(DanmakuTimeline source) {
+        for (int i = 0; i < sourceCount; i++) {
+            if (sources[i] == source) {
+                System.arraycopy(sources, i + 1, sources, i, sourceCount - i - 1);
+                sources[--sourceCount] = null;
+                rebuild();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        Arrays.fill(sources, 0, sourceCount, null);
+        sourceCount = 0;
+        polledStore = null;
+    }
+
+    //数据源的内容或游标在外部被修改后(例如DanmakuTimeline.addAll)调用
+    public void onSourceChanged() {
+        rebuild();
+    }
+
+    public void seekTo(long time) {
+        for (int i = 0; i < sourceCount; i++) {
+            sources[i].seekTo(time);
+        }
+        rebuild();
+    }
+
+    public void reset() {
+        for (int i = 0; i < sourceCount; i++) {
+            sources[i].reset();
+        }
+        rebuild();
+    }
+
+    /**
+     * 所有数据源中最早的一条弹幕已经到期则返回其在所在数据源中的索引,否则返回-1
+     * 所在的数据源由getPolledStore得到
+     */
+    public int pollDue(long currentTime) {
+        if (sourceCount > 0 && nextTime(heap[0]) <= currentTime) {
+            DanmakuTimeline source = sources[heap[0]];
+            int index = source.pollDue(currentTime);
+            polledStore = source.getStore();
+            siftDown(0);
+            return index;
+        }
+        for (int i = 0; i < sourceCount; i++) {
+            sources[i].pollDue(currentTime); //都没有到期,只更新各自已播放的进度
+        }
+        return -1;
+    }
+
+    public DanmakuStore getPolledStore() {
+        return polledStore;
+    }
+
+    //所有数据源中下一条弹幕的时间,没有则返回Long.MAX_VALUE
+    public long peekNextTime() {
+        return sourceCount == 0 ? Long.MAX_VALUE : nextTime(heap[0]);
+    }
+
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < sourceCount; i++) {
+            size += sources[i].size();
+        }
+        return size;
+    }
+
+    private long nextTime(int source) {
+        DanmakuTimeline timeline = sources[source];
+        int next = timeline.peekNext();
+        return next < 0 ? Long.MAX_VALUE : timeline.getStore().getTime(next);
+    }
+
+    private boolean less(int a, int b) {
+        long ta = nextTime(a);
+        long tb = nextTime(b);
+        return ta < tb || (ta == tb && a < b);
+    }
+
+    private void rebuild() {
+        for (int i = 0; i < sourceCount; i++) {
+            heap[i] = i;
+        }
+        for (int i = sourceCount / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    private void siftDown(int i) {
+        int value = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= sourceCount) {
+                break;
+            }
+            if (child + 1 < sourceCount && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], value)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+    }
+}
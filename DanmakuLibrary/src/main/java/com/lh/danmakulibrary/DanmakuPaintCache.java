@@ -0,0 +1,117 @@
+package com.lh.danmakulibrary;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.text.TextPaint;
+
+/**
+ * 按(字号, 颜色)共享的画笔,描边画笔和FontMetrics也一起缓存
+ * 画笔创建后不再修改,所以正在显示的弹幕可以继续使用被淘汰的画笔
+ * 用开放寻址的long键哈希表,查找时不分配内存;超过容量时整体清空
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuPaintCache {
+
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    //一种绘制样式
+    public static class Style {
+        public final TextPaint paint; //文本画笔
+        public final TextPaint strokePaint; //描边画笔
+        public final Paint.FontMetrics fontMetrics;
+
+        private Style(float textSize, int textColor, float strokeWidth) {
+            paint = new TextPaint();
+            paint.setStyle(Paint.Style.FILL);
+            paint.setAntiAlias(true);
+            paint.setFakeBoldText(true);
+            paint.setColor(textColor);
+            paint.setTextSize(textSize);
+
+            strokePaint = new TextPaint();
+            strokePaint.setAntiAlias(true);
+            strokePaint.setStrokeWidth(strokeWidth);
+            strokePaint.setStyle(Paint.Style.STROKE);
+            strokePaint.setFakeBoldText(true);
+            strokePaint.setColor(textColor == Color.WHITE ? Color.BLACK : Color.WHITE);
+            strokePaint.setTextSize(textSize);
+
+            fontMetrics = paint.getFontMetrics();
+        }
+    }
+
+    private final int maxSize;
+    private final long[] keys;
+    private final Style[] values;
+    private int size;
+    private float strokeWidth;
+
+    private int hitCount;
+    private int missCount;
+
+    public DanmakuPaintCache(int maxSize, float strokeWidth) {
+        this.maxSize = maxSize;
+        int capacity = 1;
+        while (capacity < maxSize * 2) { //负载不超过一半
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new Style[capacity];
+        this.strokeWidth = strokeWidth;
+    }
+
+    public void setStrokeWidth(float strokeWidth) {
+        if (this.strokeWidth != strokeWidth) {
+            this.strokeWidth = strokeWidth;
+            clear();
+        }
+    }
+
+    public Style get(float textSize, int textColor) {
+        long key = ((long) Float.floatToIntBits(textSize) << 32) | (textColor & 0xffffffffL);
+        int mask = keys.length - 1;
+        int index = mix(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                hitCount++;
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        missCount++;
+        Style style = new Style(textSize, textColor, strokeWidth);
+        if (size >= maxSize) {
+            clear();
+            index = mix(key) & mask;
+        }
+        keys[index] = key;
+        values[index] = style;
+        size++;
+        return style;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public void clear() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+}
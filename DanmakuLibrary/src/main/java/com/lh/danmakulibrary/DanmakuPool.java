@@ -0,0 +1,112 @@
+package com.lh.danmakulibrary;
+
+/**
+ * 有容量上限的对象池,用数组保存空闲对象,回收时不分配内存
+ * 池满时回收的对象直接丢弃;统计命中/未命中次数和同时使用数量的峰值,用于按设备调整容量
+ * 不是线程安全的
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuPool<T> {
+
+    public interface Factory<T> {
+        T create();
+    }
+
+    private final Factory<T> factory;
+    private final Object[] items;
+    private int size;
+
+    private int hitCount;
+    private int missCount;
+    private int dropCount; //池满时丢弃的数量
+    private int inUseCount; //已取出还未回收的数量
+    private int highWaterCount; //inUseCount的峰值
+
+    public DanmakuPool(int capacity, Factory<T> factory) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity < 0: " + capacity);
+        }
+        this.factory = factory;
+        this.items = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        inUseCount++;
+        if (inUseCount > highWaterCount) {
+            highWaterCount = inUseCount;
+        }
+        if (size > 0) {
+            hitCount++;
+            T item = (T) items[--size];
+            items[size] = null;
+            return item;
+        }
+        missCount++;
+        return factory.create();
+    }
+
+    //返回false表示池已满,对象被丢弃
+    public boolean release(T item) {
+        if (inUseCount > 0) {
+            inUseCount--;
+        }
+        if (size == items.length) {
+            dropCount++;
+            return false;
+        }
+        items[size++] = item;
+        return true;
+    }
+
+    //预先创建对象,直到池中有count个空闲对象(不超过容量)
+    public void prewarm(int count) {
+        count = Math.min(count, items.length);
+        while (size < count) {
+            items[size++] = factory.create();
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            items[i] = null;
+        }
+        size = 0;
+    }
+
+    public void resetStats() {
+        hitCount = 0;
+        missCount = 0;
+        dropCount = 0;
+        highWaterCount = inUseCount;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return items.length;
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+
+    public int getDropCount() {
+        return dropCount;
+    }
+
+    public int getInUseCount() {
+        return inUseCount;
+    }
+
+    public int getHighWaterCount() {
+        return highWaterCount;
+    }
+}
@@ -0,0 +1,28 @@
+package com.lh.danmakulibrary;
+
+import android.graphics.Canvas;
+import android.os.Looper;
+
+/**
+ * 弹幕画到哪里:View(主线程onDraw)、SurfaceView/TextureView(独立渲染线程)或离屏Bitmap
+ * 帧时钟运行在getLooper()所在的线程,布局和绘制都在这个线程完成
+ */
+
+public interface DanmakuRenderBackend {
+
+    interface Renderer {
+        //把当前帧画到canvas上(canvas已经清空)
+        void onRender(Canvas canvas);
+    }
+
+    //帧回调和绘制所在的线程
+    Looper getLooper();
+
+    void attach(Renderer renderer);
+
+    //请求绘制一帧,可以在任意线程调用
+    void requestRender();
+
+    //不再使用,之后不会再调用renderer
+    void detach();
+}
@@ -0,0 +1,236 @@
+package com.lh.danmakulibrary;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import java.util.ListIterator;
+
+/**
+ * 弹幕的绘制:测量文本、复用绘制信息,并把布局引擎中的弹幕画到任意Canvas上
+ * 与具体的View无关,可以在View.onDraw、渲染线程或离屏Bitmap中使用
+ * 不是线程安全的,同一时间只能在一个线程中使用
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuRenderer implements DanmakuLayoutEngine.Callback, DanmakuLayoutEngine.BadgeMeasurer {
+
+    public static final int MAX_TEXT_SIZE = 21;
+    public static final int DEFAULT_POOL_CAPACITY = 64;
+    private static final int MAX_BADGE_COUNT = 99;
+
+    private final float mDensity;
+    private float mScaleTextRatio = 0.9f; //文本缩放倍率
+    private float mStrokeWidth = 0.8f; //文本描边宽度
+    private float mTrackHeight; //每条轨道的高度
+
+    private DanmakuBitmapCache mBitmapCache; //弹幕位图缓存,为null时直接绘制文本
+
+    private final DanmakuPaintCache mPaintCache; //按字号和颜色共享的画笔
+    private final DanmakuTextMeasurer mTextMeasurer; //文本宽度和FontMetrics的缓存
+    private DanmakuPool<DanmakuWrapped> mPool; //弹幕回收池
+    private final String[] mBadgeTexts = new String[MAX_BADGE_COUNT + 2]; //合并计数角标的文本,避免每帧拼接字符串
+
+    private final DanmakuPool.Factory<DanmakuWrapped> mFactory = new DanmakuPool.Factory<DanmakuWrapped>() {
+        @Override
+        public DanmakuWrapped create() {
+            return new DanmakuWrapped();
+        }
+    };
+
+    public DanmakuRenderer(float density) {
+        mDensity = density;
+        mTextMeasurer = new DanmakuTextMeasurer();
+        mTrackHeight = measureTrackHeight();
+        mPaintCache = new DanmakuPaintCache(DanmakuPaintCache.DEFAULT_MAX_SIZE, mStrokeWidth);
+        mPool = new DanmakuPool<>(DEFAULT_POOL_CAPACITY, mFactory);
+    }
+
+    public void setScaleTextRatio(float scaleTextRatio) {
+        mScaleTextRatio = scaleTextRatio;
+    }
+
+    public float getScaleTextRatio() {
+        return mScaleTextRatio;
+    }
+
+    public void setStrokeWidth(float strokeWidth) {
+        mStrokeWidth = strokeWidth;
+        mPaintCache.setStrokeWidth(strokeWidth);
+    }
+
+    public float getStrokeWidth() {
+        return mStrokeWidth;
+    }
+
+    public void setBitmapCache(DanmakuBitmapCache bitmapCache) {
+        mBitmapCache = bitmapCache;
+    }
+
+    public DanmakuBitmapCache getBitmapCache() {
+        return mBitmapCache;
+    }
+
+    public DanmakuPaintCache getPaintCache() {
+        return mPaintCache;
+    }
+
+    public DanmakuTextMeasurer getTextMeasurer() {
+        return mTextMeasurer;
+    }
+
+    //重新设置回收池的容量,池中的空闲对象和统计会被清除
+    public void setPoolCapacity(int capacity) {
+        mPool = new DanmakuPool<>(capacity, mFactory);
+    }
+
+    public DanmakuPool<? extends DanmakuLayoutEngine.Item> getPool() {
+        return mPool;
+    }
+
+    //在播放前预先创建count个布局项,避免开始播放时集中分配
+    public void prewarm(int count) {
+        mPool.prewarm(count);
+    }
+
+    //最大字号的文本高度,用作轨道高度
+    public float measureTrackHeight() {
+        Paint.FontMetrics fontMetrics = mTextMeasurer.getFontMetrics(getTextSize(MAX_TEXT_SIZE));
+        return fontMetrics.bottom - fontMetrics.top;
+    }
+
+    //文本在轨道中垂直居中
+    public void setTrackHeight(float trackHeight) {
+        mTrackHeight = trackHeight;
+    }
+
+    public float getTrackHeight() {
+        return mTrackHeight;
+    }
+
+    //弹幕字号对应的绘制字号(px),可以在其他线程调用
+    public float getTextSize(int textSize) {
+        return getTextSize(textSize, mScaleTextRatio);
+    }
+
+    //使用指定的缩放倍率,例如在后台线程按创建方案时的倍率测量
+    public float getTextSize(int textSize, float scaleTextRatio) {
+        return dip2px(textSize > MAX_TEXT_SIZE ? MAX_TEXT_SIZE : textSize) * scaleTextRatio;
+    }
+
+    private int dip2px(float dpValue) {
+        return (int) (dpValue * mDensity + 0.5f);
+    }
+
+    @Override
+    public DanmakuLayoutEngine.Item obtainItem(DanmakuStore store, int index) {
+        DanmakuWrapped danmakuWrapped = mPool.acquire();
+        danmakuWrapped.wrapDanmaku(danmakuWrapped.item.moveTo(store, index));
+        return danmakuWrapped;
+    }
+
+    //为不在数据源中的弹幕创建布局项
+    public DanmakuLayoutEngine.Item obtainItem(Danmaku danmaku) {
+        DanmakuWrapped danmakuWrapped = mPool.acquire();
+        danmakuWrapped.wrapDanmaku(danmaku);
+        return danmakuWrapped;
+    }
+
+    //角标与弹幕使用同样的字号
+    @Override
+    public float measureBadge(DanmakuLayoutEngine.Item item, int mergeCount) {
+        return mergeCount > 1 ? mTextMeasurer.measureText(getBadgeText(mergeCount), ((DanmakuWrapped) item).textSize) : 0;
+    }
+
+    @Override
+    public void onItemRemoved(DanmakuLayoutEngine.Item item) {
+        DanmakuWrapped danmakuWrapped = (DanmakuWrapped) item;
+        danmakuWrapped.danmaku = null;
+        danmakuWrapped.bitmap = null;
+        mPool.release(danmakuWrapped);
+    }
+
+    //绘制布局引擎中的所有弹幕,trackY为每条轨道顶部的y坐标
+    public void render(Canvas canvas, DanmakuLayoutEngine engine, float[] trackY) {
+        int trackCount = Math.min(trackY.length, engine.getTrackCount());
+        for (int i = 0; i < trackCount; i++) {
+            ListIterator<DanmakuLayoutEngine.Item> iterator = engine.getTrackItems(i);
+            while (iterator.hasNext()) {
+                ((DanmakuWrapped) iterator.next()).draw(canvas, trackY[i]);
+            }
+        }
+    }
+
+    private String getBadgeText(int count) {
+        if (count > MAX_BADGE_COUNT) {
+            count = MAX_BADGE_COUNT + 1;
+        }
+        String text = mBadgeTexts[count];
+        if (text == null) {
+            text = count > MAX_BADGE_COUNT ? " ×" + MAX_BADGE_COUNT + "+" : " ×" + count;
+            mBadgeTexts[count] = text;
+        }
+        return text;
+    }
+
+    public int getScrapCount() {
+        return mPool.size();
+    }
+
+    //创建过的绘制信息数量
+    public int getNewCount() {
+        return mPool.getMissCount();
+    }
+
+    //弹幕的绘制信息,位置由DanmakuLayoutEngine计算
+    private class DanmakuWrapped extends DanmakuLayoutEngine.Item {
+
+        private final DanmakuStore.Item item = new DanmakuStore.Item(); //数据源中弹幕的视图,随DanmakuWrapped一起复用
+
+        private DanmakuPaintCache.Style style; //共享的画笔,不能修改
+
+        private float textSize;
+        private float textHeight;
+        private float baseLineOffset;
+
+        private Bitmap bitmap; //开启位图缓存时使用
+
+        private void wrapDanmaku(Danmaku danmaku) {
+            this.danmaku = danmaku;
+            textSize = getTextSize(danmaku.getTextSize());
+            style = mPaintCache.get(textSize, danmaku.getTextColor());
+            Paint.FontMetrics fontMetrics = mTextMeasurer.getFontMetrics(textSize);
+            textHeight = fontMetrics.descent - fontMetrics.top;
+            width = mTextMeasurer.measureText(danmaku.getContent(), textSize);
+            baseLineOffset = (mTrackHeight + textHeight) / 2 - fontMetrics.descent;
+            bitmap = null;
+            DanmakuBitmapCache bitmapCache = mBitmapCache;
+            if (bitmapCache != null && danmaku.getContent() != null) {
+                String key = DanmakuBitmapCache.createKey(danmaku.getContent(), textSize, danmaku.getTextColor());
+                bitmap = bitmapCache.get(key);
+                if (bitmap == null) {
+                    bitmap = bitmapCache.create(key, danmaku.getContent(), width, fontMetrics, mStrokeWidth, style.paint, style.strokePaint);
+                }
+            }
+        }
+
+        private void draw(Canvas canvas, float y) {
+            if (bitmap != null) {
+                canvas.drawBitmap(bitmap, x - mStrokeWidth, y + baseLineOffset + style.fontMetrics.top - mStrokeWidth, null);
+            } else {
+                canvas.drawText(danmaku.getContent(), x, y + baseLineOffset, style.paint);
+                canvas.drawText(danmaku.getContent(), x, y + baseLineOffset, style.strokePaint);
+            }
+            if (mergeCount > 1) { //合并了重复弹幕,在后面显示数量,宽度已经计入width
+                String badge = getBadgeText(mergeCount);
+                float badgeX = x + width - badgeWidth;
+                canvas.drawText(badge, badgeX, y + baseLineOffset, style.paint);
+                canvas.drawText(badge, badgeX, y + baseLineOffset, style.strokePaint);
+            }
+        }
+
+        private float getHeight() {
+            return textHeight;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.lh.danmakulibrary;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界的多生产者单消费者无锁环形队列,用于把弹幕从添加线程交给绘制(帧)线程
+ * offer可以在任意多个线程同时调用,不加锁也不分配内存;poll/clear只能在同一个消费者线程调用
+ * 每个位置带一个序号:序号等于写入位置时可以写入,等于写入位置 + 1时可以读取
+ */
+
+class DanmakuRingBuffer<T> {
+
+    private final AtomicReferenceArray<T> buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); //下一个写入的位置,生产者用CAS竞争
+    private final AtomicInteger droppedCount = new AtomicInteger(); //队列已满时被拒绝的数量
+
+    private long head; //下一个读取的位置,只由消费者读写
+
+    //capacity会向上取整到2的幂
+    public DanmakuRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    //队列已满时返回false
+    public boolean offer(T value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            long currentTail = tail.get();
+            int index = (int) currentTail & mask;
+            long diff = sequences.get(index) - currentTail;
+            if (diff == 0) {
+                if (tail.compareAndSet(currentTail, currentTail + 1)) {
+                    buffer.lazySet(index, value);
+                    sequences.lazySet(index, currentTail + 1); //先写入元素再发布序号
+                    return true;
+                }
+            } else if (diff < 0) { //这个位置还没有被消费者读取,队列已满
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            //其他生产者已经占用了这个位置,重新读取tail
+        }
+    }
+
+    //队列为空时返回null
+    public T poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) { //还没有写入(或者生产者占用了位置但还没写完)
+            return null;
+        }
+        T value = buffer.get(index);
+        buffer.lazySet(index, null);
+        sequences.lazySet(index, head + buffer.length()); //位置留给下一圈的生产者
+        head++;
+        return value;
+    }
+
+    //由消费者调用,丢弃所有元素
+    public void clear() {
+        while (poll() != null) {
+            //丢弃
+        }
+    }
+
+    //并发时只是一个近似值
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, buffer.length()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return buffer.length();
+    }
+
+    public int getDroppedCount() {
+        return droppedCount.get();
+    }
+}
@@ -0,0 +1,311 @@
+package com.lh.danmakulibrary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 按固定时长分段、按需加载的数据源,用于很长的视频或存档,不需要把所有弹幕放在内存中
+ * 播放位置附近的分段在后台线程加载,加载完成后作为一个数据源加入DanmakuMultiTimeline;
+ * 离播放位置较远的分段从中移除并释放;seekTo时优先加载目标分段
+ * update、seekTo、reset、release在帧线程中调用(DanmakuView中持有布局锁)
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuSegmentedTimeline {
+
+    public static final long DEFAULT_SEGMENT_DURATION = 6 * 60 * 1000L;
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_LOADING = 1;
+    private static final int STATE_LOADED = 2;
+    private static final int STATE_FAILED = 3; //加载失败,seekTo之后才会重试
+
+    public interface SegmentLoader {
+        /**
+         * 在加载线程中调用,返回时间在[fromTime, toTime)内、已按时间排序的弹幕
+         * segment = fromTime / segmentDuration
+         */
+        DanmakuStore loadSegment(int segment, long fromTime, long toTime) throws Exception;
+    }
+
+    public interface OnSegmentLoadedListener {
+        //在加载线程中回调,加载的数据在下一次update时加入
+        void onSegmentLoaded(int segment);
+
+        //在加载线程中回调,该分段在seekTo之后才会重试
+        void onSegmentLoadFailed(int segment, Exception e);
+    }
+
+    /**
+     * 从B站格式的xml加载每个分段,输入可以是gzip或deflate压缩的
+     * 只保留属于该分段时间范围内的弹幕
+     */
+    public static abstract class StreamSegmentLoader implements SegmentLoader {
+
+        private final BiliBiliDanmakuParser parser;
+
+        protected StreamSegmentLoader(BiliBiliDanmakuParser parser) {
+            this.parser = parser;
+        }
+
+        //打开第segment段的输入,由加载线程关闭
+        protected abstract InputStream openSegment(int segment) throws IOException;
+
+        @Override
+        public DanmakuStore loadSegment(int segment, long fromTime, long toTime) throws Exception {
+            InputStream stream = BiliBiliDanmakuParser.decompress(openSegment(segment));
+            ArrayList<Danmaku> danmakus;
+            try {
+                danmakus = parser.parse(stream);
+            } finally {
+                stream.close();
+            }
+            int from = 0;
+            while (from < danmakus.size() && danmakus.get(from).getTime() < fromTime) {
+                from++;
+            }
+            int to = danmakus.size();
+            while (to > from && danmakus.get(to - 1).getTime() >= toTime) {
+                to--;
+            }
+            return DanmakuStore.create(danmakus.subList(from, to));
+        }
+    }
+
+    private static class Loaded {
+        private final int segment;
+        private final DanmakuStore store; //null表示加载失败
+
+        private Loaded(int segment, DanmakuStore store) {
+            this.segment = segment;
+            this.store = store;
+        }
+    }
+
+    private final SegmentLoader loader;
+    private final long segmentDuration;
+    private final int segmentCount;
+
+    private final int[] states;
+    private final Future<?>[] futures;
+    private final DanmakuTimeline[] timelines; //已加入DanmakuMultiTimeline的分段
+    private final ConcurrentLinkedQueue<Loaded> loadedQueue = new ConcurrentLinkedQueue<>();
+    private volatile OnSegmentLoadedListener listener;
+    private ExecutorService executor;
+
+    private int preloadAhead = 1; //提前加载播放位置之后的分段数
+    private int keepBehind = 1; //保留播放位置之前的分段数,seek时用于补出飞行中的弹幕
+    private long lastTime = -1; //上一次update的播放时间
+
+    private int loadedCount;
+    private int evictedCount;
+
+    public DanmakuSegmentedTimeline(SegmentLoader loader, long duration) {
+        this(loader, duration, DEFAULT_SEGMENT_DURATION);
+    }
+
+    //duration: 视频(弹幕)的总时长
+    public DanmakuSegmentedTimeline(SegmentLoader loader, long duration, long segmentDuration) {
+        if (segmentDuration <= 0) {
+            throw new IllegalArgumentException("segmentDuration <= 0");
+        }
+        this.loader = loader;
+        this.segmentDuration = segmentDuration;
+        this.segmentCount = (int) ((duration + segmentDuration - 1) / segmentDuration);
+        states = new int[segmentCount];
+        futures = new Future<?>[segmentCount];
+        timelines = new DanmakuTimeline[segmentCount];
+    }
+
+    public void setWindow(int preloadAhead, int keepBehind) {
+        this.preloadAhead = preloadAhead;
+        this.keepBehind = keepBehind;
+    }
+
+    public void setOnSegmentLoadedListener(OnSegmentLoadedListener listener) {
+        this.listener = listener;
+    }
+
+    public OnSegmentLoadedListener getOnSegmentLoadedListener() {
+        return listener;
+    }
+
+    public long getSegmentDuration() {
+        return segmentDuration;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    //time所在的分段,超出总时长时返回最后一个分段
+    public int segmentOf(long time) {
+        return time < 0 ? 0 : (int) Math.min(time / segmentDuration, Math.max(segmentCount - 1, 0));
+    }
+
+    public boolean isLoaded(int segment) {
+        return states[segment] == STATE_LOADED;
+    }
+
+    //当前在内存中的分段数
+    public int getResidentCount() {
+        int count = 0;
+        for (DanmakuTimeline timeline : timelines) {
+            if (timeline != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getLoadedCount() {
+        return loadedCount;
+    }
+
+    public int getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * 每帧在addDue之前调用:加入已加载完成的分段,移除窗口外的分段,请求加载窗口内的分段
+     */
+    public void update(long time, DanmakuMultiTimeline sources) {
+        int current = segmentOf(time);
+        int first = current - keepBehind;
+        int last = current + preloadAhead;
+        Loaded loaded;
+        while ((loaded = loadedQueue.poll()) != null) {
+            int segment = loaded.segment;
+            if (states[segment] != STATE_LOADING) { //已经被取消,或者重复加载
+                continue;
+            }
+            futures[segment] = null;
+            if (loaded.store == null) {
+                states[segment] = STATE_FAILED;
+            } else if (segment < first || segment > last) {
+                states[segment] = STATE_IDLE;
+            } else {
+                DanmakuTimeline timeline = new DanmakuTimeline(loaded.store);
+                if (lastTime >= 0) {
+                    //已经播放过的弹幕不再出现;同一时间多次update时,time处的弹幕还没有取出
+                    timeline.seekTo(Math.min(lastTime + 1, time));
+                }
+                timelines[segment] = timeline;
+                states[segment] = STATE_LOADED;
+                sources.add(timeline);
+                loadedCount++;
+            }
+        }
+        for (int i = 0; i < segmentCount; i++) {
+            if (i < first || i > last) {
+                evict(i, sources);
+            }
+        }
+        for (int i = current; i <= last; i++) {
+            request(i);
+        }
+        for (int i = current - 1; i >= first; i--) {
+            request(i);
+        }
+        lastTime = time;
+    }
+
+    //跳转时先调用,优先加载目标分段;之后由DanmakuLayoutEngine.seekTo定位各分段的游标
+    public void seekTo(long time, DanmakuMultiTimeline sources) {
+        for (int i = 0; i < segmentCount; i++) {
+            if (states[i] == STATE_FAILED) {
+                states[i] = STATE_IDLE;
+            }
+        }
+        lastTime = time - 1;
+        update(time, sources);
+        lastTime = time - 1;
+    }
+
+    //停止播放,下一次从头开始
+    public void reset() {
+        lastTime = -1;
+    }
+
+    //移除所有分段并停止加载线程,之后仍然可以继续使用
+    public void release(DanmakuMultiTimeline sources) {
+        for (int i = 0; i < segmentCount; i++) {
+            evict(i, sources);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        loadedQueue.clear();
+        lastTime = -1;
+    }
+
+    private void evict(int segment, DanmakuMultiTimeline sources) {
+        if (states[segment] == STATE_LOADED) {
+            sources.remove(timelines[segment]);
+            timelines[segment] = null;
+            evictedCount++;
+        } else if (states[segment] == STATE_LOADING) {
+            futures[segment].cancel(false);
+            futures[segment] = null;
+        } else if (states[segment] == STATE_FAILED) {
+            return;
+        }
+        states[segment] = STATE_IDLE;
+    }
+
+    private void request(int segment) {
+        if (segment < 0 || segment >= segmentCount || states[segment] != STATE_IDLE) {
+            return;
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "DanmakuSegmentLoader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        states[segment] = STATE_LOADING;
+        futures[segment] = executor.submit(new LoadTask(segment));
+    }
+
+    private class LoadTask implements Runnable {
+
+        private final int segment;
+
+        private LoadTask(int segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public void run() {
+            DanmakuStore store = null;
+            Exception error = null;
+            try {
+                long fromTime = segment * segmentDuration;
+                store = loader.loadSegment(segment, fromTime, fromTime + segmentDuration);
+            } catch (Exception e) {
+                error = e;
+            }
+            loadedQueue.offer(new Loaded(segment, store));
+            OnSegmentLoadedListener listener = DanmakuSegmentedTimeline.this.listener;
+            if (listener == null) {
+                return;
+            }
+            if (error != null) {
+                listener.onSegmentLoadFailed(segment, error);
+            } else {
+                listener.onSegmentLoaded(segment);
+            }
+        }
+    }
+}
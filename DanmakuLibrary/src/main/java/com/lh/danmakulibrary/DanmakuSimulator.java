@@ -0,0 +1,296 @@
+package com.lh.danmakulibrary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
+
+/**
+ * 不需要View的弹幕回放:用DanmakuLayoutEngine按固定帧间隔播放整个数据源,速度只受CPU限制
+ * 文本宽度由WidthMeasurer给出,轨道数按视口高度和轨道高度计算,与DanmakuView相同
+ * 用于在CI或桌面上离线调整轨道数、速度、同屏数量和防重叠等参数
+ * 不是线程安全的
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuSimulator {
+
+    public static final long DEFAULT_FRAME_INTERVAL = 16;
+    public static final int DEFAULT_MAX_TRACK_COUNT = 20;
+
+    private final int mViewportWidth;
+    private final int mViewportHeight;
+    private final float mTrackHeight;
+    private final DanmakuLayoutPlan.WidthMeasurer mMeasurer;
+    private final DanmakuLayoutEngine mEngine;
+    private final ArrayList<DanmakuLayoutEngine.Item> mScrap = new ArrayList<>();
+
+    private long mFrameInterval = DEFAULT_FRAME_INTERVAL;
+    private int mMaxTrackCount = DEFAULT_MAX_TRACK_COUNT;
+
+    private long mFromTime; //本次回放的开始时间,之前的弹幕(seek补出的)不计入统计
+    private int mAdmittedCount;
+
+    public DanmakuSimulator(int viewportWidth, int viewportHeight, float trackHeight, DanmakuLayoutPlan.WidthMeasurer measurer) {
+        mViewportWidth = viewportWidth;
+        mViewportHeight = viewportHeight;
+        mTrackHeight = trackHeight;
+        mMeasurer = measurer;
+        mEngine = new DanmakuLayoutEngine(new DanmakuLayoutEngine.Callback() {
+            @Override
+            public DanmakuLayoutEngine.Item obtainItem(DanmakuStore store, int index) {
+                return obtain(store, index);
+            }
+
+            @Override
+            public void onItemRemoved(DanmakuLayoutEngine.Item item) {
+                recycle(item);
+            }
+        });
+        mEngine.setViewportWidth(viewportWidth);
+    }
+
+    //速度、显示时长、同屏数量、防重叠、屏蔽和合并等参数直接在布局引擎上设置
+    public DanmakuLayoutEngine getEngine() {
+        return mEngine;
+    }
+
+    public void setFrameInterval(long frameInterval) {
+        if (frameInterval <= 0) {
+            throw new IllegalArgumentException("frameInterval <= 0");
+        }
+        mFrameInterval = frameInterval;
+    }
+
+    public long getFrameInterval() {
+        return mFrameInterval;
+    }
+
+    //对应DanmakuView中的mMaxDanmakuTrackCount
+    public void setMaxTrackCount(int maxTrackCount) {
+        mMaxTrackCount = maxTrackCount;
+    }
+
+    public int getMaxTrackCount() {
+        return mMaxTrackCount;
+    }
+
+    public Report run(List<Danmaku> sortedDanmakus) {
+        return run(new DanmakuTimeline(sortedDanmakus));
+    }
+
+    public Report run(DanmakuStore store) {
+        return run(new DanmakuTimeline(store));
+    }
+
+    //从0开始播放,直到最后一条弹幕消失
+    public Report run(DanmakuTimeline timeline) {
+        DanmakuStore store = timeline.getStore();
+        long lastTime = store.size() == 0 ? 0 : store.getTime(store.size() - 1);
+        return run(timeline, 0, lastTime + mEngine.getMaxShowTime() + 1);
+    }
+
+    /**
+     * 播放[fromTime, toTime]:先跳转到fromTime(补出正在飞行中的弹幕),再每隔frameInterval推进一帧
+     * 统计只包括出现时间在fromTime之后的弹幕
+     */
+    public Report run(DanmakuTimeline timeline, long fromTime, long toTime) {
+        int trackCount = DanmakuLayoutEngine.computeTrackCount(mViewportHeight, mTrackHeight, mMaxTrackCount);
+        mEngine.setTrackCount(trackCount);
+        mEngine.setViewportWidth(mViewportWidth);
+        DanmakuMerger merger = mEngine.getMerger();
+        DanmakuFilter filter = mEngine.getFilter();
+        int mergedBefore = merger == null ? 0 : merger.getMergedCount();
+
+        mFromTime = fromTime;
+        mAdmittedCount = 0;
+        mEngine.seekTo(timeline, fromTime);
+        int startCursor = timeline.getCursor();
+        Report report = new Report(trackCount);
+        long time = fromTime;
+        while (true) {
+            mEngine.addDue(timeline, time);
+            mEngine.layout(time);
+            sample(report);
+            if (time >= toTime) {
+                break;
+            }
+            time = Math.min(time + mFrameInterval, toTime);
+        }
+        int endCursor = timeline.getCursor();
+        mEngine.clear(); //回收剩余的弹幕,同时计入admitted
+
+        DanmakuStore store = timeline.getStore();
+        report.totalCount = endCursor - startCursor;
+        if (filter != null) {
+            for (int i = startCursor; i < endCursor; i++) {
+                if (filter.isBlocked(store, i)) {
+                    report.filteredCount++;
+                }
+            }
+        }
+        report.mergedCount = merger == null ? 0 : merger.getMergedCount() - mergedBefore;
+        report.admittedCount = mAdmittedCount;
+        report.droppedCount = report.totalCount - report.admittedCount - report.filteredCount - report.mergedCount;
+        return report;
+    }
+
+    //统计一帧:每条轨道是否被占用,以及同一轨道中相邻弹幕是否重叠
+    private void sample(Report report) {
+        report.frameCount++;
+        int itemCount = mEngine.getItemCount();
+        report.itemCountSum += itemCount;
+        if (itemCount > report.peakItemCount) {
+            report.peakItemCount = itemCount;
+        }
+        for (int i = 0; i < report.trackCount; i++) {
+            ListIterator<DanmakuLayoutEngine.Item> iterator = mEngine.getTrackItems(i);
+            DanmakuLayoutEngine.Item previous = null;
+            while (iterator.hasNext()) {
+                DanmakuLayoutEngine.Item item = iterator.next();
+                if (previous == null) {
+                    report.busyFrames[i]++;
+                } else {
+                    boolean scroll = item.getType() == DanmakuLayoutEngine.TYPE_SCROLL;
+                    if (scroll == (previous.getType() == DanmakuLayoutEngine.TYPE_SCROLL)) {
+                        //滚动弹幕:后出现的追上了前一条的尾部;居中弹幕:同一轨道同时有两条
+                        float overlap = scroll ? previous.getX() + previous.getWidth() - item.getX() : item.getWidth();
+                        if (overlap > 0) {
+                            report.overlapViolations++;
+                            if (overlap > report.maxOverlap) {
+                                report.maxOverlap = overlap;
+                            }
+                        }
+                    }
+                }
+                previous = item;
+            }
+        }
+    }
+
+    private DanmakuLayoutEngine.Item obtain(DanmakuStore store, int index) {
+        DanmakuLayoutEngine.Item item = mScrap.isEmpty() ? new DanmakuLayoutEngine.Item() : mScrap.remove(mScrap.size() - 1);
+        DanmakuStore.Item danmaku = item.danmaku instanceof DanmakuStore.Item ? (DanmakuStore.Item) item.danmaku : new DanmakuStore.Item();
+        item.danmaku = danmaku.moveTo(store, index);
+        item.width = mMeasurer.measureWidth(store, index);
+        item.track = -1;
+        return item;
+    }
+
+    private void recycle(DanmakuLayoutEngine.Item item) {
+        if (item.track >= 0 && item.enterTime >= mFromTime) { //加入过轨道
+            mAdmittedCount++;
+        }
+        mScrap.add(item);
+    }
+
+    //一次回放的统计
+    public static class Report {
+        private final int trackCount;
+        private final int[] busyFrames; //每条轨道有弹幕的帧数
+
+        private int totalCount;
+        private int admittedCount;
+        private int filteredCount;
+        private int mergedCount;
+        private int droppedCount;
+
+        private int frameCount;
+        private long itemCountSum;
+        private int peakItemCount;
+
+        private int overlapViolations;
+        private float maxOverlap;
+
+        Report(int trackCount) {
+            this.trackCount = trackCount;
+            busyFrames = new int[trackCount];
+        }
+
+        public int getTrackCount() {
+            return trackCount;
+        }
+
+        //回放期间到期的弹幕数量
+        public int getTotalCount() {
+            return totalCount;
+        }
+
+        //实际显示的弹幕数量
+        public int getAdmittedCount() {
+            return admittedCount;
+        }
+
+        public int getFilteredCount() {
+            return filteredCount;
+        }
+
+        public int getMergedCount() {
+            return mergedCount;
+        }
+
+        //因为同屏数量或没有空闲轨道被丢弃的数量
+        public int getDroppedCount() {
+            return droppedCount;
+        }
+
+        public float getAdmittedRatio() {
+            return totalCount == 0 ? 1 : (float) admittedCount / totalCount;
+        }
+
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        public float getAverageItemCount() {
+            return frameCount == 0 ? 0 : (float) itemCountSum / frameCount;
+        }
+
+        public int getPeakItemCount() {
+            return peakItemCount;
+        }
+
+        //第track条轨道有弹幕的帧所占的比例
+        public float getTrackUtilization(int track) {
+            return frameCount == 0 ? 0 : (float) busyFrames[track] / frameCount;
+        }
+
+        public float getAverageTrackUtilization() {
+            if (trackCount == 0 || frameCount == 0) {
+                return 0;
+            }
+            long sum = 0;
+            for (int busy : busyFrames) {
+                sum += busy;
+            }
+            return (float) sum / trackCount / frameCount;
+        }
+
+        //同一轨道中相邻弹幕重叠的次数(按帧累计)
+        public int getOverlapViolations() {
+            return overlapViolations;
+        }
+
+        //最大的重叠宽度(px)
+        public float getMaxOverlap() {
+            return maxOverlap;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format(Locale.US, "total:%d admitted:%d(%.1f%%) filtered:%d merged:%d dropped:%d%n",
+                    totalCount, admittedCount, getAdmittedRatio() * 100, filteredCount, mergedCount, droppedCount));
+            builder.append(String.format(Locale.US, "frames:%d count:%.1f/%d overlap:%d/%.1fpx%n",
+                    frameCount, getAverageItemCount(), peakItemCount, overlapViolations, maxOverlap));
+            builder.append(String.format(Locale.US, "trackCount:%d utilization:%.1f%% [", trackCount, getAverageTrackUtilization() * 100));
+            for (int i = 0; i < trackCount; i++) {
+                if (i > 0) {
+                    builder.append(' ');
+                }
+                builder.append(String.format(Locale.US, "%.0f", getTrackUtilization(i) * 100));
+            }
+            return builder.append(']').toString();
+        }
+    }
+}
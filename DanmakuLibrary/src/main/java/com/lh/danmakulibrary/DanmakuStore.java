@@ -0,0 +1,342 @@
+package com.lh.danmakulibrary;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按列存储的弹幕数据(时间、类型、字号、颜色等各一个基本类型数组,文本以UTF-8放在共享的DanmakuTextArena中)
+ * 文本只在弹幕被显示(通过Item读取)时解码并缓存,过滤、合并和测量直接读取文本表中的UTF-8字节
+ * 列按容量翻倍增长,合并新弹幕在原对象上进行;修改和读取需要由调用方同步(DanmakuView中持有mLock)
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuStore {
+
+    private long[] times;
+    private byte[] types;
+    private short[] textSizes;
+    private int[] textColors;
+    private long[] sendTimes;
+    private int[] poolIds;
+    private long[] danmakuIds;
+    private int[] contents; //文本在文本表中的索引
+    private int[] userHashes; //用户hash在文本表中的索引
+    private final DanmakuTextArena strings;
+    private int size;
+    private volatile int modCount; //每次修改加1,用于判断预先计算的结果是否仍然有效
+
+    //从缓存文件读取的列数据直接组装成DanmakuStore
+    DanmakuStore(long[] times, byte[] types, short[] textSizes, int[] textColors, long[] sendTimes, int[] poolIds,
+                 long[] danmakuIds, int[] contents, int[] userHashes, byte[] stringBytes, int[] stringOffsets, int stringCount) {
+        this.times = times;
+        this.types = types;
+        this.textSizes = textSizes;
+        this.textColors = textColors;
+        this.sendTimes = sendTimes;
+        this.poolIds = poolIds;
+        this.danmakuIds = danmakuIds;
+        this.contents = contents;
+        this.userHashes = userHashes;
+        this.strings = new DanmakuTextArena(stringBytes, stringOffsets, stringCount);
+        this.size = times.length;
+    }
+
+    private DanmakuStore(int capacity) {
+        times = new long[capacity];
+        types = new byte[capacity];
+        textSizes = new short[capacity];
+        textColors = new int[capacity];
+        sendTimes = new long[capacity];
+        poolIds = new int[capacity];
+        danmakuIds = new long[capacity];
+        contents = new int[capacity];
+        userHashes = new int[capacity];
+        strings = new DanmakuTextArena();
+        size = 0;
+    }
+
+    //sortedDanmakus需要已按时间排序
+    public static DanmakuStore create(List<Danmaku> sortedDanmakus) {
+        DanmakuStore store = new DanmakuStore(sortedDanmakus.size());
+        for (int i = 0; i < sortedDanmakus.size(); i++) {
+            store.set(i, sortedDanmakus.get(i));
+        }
+        store.size = sortedDanmakus.size();
+        return store;
+    }
+
+    /**
+     * 和一批已排序的弹幕归并,时间相同时已有的弹幕在前
+     * 这批弹幕都不早于最后一条时直接追加,否则从后往前原地归并,只移动晚于这批第一条的弹幕
+     */
+    public void merge(List<Danmaku> sortedBatch) {
+        int count = sortedBatch.size();
+        if (count == 0) {
+            return;
+        }
+        ensureCapacity(size + count);
+        int i = size - 1;
+        int k = size + count - 1;
+        for (int j = count - 1; j >= 0; k--) {
+            Danmaku danmaku = sortedBatch.get(j);
+            if (i >= 0 && times[i] > danmaku.getTime()) {
+                moveRow(i--, k);
+            } else {
+                set(k, danmaku);
+                j--;
+            }
+        }
+        size += count;
+        modCount++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= times.length) {
+            return;
+        }
+        capacity = Math.max(capacity, times.length * 2);
+        times = Arrays.copyOf(times, capacity);
+        types = Arrays.copyOf(types, capacity);
+        textSizes = Arrays.copyOf(textSizes, capacity);
+        textColors = Arrays.copyOf(textColors, capacity);
+        sendTimes = Arrays.copyOf(sendTimes, capacity);
+        poolIds = Arrays.copyOf(poolIds, capacity);
+        danmakuIds = Arrays.copyOf(danmakuIds, capacity);
+        contents = Arrays.copyOf(contents, capacity);
+        userHashes = Arrays.copyOf(userHashes, capacity);
+    }
+
+    private void set(int index, Danmaku danmaku) {
+        times[index] = danmaku.getTime();
+        types[index] = (byte) danmaku.getType();
+        textSizes[index] = (short) danmaku.getTextSize();
+        textColors[index] = danmaku.getTextColor();
+        sendTimes[index] = danmaku.getSendTime();
+        poolIds[index] = danmaku.getPoolId();
+        danmakuIds[index] = danmaku.getDanmakuId();
+        contents[index] = strings.intern(danmaku.getContent());
+        userHashes[index] = strings.intern(danmaku.getUserHash());
+    }
+
+    private void moveRow(int from, int to) {
+        times[to] = times[from];
+        types[to] = types[from];
+        textSizes[to] = textSizes[from];
+        textColors[to] = textColors[from];
+        sendTimes[to] = sendTimes[from];
+        poolIds[to] = poolIds[from];
+        danmakuIds[to] = danmakuIds[from];
+        contents[to] = contents[from];
+        userHashes[to] = userHashes[from];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public int getType(int index) {
+        return types[index];
+    }
+
+    public int getTextSize(int index) {
+        return textSizes[index];
+    }
+
+    public int getTextColor(int index) {
+        return textColors[index];
+    }
+
+    public long getSendTime(int index) {
+        return sendTimes[index];
+    }
+
+    public int getPoolId(int index) {
+        return poolIds[index];
+    }
+
+    public long getDanmakuId(int index) {
+        return danmakuIds[index];
+    }
+
+    //已显示过的弹幕返回缓存的文本,否则临时解码,不缓存
+    public String getContent(int index) {
+        return strings.get(contents[index]);
+    }
+
+    //解码并缓存文本,用于被显示的弹幕
+    public String loadContent(int index) {
+        return strings.load(contents[index]);
+    }
+
+    public String getUserHash(int index) {
+        return strings.get(userHashes[index]);
+    }
+
+    //以下方法供DanmakuCache按列写出
+    long[] times() {
+        return times;
+    }
+
+    byte[] types() {
+        return types;
+    }
+
+    short[] textSizes() {
+        return textSizes;
+    }
+
+    int[] textColors() {
+        return textColors;
+    }
+
+    long[] sendTimes() {
+        return sendTimes;
+    }
+
+    int[] poolIds() {
+        return poolIds;
+    }
+
+    long[] danmakuIds() {
+        return danmakuIds;
+    }
+
+    int[] contents() {
+        return contents;
+    }
+
+    int[] userHashes() {
+        return userHashes;
+    }
+
+    byte[] stringBytes() {
+        return strings.bytes();
+    }
+
+    int[] stringOffsets() {
+        return strings.offsets();
+    }
+
+    int stringCount() {
+        return strings.size();
+    }
+
+    int modCount() {
+        return modCount;
+    }
+
+    //以下方法供过滤、合并和测量直接读取UTF-8字节
+    DanmakuTextArena strings() {
+        return strings;
+    }
+
+    int contentId(int index) {
+        return contents[index];
+    }
+
+    int userHashId(int index) {
+        return userHashes[index];
+    }
+
+    //不同文本的UTF-8总字节数
+    public int getTextByteSize() {
+        return strings.byteSize();
+    }
+
+    //已解码并缓存的文本数
+    public int getDecodedTextCount() {
+        return strings.decodedCount();
+    }
+
+    //第一条时间 >= time 的弹幕索引,没有则返回size()
+    public int lowerBound(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 某一行数据的快照,moveTo时复制各列,之后数据源被修改(例如原地归并)也不受影响
+     * 文本在第一次getContent时才解码;可以反复moveTo复用,避免为每条弹幕创建对象
+     */
+    public static class Item extends Danmaku {
+        private DanmakuTextArena strings;
+        private int contentId;
+        private int userHashId;
+        private boolean contentLoaded;
+        private boolean userHashLoaded;
+
+        public Item moveTo(DanmakuStore store, int index) {
+            setTime(store.times[index]);
+            setType(store.types[index]);
+            setTextSize(store.textSizes[index]);
+            setTextColor(store.textColors[index]);
+            setSendTime(store.sendTimes[index]);
+            setPoolId(store.poolIds[index]);
+            setDanmakuId(store.danmakuIds[index]);
+            strings = store.strings;
+            contentId = store.contents[index];
+            userHashId = store.userHashes[index];
+            contentLoaded = false;
+            userHashLoaded = false;
+            return this;
+        }
+
+        DanmakuTextArena strings() {
+            return strings;
+        }
+
+        //文本在文本表中的索引,被setContent修改过时返回-1
+        int contentId() {
+            return contentId;
+        }
+
+        int userHashId() {
+            return userHashId;
+        }
+
+        @Override
+        public String getContent() {
+            if (!contentLoaded) {
+                super.setContent(strings.load(contentId)); //Item只用于被显示的弹幕
+                contentLoaded = true;
+            }
+            return super.getContent();
+        }
+
+        @Override
+        public void setContent(String content) {
+            super.setContent(content);
+            contentId = -1;
+            contentLoaded = true;
+        }
+
+        @Override
+        public String getUserHash() {
+            if (!userHashLoaded) {
+                super.setUserHash(strings.get(userHashId));
+                userHashLoaded = true;
+            }
+            return super.getUserHash();
+        }
+
+        @Override
+        public void setUserHash(String userHash) {
+            super.setUserHash(userHash);
+            userHashId = -1;
+            userHashLoaded = true;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.lh.danmakulibrary;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.TextureView;
+
+/**
+ * 在独立的渲染线程中绘制到SurfaceView或TextureView,不占用主线程
+ * Surface销毁时等待正在进行的绘制结束;detach后渲染线程退出,不能再次使用
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuSurfaceBackend implements DanmakuRenderBackend {
+
+    private final SurfaceTarget mTarget;
+    private final HandlerThread mRenderThread;
+    private final Handler mRenderHandler;
+    private final Object mSurfaceLock = new Object();
+
+    private boolean mSurfaceAvailable; //由mSurfaceLock保护
+    private volatile Renderer mRenderer;
+
+    private final Runnable mRenderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            draw();
+        }
+    };
+
+    private DanmakuSurfaceBackend(SurfaceTarget target) {
+        mTarget = target;
+        mRenderThread = new HandlerThread("DanmakuRender");
+        mRenderThread.start();
+        mRenderHandler = new Handler(mRenderThread.getLooper());
+    }
+
+    //SurfaceView会被设置为透明并显示在媒体层之上
+    public static DanmakuSurfaceBackend create(SurfaceView surfaceView) {
+        final HolderTarget target = new HolderTarget(surfaceView.getHolder());
+        final DanmakuSurfaceBackend backend = new DanmakuSurfaceBackend(target);
+        surfaceView.setZOrderMediaOverlay(true);
+        target.holder.setFormat(PixelFormat.TRANSLUCENT);
+        target.holder.addCallback(new SurfaceHolder.Callback() {
+            @Override
+            public void surfaceCreated(SurfaceHolder holder) {
+                backend.setSurfaceAvailable(true);
+            }
+
+            @Override
+            public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+                backend.requestRender();
+            }
+
+            @Override
+            public void surfaceDestroyed(SurfaceHolder holder) {
+                backend.setSurfaceAvailable(false);
+            }
+        });
+        return backend;
+    }
+
+    public static DanmakuSurfaceBackend create(TextureView textureView) {
+        final DanmakuSurfaceBackend backend = new DanmakuSurfaceBackend(new TextureTarget(textureView));
+        textureView.setOpaque(false);
+        textureView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+            @Override
+            public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+                backend.setSurfaceAvailable(true);
+            }
+
+            @Override
+            public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+                backend.requestRender();
+            }
+
+            @Override
+            public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+                backend.setSurfaceAvailable(false);
+                return true;
+            }
+
+            @Override
+            public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+            }
+        });
+        if (textureView.isAvailable()) {
+            backend.setSurfaceAvailable(true);
+        }
+        return backend;
+    }
+
+    private void setSurfaceAvailable(boolean available) {
+        synchronized (mSurfaceLock) { //销毁时等待当前帧绘制结束
+            mSurfaceAvailable = available;
+        }
+        if (available) {
+            requestRender();
+        }
+    }
+
+    @Override
+    public Looper getLooper() {
+        return mRenderThread.getLooper();
+    }
+
+    @Override
+    public void attach(Renderer renderer) {
+        mRenderer = renderer;
+    }
+
+    @Override
+    public void requestRender() {
+        if (Looper.myLooper() == mRenderThread.getLooper()) {
+            draw();
+        } else {
+            mRenderHandler.removeCallbacks(mRenderRunnable);
+            mRenderHandler.post(mRenderRunnable);
+        }
+    }
+
+    private void draw() {
+        Renderer renderer = mRenderer;
+        if (renderer == null) {
+            return;
+        }
+        synchronized (mSurfaceLock) {
+            if (!mSurfaceAvailable) {
+                return;
+            }
+            Canvas canvas = mTarget.lockCanvas();
+            if (canvas == null) {
+                return;
+            }
+            try {
+                canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+                renderer.onRender(canvas);
+            } finally {
+                mTarget.unlockCanvasAndPost(canvas);
+            }
+        }
+    }
+
+    @Override
+    public void detach() {
+        mRenderer = null;
+        mRenderHandler.removeCallbacks(mRenderRunnable);
+        mRenderThread.quit();
+    }
+
+    private interface SurfaceTarget {
+        Canvas lockCanvas();
+
+        void unlockCanvasAndPost(Canvas canvas);
+    }
+
+    private static class HolderTarget implements SurfaceTarget {
+        private final SurfaceHolder holder;
+
+        private HolderTarget(SurfaceHolder holder) {
+            this.holder = holder;
+        }
+
+        @Override
+        public Canvas lockCanvas() {
+            return holder.lockCanvas();
+        }
+
+        @Override
+        public void unlockCanvasAndPost(Canvas canvas) {
+            holder.unlockCanvasAndPost(canvas);
+        }
+    }
+
+    private static class TextureTarget implements SurfaceTarget {
+        private final TextureView textureView;
+
+        private TextureTarget(TextureView textureView) {
+            this.textureView = textureView;
+        }
+
+        @Override
+        public Canvas lockCanvas() {
+            return textureView.lockCanvas();
+        }
+
+        @Override
+        public void unlockCanvasAndPost(Canvas canvas) {
+            textureView.unlockCanvasAndPost(canvas);
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.lh.danmakulibrary;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * 只追加的文本表:所有文本以UTF-8连续存放在一个字节数组中,第i项为bytes[offsets[i], offsets[i + 1])
+ * 相同的文本只存一份(按字节比较),索引0表示null
+ * 文本在被显示时才解码成String,放在容量固定的缓存中;过滤、合并和测量直接读取UTF-8字节,不需要解码
+ * 布局与DanmakuCache中的字符串部分相同,读取缓存时不需要解码
+ * 只在一个线程中追加;已追加的部分可以在其他线程读取
+ */
+
+class DanmakuTextArena {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int DECODED_CACHE_SIZE = 1024; //同屏弹幕远少于这个数量
+    static final int LENGTH_SHIFT = 21; //decodeAt的返回值中字节数的位置
+    static final int CODE_POINT_MASK = (1 << LENGTH_SHIFT) - 1;
+    private static final int INVALID = 1 << LENGTH_SHIFT | 0xFFFD;
+
+    private volatile byte[] bytes;
+    private volatile int[] offsets; //count + 1项
+    private final Decoded[] decoded = new Decoded[DECODED_CACHE_SIZE]; //直接映射的解码缓存,按索引取槽位
+    private int count;
+
+    private int[] table; //开放寻址的去重索引,存放索引 + 1,0表示空位;从缓存读入时等第一次追加再建立
+    private int[] hashes;
+
+    DanmakuTextArena() {
+        bytes = new byte[256];
+        offsets = new int[17];
+        count = 1;
+    }
+
+    //从缓存文件读取的数据,offsets需要有count + 1项
+    DanmakuTextArena(byte[] bytes, int[] offsets, int count) {
+        if (count == 0) { //保留索引0
+            offsets = new int[]{0, 0};
+            count = 1;
+        }
+        this.bytes = bytes;
+        this.offsets = offsets;
+        this.count = count;
+    }
+
+    int intern(String value) {
+        if (value == null) {
+            return 0;
+        }
+        if (table == null) {
+            buildTable();
+        }
+        //先编码到末尾的空闲位置,已存在时不提交
+        int start = offsets[count];
+        int end = encode(value, start);
+        int hash = hash(bytes, start, end);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        int id;
+        while ((id = table[slot]) != 0) {
+            id--;
+            if (hashes[id] == hash && equals(id, start, end)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int[] array = offsets;
+        if (count + 1 == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+            hashes = Arrays.copyOf(hashes, array.length);
+        }
+        array[count + 1] = end;
+        hashes[count] = hash;
+        table[slot] = count + 1;
+        offsets = array; //发布新的一项
+        count++;
+        if (count * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return count - 1;
+    }
+
+    //返回缓存的解码结果,没有缓存时临时解码,不缓存
+    String get(int id) {
+        if (id == 0) {
+            return null;
+        }
+        Decoded entry = decoded[id & (DECODED_CACHE_SIZE - 1)];
+        return entry != null && entry.id == id ? entry.value : decode(id);
+    }
+
+    //解码并缓存,用于被显示的弹幕;缓存槽位被占用时替换掉旧的结果
+    String load(int id) {
+        if (id == 0) {
+            return null;
+        }
+        int slot = id & (DECODED_CACHE_SIZE - 1);
+        Decoded entry = decoded[slot];
+        if (entry == null || entry.id != id) {
+            entry = new Decoded(id, decode(id));
+            decoded[slot] = entry;
+        }
+        return entry.value;
+    }
+
+    //第id项在bytes()中的起止位置;需要先读取位置再读取bytes(),追加时先写字节再发布位置
+    int start(int id) {
+        return offsets[id];
+    }
+
+    int end(int id) {
+        return offsets[id + 1];
+    }
+
+    //与String.getBytes("UTF-8")的结果使用同样的hash,不同的文本表之间也相同
+    int hash(int id) {
+        int[] array = offsets;
+        return hash(bytes, array[id], array[id + 1]);
+    }
+
+    //第id项与value编码后的字节是否相同,不创建对象
+    boolean equals(int id, String value) {
+        int[] array = offsets;
+        byte[] data = bytes;
+        int position = array[id];
+        int end = array[id + 1];
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            int c = value.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, value.charAt(++i));
+            } else if (Character.isSurrogate((char) c)) {
+                c = '?';
+            }
+            int byteCount = c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+            if (end - position < byteCount || decodeAt(data, position, end) != (byteCount << LENGTH_SHIFT | c)) {
+                return false;
+            }
+            position += byteCount;
+        }
+        return position == end;
+    }
+
+    //第id项与另一个文本表中第otherId项的字节是否相同
+    boolean equals(int id, DanmakuTextArena other, int otherId) {
+        if (other == this) {
+            return id == otherId; //同一个表中相同的文本只有一项
+        }
+        int[] array = offsets;
+        byte[] data = bytes;
+        int[] otherArray = other.offsets;
+        byte[] otherData = other.bytes;
+        int from = array[id];
+        int otherFrom = otherArray[otherId];
+        int length = array[id + 1] - from;
+        if (otherArray[otherId + 1] - otherFrom != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data[from + i] != otherData[otherFrom + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        return count;
+    }
+
+    //文本占用的字节数
+    int byteSize() {
+        return offsets[count];
+    }
+
+    //已缓存的解码结果数
+    int decodedCount() {
+        int decodedCount = 0;
+        for (Decoded entry : decoded) {
+            if (entry != null) {
+                decodedCount++;
+            }
+        }
+        return decodedCount;
+    }
+
+    //以下方法供DanmakuCache写出
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int[] offsets() {
+        return offsets;
+    }
+
+    private String decode(int id) {
+        int[] array = offsets;
+        int start = array[id];
+        return new String(bytes, start, array[id + 1] - start, UTF_8);
+    }
+
+    private boolean equals(int id, int start, int end) {
+        byte[] data = bytes;
+        int from = offsets[id];
+        if (offsets[id + 1] - from != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (data[from++] != data[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //把value编码为UTF-8写到start处,返回结束位置;单独的代理字符写成'?',与String.getBytes一致
+    private int encode(String value, int start) {
+        int length = value.length();
+        byte[] data = bytes;
+        if (start + length * 3 > data.length) { //每个char最多3个字节
+            data = Arrays.copyOf(data, Math.max(data.length * 2, start + length * 3));
+            bytes = data;
+        }
+        int position = start;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                data[position++] = (byte) c;
+            } else if (c < 0x800) {
+                data[position++] = (byte) (0xC0 | (c >> 6));
+                data[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    data[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    data[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    data[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    data[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    data[position++] = '?';
+                }
+            } else {
+                data[position++] = (byte) (0xE0 | (c >> 12));
+                data[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                data[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    private void buildTable() {
+        hashes = new int[offsets.length];
+        for (int i = 1; i < count; i++) {
+            hashes[i] = hash(bytes, offsets[i], offsets[i + 1]);
+        }
+        int capacity = 16;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        rehash(capacity);
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 1; i < count; i++) {
+            int slot = hashes[i] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    static int hash(byte[] data, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + data[i];
+        }
+        return hash ^ (hash >>> 16); //低位用于取槽位
+    }
+
+    //与hash(value按UTF-8编码后的字节)相同,不创建对象
+    static int hash(String value) {
+        int hash = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            int c = value.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, value.charAt(++i));
+            } else if (Character.isSurrogate((char) c)) {
+                c = '?';
+            }
+            if (c < 0x80) {
+                hash = 31 * hash + c;
+            } else if (c < 0x800) {
+                hash = 31 * hash + (byte) (0xC0 | (c >> 6));
+                hash = 31 * hash + (byte) (0x80 | (c & 0x3F));
+            } else if (c < 0x10000) {
+                hash = 31 * hash + (byte) (0xE0 | (c >> 12));
+                hash = 31 * hash + (byte) (0x80 | ((c >> 6) & 0x3F));
+                hash = 31 * hash + (byte) (0x80 | (c & 0x3F));
+            } else {
+                hash = 31 * hash + (byte) (0xF0 | (c >> 18));
+                hash = 31 * hash + (byte) (0x80 | ((c >> 12) & 0x3F));
+                hash = 31 * hash + (byte) (0x80 | ((c >> 6) & 0x3F));
+                hash = 31 * hash + (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * 解码data[position, end)开头的一个UTF-8字符,返回(字节数 << LENGTH_SHIFT | 码点)
+     * 不合法的字节按U+FFFD处理,长度为1
+     */
+    static int decodeAt(byte[] data, int position, int end) {
+        int b = data[position];
+        if (b >= 0) {
+            return 1 << LENGTH_SHIFT | b;
+        }
+        int length;
+        int codePoint;
+        int min;
+        if ((b & 0xE0) == 0xC0) {
+            length = 2;
+            codePoint = b & 0x1F;
+            min = 0x80;
+        } else if ((b & 0xF0) == 0xE0) {
+            length = 3;
+            codePoint = b & 0x0F;
+            min = 0x800;
+        } else if ((b & 0xF8) == 0xF0) {
+            length = 4;
+            codePoint = b & 0x07;
+            min = 0x10000;
+        } else {
+            return INVALID;
+        }
+        if (end - position < length) {
+            return INVALID;
+        }
+        for (int i = 1; i < length; i++) {
+            int next = data[position + i];
+            if ((next & 0xC0) != 0x80) {
+                return INVALID;
+            }
+            codePoint = codePoint << 6 | (next & 0x3F);
+        }
+        if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            return INVALID;
+        }
+        return length << LENGTH_SHIFT | codePoint;
+    }
+
+    //解码结果和对应的索引,不可修改,可以在线程之间直接发布
+    private static class Decoded {
+        private final int id;
+        private final String value;
+
+        private Decoded(int id, String value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+}
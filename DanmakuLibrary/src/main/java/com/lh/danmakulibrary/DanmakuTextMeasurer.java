@@ -0,0 +1,208 @@
+package com.lh.danmakulibrary;
+
+import android.graphics.Paint;
+import android.text.TextPaint;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 弹幕文本的测量缓存,按字号分别保存:
+ * 1. 内容 -> 宽度的LRU,重复的弹幕直接命中
+ * 2. 每个字符的宽度表(按256个字符一页延迟建立),未命中时把字符宽度相加,不需要调用measureText
+ * 3. FontMetrics
+ * 只有宽度不受前后字符影响的字符(CJK、韩文音节、全角符号)使用宽度表,其他文本仍然调用measureText
+ * 拉丁字母可能有字距调整和连字("AV"、"fi"),只有在第一次使用某个字号时验证过字体没有这些调整才使用宽度表
+ * DanmakuStore中的弹幕可以直接从UTF-8字节累加宽度,只有需要调用measureText时才解码
+ * 不是线程安全的,每个线程使用自己的实例;同样的字号和内容在不同实例中得到的宽度相同
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuTextMeasurer {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    private static final int MAX_SIZE_COUNT = 16; //字号限制在MAX_TEXT_SIZE以内,实际只有几种
+    private static final int PAGE_SIZE = 256;
+    private static final String[] LATIN_PROBES = {"AV", "To", "Wa", "LT", "fi", "fl", "ff"}; //常见的字距调整和连字
+    private static final float LATIN_TOLERANCE = 0.01f;
+
+    private final int mMaxEntries; //每个字号的LRU容量
+    private final TextPaint mPaint;
+    private final char[] mPageChars = new char[PAGE_SIZE];
+
+    private SizeEntry[] mSizes = new SizeEntry[MAX_SIZE_COUNT];
+    private int mSizeCount;
+
+    private int mHitCount;
+    private int mAdvanceCount; //由宽度表计算的次数
+    private int mMeasureCount; //调用measureText的次数
+
+    public DanmakuTextMeasurer() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public DanmakuTextMeasurer(int maxEntries) {
+        mMaxEntries = maxEntries;
+        mPaint = new TextPaint();
+        mPaint.setAntiAlias(true);
+        mPaint.setFakeBoldText(true); //与DanmakuPaintCache中的画笔一致
+    }
+
+    public float measureText(String content, float textSize) {
+        if (content == null || content.isEmpty()) {
+            return 0;
+        }
+        SizeEntry entry = getSizeEntry(textSize);
+        Float cached = entry.widths.get(content);
+        if (cached != null) {
+            mHitCount++;
+            return cached;
+        }
+        float width = sumAdvances(entry, content);
+        if (width < 0) {
+            mPaint.setTextSize(textSize);
+            width = mPaint.measureText(content);
+            mMeasureCount++;
+        } else {
+            mAdvanceCount++;
+        }
+        entry.widths.put(content, width);
+        return width;
+    }
+
+    //数据源中第index条弹幕的宽度,与measureText(store.getContent(index), textSize)相同
+    public float measureText(DanmakuStore store, int index, float textSize) {
+        DanmakuTextArena strings = store.strings();
+        int id = store.contentId(index);
+        if (id == 0) {
+            return 0;
+        }
+        int end = strings.end(id);
+        int position = strings.start(id);
+        byte[] data = strings.bytes();
+        SizeEntry entry = getSizeEntry(textSize);
+        float width = 0;
+        while (position < end) {
+            int decoded = DanmakuTextArena.decodeAt(data, position, end);
+            int codePoint = decoded & DanmakuTextArena.CODE_POINT_MASK;
+            if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT || !isSimpleChar(entry, (char) codePoint)) {
+                return measureText(strings.get(id), textSize); //需要整体测量
+            }
+            width += advance(entry, (char) codePoint);
+            position += decoded >>> DanmakuTextArena.LENGTH_SHIFT;
+        }
+        if (width > 0) {
+            mAdvanceCount++;
+        }
+        return width;
+    }
+
+    //字号对应的FontMetrics,共享的对象,不能修改
+    public Paint.FontMetrics getFontMetrics(float textSize) {
+        return getSizeEntry(textSize).fontMetrics;
+    }
+
+    public void clear() {
+        mSizes = new SizeEntry[MAX_SIZE_COUNT];
+        mSizeCount = 0;
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getAdvanceCount() {
+        return mAdvanceCount;
+    }
+
+    public int getMeasureCount() {
+        return mMeasureCount;
+    }
+
+    private SizeEntry getSizeEntry(float textSize) {
+        for (int i = 0; i < mSizeCount; i++) {
+            if (mSizes[i].textSize == textSize) {
+                return mSizes[i];
+            }
+        }
+        if (mSizeCount == MAX_SIZE_COUNT) {
+            clear();
+        }
+        mPaint.setTextSize(textSize);
+        SizeEntry entry = new SizeEntry(textSize, mPaint.getFontMetrics(), mMaxEntries);
+        entry.latinSimple = verifyLatin(entry);
+        mSizes[mSizeCount++] = entry;
+        return entry;
+    }
+
+    //字体对拉丁字母没有字距调整和连字时,整段的宽度等于各字符宽度之和
+    private boolean verifyLatin(SizeEntry entry) {
+        for (String probe : LATIN_PROBES) {
+            mPaint.setTextSize(entry.textSize);
+            float width = mPaint.measureText(probe);
+            if (Math.abs(width - advance(entry, probe.charAt(0)) - advance(entry, probe.charAt(1))) > LATIN_TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //用字符宽度表计算宽度,含有不能使用宽度表的字符时返回-1
+    private float sumAdvances(SizeEntry entry, String content) {
+        float width = 0;
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (!isSimpleChar(entry, c)) {
+                return -1;
+            }
+            width += advance(entry, c);
+        }
+        return width;
+    }
+
+    private float advance(SizeEntry entry, char c) {
+        float[] page = entry.pages[c >>> 8];
+        if (page == null) {
+            page = createPage(entry.textSize, c & ~(PAGE_SIZE - 1));
+            entry.pages[c >>> 8] = page;
+        }
+        return page[c & (PAGE_SIZE - 1)];
+    }
+
+    private float[] createPage(float textSize, int start) {
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            mPageChars[i] = (char) (start + i);
+        }
+        float[] page = new float[PAGE_SIZE];
+        mPaint.setTextSize(textSize);
+        mPaint.getTextWidths(mPageChars, 0, PAGE_SIZE, page);
+        return page;
+    }
+
+    //宽度不受前后字符影响的字符:不包括组合附加符号、代理对和需要连写的文字;拉丁字母需要字体验证过
+    private static boolean isSimpleChar(SizeEntry entry, char c) {
+        return (c < 0x0300 && entry.latinSimple)
+                || (c >= 0x3000 && c <= 0x9FFF) //CJK符号、假名、汉字
+                || (c >= 0xAC00 && c <= 0xD7A3) //韩文音节
+                || (c >= 0xFF00 && c <= 0xFFEF); //全角符号
+    }
+
+    private static class SizeEntry {
+        private final float textSize;
+        private final Paint.FontMetrics fontMetrics;
+        private final LinkedHashMap<String, Float> widths;
+        private final float[][] pages = new float[0x10000 / PAGE_SIZE][];
+        private boolean latinSimple; //拉丁字母是否可以使用宽度表
+
+        private SizeEntry(float textSize, Paint.FontMetrics fontMetrics, final int maxEntries) {
+            this.textSize = textSize;
+            this.fontMetrics = fontMetrics;
+            widths = new LinkedHashMap<String, Float>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Float> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+    }
+}
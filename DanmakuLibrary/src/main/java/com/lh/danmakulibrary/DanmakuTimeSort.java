@@ -0,0 +1,109 @@
+package com.lh.danmakulibrary;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按时间的稳定排序:对时间(long)做LSD基数排序,时间相同的弹幕保持原来的顺序
+ * 只比较基本类型,不调用compareTo;每次处理8位,只处理(最大值 - 最小值)实际用到的字节,
+ * 两个小时的弹幕(毫秒)只需要3趟,O(n)
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuTimeSort {
+
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int INSERTION_THRESHOLD = 32; //数量很少时直接插入排序
+
+    private DanmakuTimeSort() {
+    }
+
+    //原地按时间稳定排序
+    public static void sort(List<Danmaku> danmakus) {
+        int size = danmakus.size();
+        long[] times = new long[size];
+        for (int i = 0; i < size; i++) {
+            times[i] = danmakus.get(i).getTime();
+        }
+        int[] order = order(times, size);
+        Danmaku[] sorted = new Danmaku[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = danmakus.get(order[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            danmakus.set(i, sorted[i]);
+        }
+    }
+
+    /**
+     * 返回前count个时间按升序排列后的下标,times不变
+     * 时间相同时下标小的在前
+     */
+    public static int[] order(long[] times, int count) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        if (count < 2) {
+            return order;
+        }
+        if (count <= INSERTION_THRESHOLD) {
+            insertionSort(times, order, count);
+            return order;
+        }
+        long min = times[0];
+        long max = times[0];
+        boolean sorted = true;
+        for (int i = 1; i < count; i++) {
+            long time = times[i];
+            if (time < times[i - 1]) {
+                sorted = false;
+            }
+            if (time < min) {
+                min = time;
+            } else if (time > max) {
+                max = time;
+            }
+        }
+        if (sorted) { //已经有序,例如分段加载或者缓存中的数据
+            return order;
+        }
+        long range = max - min; //减去最小值后都是非负数;溢出时按无符号处理也是正确的
+        int[] buffer = new int[count];
+        int[] counts = new int[RADIX];
+        for (int shift = 0; shift < 64 && (range >>> shift) != 0; shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < count; i++) {
+                counts[(int) (((times[order[i]] - min) >>> shift) & (RADIX - 1))]++;
+            }
+            int sum = 0;
+            for (int i = 0; i < RADIX; i++) {
+                int c = counts[i];
+                counts[i] = sum;
+                sum += c;
+            }
+            for (int i = 0; i < count; i++) {
+                int index = order[i];
+                buffer[counts[(int) (((times[index] - min) >>> shift) & (RADIX - 1))]++] = index;
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    private static void insertionSort(long[] times, int[] order, int count) {
+        for (int i = 1; i < count; i++) {
+            int index = order[i];
+            long time = times[index];
+            int j = i - 1;
+            while (j >= 0 && times[order[j]] > time) { //严格大于,保持稳定
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = index;
+        }
+    }
+}
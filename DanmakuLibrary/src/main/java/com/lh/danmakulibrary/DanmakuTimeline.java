@@ -0,0 +1,140 @@
+package com.lh.danmakulibrary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 按时间排序的弹幕索引,支持二分查找定位、区间遍历和"下一条到期"游标
+ * 数据保存在DanmakuStore中,游标和查询都返回store中的索引
+ */
+
+@SuppressWarnings("WeakerAccess")
+public class DanmakuTimeline {
+
+    private final DanmakuStore store; //已按时间排序的弹幕,addAll时原地合并
+    private int cursor; //下一条待出现弹幕的索引
+    private long consumedTime; //游标之前的弹幕都不晚于这个时间
+    private RangeItr rangeIterator;
+
+    public DanmakuTimeline() {
+        this(new ArrayList<Danmaku>());
+    }
+
+    public DanmakuTimeline(List<Danmaku> sortedDanmakus) {
+        this(DanmakuStore.create(sortedDanmakus));
+    }
+
+    public DanmakuTimeline(DanmakuStore store) {
+        this.store = store;
+        reset();
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    public DanmakuStore getStore() {
+        return store;
+    }
+
+    //第一条时间 >= time 的弹幕索引,没有则返回size()
+    public int lowerBound(long time) {
+        return store.lowerBound(time);
+    }
+
+    //将游标移动到time处,O(log n)
+    public void seekTo(long time) {
+        cursor = lowerBound(time);
+        consumedTime = time - 1;
+    }
+
+    public void reset() {
+        cursor = 0;
+        consumedTime = Long.MIN_VALUE;
+    }
+
+    /**
+     * 合并一批弹幕(可以无序),用于边解析边播放
+     * 游标保持在原来的播放进度,时间早于已播放进度的弹幕不会再出现
+     */
+    public void addAll(List<Danmaku> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Collections.sort(batch);
+        store.merge(batch);
+        cursor = consumedTime == Long.MIN_VALUE ? 0 : lowerBound(consumedTime + 1);
+    }
+
+    public int getCursor() {
+        return cursor;
+    }
+
+    //游标处的弹幕已经到期则返回其索引并前移游标,否则返回-1
+    public int pollDue(long currentTime) {
+        if (cursor < store.size() && store.getTime(cursor) <= currentTime) {
+            return cursor++;
+        }
+        if (currentTime > consumedTime) {
+            consumedTime = currentTime;
+        }
+        return -1;
+    }
+
+    //下一条待出现弹幕的索引,没有则返回-1
+    public int peekNext() {
+        return cursor < store.size() ? cursor : -1;
+    }
+
+    /**
+     * 遍历时间在[fromTime, toTime)内的弹幕,不复制数据
+     * 返回的迭代器和其中的Danmaku都会被复用,同一时间只能有一个遍历在进行
+     */
+    public Iterable<Danmaku> range(long fromTime, long toTime) {
+        int from = lowerBound(fromTime);
+        int to = toTime <= fromTime ? from : lowerBound(toTime);
+        if (rangeIterator == null) {
+            rangeIterator = new RangeItr();
+        }
+        rangeIterator.setRange(from, to);
+        return rangeIterator;
+    }
+
+    private class RangeItr implements Iterator<Danmaku>, Iterable<Danmaku> {
+
+        private final DanmakuStore.Item item = new DanmakuStore.Item();
+        private int current;
+        private int end;
+
+        private void setRange(int from, int to) {
+            current = from;
+            end = to;
+        }
+
+        @Override
+        public Iterator<Danmaku> iterator() {
+            return this;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return current < end;
+        }
+
+        @Override
+        public Danmaku next() {
+            if (current >= end) {
+                throw new NoSuchElementException();
+            }
+            return item.moveTo(store, current++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
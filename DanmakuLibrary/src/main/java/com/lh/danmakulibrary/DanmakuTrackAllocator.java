@@ -0,0 +1,150 @@
+package com.lh.danmakulibrary;
+
+import java.util.Arrays;
+
+/**
+ * 轨道分配:每条轨道只记录"什么时候空闲",用线段树在O(log T)内找到最上面(或最下面)的可用轨道
+ * <p>
+ * 滚动弹幕:上一条完全出现的时间 appear = enter + width / speed
+ * 上一条离开屏幕的时间 exit = enter + (viewportWidth + width) / speed
+ * 新弹幕在time时可以加入的条件是 time > appear,避免重叠时还需要 time >= exit - viewportWidth / newSpeed
+ * (新弹幕的头部在上一条尾部离开屏幕之前追不上它)
+ * 居中弹幕:上一条消失的时间 time > free
+ */
+
+class DanmakuTrackAllocator {
+
+    private static final double NONE = Double.NEGATIVE_INFINITY; //空轨道
+    private static final double INVALID = Double.POSITIVE_INFINITY; //不存在的叶子
+
+    private final int trackCount;
+    private final int leafCount;
+    private final double[] appear; //线段树,节点保存子树中的最小值
+    private final double[] exit;
+    private final double[] center;
+
+    DanmakuTrackAllocator(int trackCount) {
+        this.trackCount = trackCount;
+        int count = 1;
+        while (count < trackCount) {
+            count <<= 1;
+        }
+        leafCount = count;
+        appear = new double[count * 2];
+        exit = new double[count * 2];
+        center = new double[count * 2];
+        reset();
+    }
+
+    int getTrackCount() {
+        return trackCount;
+    }
+
+    void reset() {
+        Arrays.fill(appear, INVALID);
+        Arrays.fill(exit, INVALID);
+        Arrays.fill(center, INVALID);
+        for (int i = 0; i < trackCount; i++) {
+            update(appear, i, NONE);
+            update(exit, i, NONE);
+            update(center, i, NONE);
+        }
+    }
+
+    /**
+     * 最上面一条可以在time加入滚动弹幕的轨道,没有则返回-1
+     * catchWindow: viewportWidth / newSpeed,不避免重叠时传入Double.POSITIVE_INFINITY
+     */
+    int findScrollTrack(double time, double catchWindow) {
+        if (trackCount == 0) {
+            return -1;
+        }
+        return findScrollTrack(1, 0, leafCount, time, time + catchWindow);
+    }
+
+    private int findScrollTrack(int node, int low, int high, double time, double maxExit) {
+        if (low >= trackCount || !(appear[node] < time) || exit[node] > maxExit) {
+            return -1;
+        }
+        if (node >= leafCount) {
+            return low;
+        }
+        int mid = (low + high) >>> 1;
+        int result = findScrollTrack(node * 2, low, mid, time, maxExit);
+        if (result < 0) {
+            result = findScrollTrack(node * 2 + 1, mid, high, time, maxExit);
+        }
+        return result;
+    }
+
+    //track是否可以在time加入滚动弹幕,条件与findScrollTrack相同
+    boolean isScrollTrackFree(int track, double time, double catchWindow) {
+        int node = track + leafCount;
+        return appear[node] < time && exit[node] <= time + catchWindow;
+    }
+
+    void occupyScroll(int track, double appearTime, double exitTime) {
+        update(appear, track, appearTime);
+        update(exit, track, exitTime);
+    }
+
+    //最上面一条可以在time加入居中弹幕的轨道
+    int findTopTrack(double time) {
+        if (trackCount == 0) {
+            return -1;
+        }
+        return findCenterTrack(1, 0, leafCount, time, true);
+    }
+
+    //最下面一条可以在time加入居中弹幕的轨道
+    int findBottomTrack(double time) {
+        if (trackCount == 0) {
+            return -1;
+        }
+        return findCenterTrack(1, 0, leafCount, time, false);
+    }
+
+    private int findCenterTrack(int node, int low, int high, double time, boolean fromTop) {
+        if (low >= trackCount || !(center[node] < time)) {
+            return -1;
+        }
+        if (node >= leafCount) {
+            return low;
+        }
+        int mid = (low + high) >>> 1;
+        int result;
+        if (fromTop) {
+            result = findCenterTrack(node * 2, low, mid, time, true);
+            if (result < 0) {
+                result = findCenterTrack(node * 2 + 1, mid, high, time, true);
+            }
+        } else {
+            result = findCenterTrack(node * 2 + 1, mid, high, time, false);
+            if (result < 0) {
+                result = findCenterTrack(node * 2, low, mid, time, false);
+            }
+        }
+        return result;
+    }
+
+    boolean isCenterTrackFree(int track, double time) {
+        return center[track + leafCount] < time;
+    }
+
+    void occupyCenter(int track, double freeTime) {
+        update(center, track, freeTime);
+    }
+
+    //居中弹幕提前移除时释放轨道
+    void releaseCenter(int track) {
+        update(center, track, NONE);
+    }
+
+    private void update(double[] tree, int track, double value) {
+        int node = track + leafCount;
+        tree[node] = value;
+        for (node >>= 1; node >= 1; node >>= 1) {
+            tree[node] = Math.min(tree[node * 2], tree[node * 2 + 1]);
+        }
+    }
+}
@@ -4,16 +4,17 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.os.Looper;
 import android.text.TextPaint;
 import android.util.AttributeSet;
 import android.view.View;
+import android.view.WindowManager;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.ListIterator;
-import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 
 /**
  * Created by liuhui on 2016/9/8.
@@ -27,52 +28,76 @@ public class DanmakuView extends View {
     public static final int PLAYING = 2;
     public static final int PAUSE = 3;
 
-    private static final long REFRESH_TIME = 100;
-    private static final int MAX_TEXT_SIZE = 21;
+    private static final int MAX_LAYOUT_PLAN_COUNT = 4;
+    private static final int PENDING_DANMAKU_CAPACITY = 256;
+
+    //loadDanmakuSource的解析结果,在主线程回调;数据源在解析完成前被替换时不回调
+    public interface OnDanmakuLoadListener {
+        //count: 解析出的弹幕数
+        void onLoadFinished(int count);
+
+        //解析失败,已经解析出的弹幕仍然保留在数据源中
+        void onLoadFailed(Exception e);
+    }
 
     private int mScreenHeight;
     private int mScreenWidth;
 
     private float mDensity;
-    private float mScaleTextRatio = 0.9f; //文本缩放倍率
     private float mSpeedRatio = 1.0f; //速度倍率
     private int mMaxDanmakuTrackCount = 20; //显示弹幕的轨道数(最大)
     private long mCenterDanmakuShowTime = 4000; //居中弹幕的显示时长
     private long mScrollDanmakuShowTime = 8000; //滚动弹幕显示时长
 
-    private float mStrokeWidth = 0.8f; //文本描边宽度
     private float mPeerTrackHeight; //每条轨道的高度
     private float mTrackMargin; //每条轨道的间距
     private int mMaxDanmakuCount = 40; //最大同时显示的弹幕数量
-    private int mCurrentDanmakuCount = 0; //当前同屏的弹幕数量
 
     private boolean mShowDebugInfo; //是否显示Debug信息
     private boolean mAvoidOverLapping; //是否允许弹幕重叠
 
-    private boolean mShowDanmaku; //是否显示弹幕
-
-    private TextPaint mDebugTextPaint;
-    private int mDebugTextSize;
-    private int mFps;
-    private int mFrame;
-    private long mDebugStartTime = 0;
-    private int mNewCount = 0;
+    private volatile boolean mShowDanmaku; //是否显示弹幕
 
-    private Timer mTimer;
-    private DanmakuTimerTask mTask;
+    private DanmakuDensityController mDensityController; //根据帧间隔调整同屏数量,为null时使用固定上限
 
-    private ArrayList<Danmaku> mDanmakus; //弹幕数据源
+    private boolean mLayoutPlanEnabled; //是否在后台预先计算轨道分配
+    private ArrayList<DanmakuLayoutPlan> mLayoutPlans; //按视口大小缓存的分配方案,旋转屏幕时不需要重新计算
 
-    private LinkedList<DanmakuWrapped> mScrapDanmakus; //弹幕回收池
-    private ArrayList<DanmakuTrack> mDanmakuTracks; //弹幕轨道数组
-    private final byte[] mLock = new byte[0];
-
-    private int mDanmakuState;
+    private TextPaint mDebugTextPaint;
+    private int mDebugTextSize;
+    private Paint.FontMetrics mDebugFontMetrics;
+    private DanmakuMetrics.Snapshot mDebugSnapshot; //Debug信息使用的统计,在绘制时复制
+    private StringBuilder mDebugText; //Debug信息的文本,复用以避免每帧分配
+    private char[] mDebugChars;
+
+    private DanmakuMetrics mMetrics; //播放统计,在帧线程中持有mLock记录
+    private DanmakuMetrics.Listener mMetricsListener;
+    private DanmakuMetrics.Snapshot mMetricsSnapshot; //回调给mMetricsListener的统计,在帧线程中复用
+
+    private DanmakuFrameClock mFrameClock; //跟随vsync的帧时钟,驱动弹幕出现和移动
+    private DanmakuRenderBackend mViewBackend; //默认在onDraw中绘制
+    private DanmakuRenderBackend mRenderBackend; //当前的绘制目标,帧时钟运行在它的线程
+    private DanmakuRenderer mRenderer; //弹幕绘制,只在帧线程中持有mLock使用
+
+    private DanmakuTimeline mTimeline; //主数据源(按时间索引)
+    private DanmakuMultiTimeline mSources; //主数据源和addDanmakuSource添加的数据源,播放时按时间合并
+    private DanmakuSegmentedTimeline mSegments; //分段加载的数据源,加载的分段加入mSources
+    private Thread mParseThread; //loadDanmakuSource的解析线程,替换数据源时中断
+
+    private DanmakuLayoutEngine mLayoutEngine; //弹幕布局,位置只由播放时间决定
+    private float[] mTrackY; //每条轨道的y坐标
+    private DanmakuLiveQueue mLiveQueue; //直播模式的弹幕来源,为null时不是直播模式
+    private DanmakuLiveQueue.Sink mLiveSink;
+    private DanmakuRingBuffer<Danmaku> mPendingDanmakus; //addDanamku添加的弹幕,在下一帧由帧线程加入布局,可以有多个生产者
+    private int mPendingDroppedCount; //已经计入mMetrics的mPendingDanmakus丢弃数量
+    private int mLiveDroppedCount; //已经计入mMetrics的mLiveQueue丢弃数量
+    private int mLiveStaleCount; //已经计入mMetrics的mLiveQueue过期数量
+    private final byte[] mLock = new byte[0]; //保护布局、绘制和播放时间,帧线程可能不是主线程
+
+    private volatile int mDanmakuState;
 
     private long mCurrentTime = -1;
-    private long mStartTime = -1;
-
-    private int mLastAddDanmakuIndex; //最后出现的弹幕的索引
+    private long mLastFrameTime = -1; //上一帧的时间(ms),-1表示需要重新计时
 
     public DanmakuView(Context context) {
         super(context);
@@ -103,9 +128,103 @@ public class DanmakuView extends View {
         mDebugTextSize = dip2px(15);
         mDebugTextPaint.setTextSize(mDebugTextSize);
         mDebugTextPaint.setColor(Color.WHITE);
+        mDebugFontMetrics = new Paint.FontMetrics();
+        mDebugSnapshot = new DanmakuMetrics.Snapshot();
+        mDebugText = new StringBuilder(128);
+        mDebugChars = new char[128];
+
+        mMetrics = new DanmakuMetrics();
+        mMetricsSnapshot = new DanmakuMetrics.Snapshot();
+
+        mTrackY = new float[0];
+        mSources = new DanmakuMultiTimeline();
+        mPendingDanmakus = new DanmakuRingBuffer<>(PENDING_DANMAKU_CAPACITY);
+        mLiveSink = new DanmakuLiveQueue.Sink() {
+            @Override
+            public void onDanmakuDue(Danmaku danmaku) {
+                admitDanmaku(danmaku);
+            }
+        };
+        mLayoutPlans = new ArrayList<>();
+        mRenderer = new DanmakuRenderer(mDensity);
+        mLayoutEngine = new DanmakuLayoutEngine(mRenderer);
+        mLayoutEngine.setBadgeMeasurer(mRenderer);
+        mLayoutEngine.setSpeedRatio(mSpeedRatio);
+        mLayoutEngine.setScrollDanmakuShowTime(mScrollDanmakuShowTime);
+        mLayoutEngine.setCenterDanmakuShowTime(mCenterDanmakuShowTime);
+        mLayoutEngine.setMaxDanmakuCount(mMaxDanmakuCount);
+        mLayoutEngine.setAvoidOverLapping(mAvoidOverLapping);
+        mLayoutEngine.setMetrics(mMetrics);
+        mViewBackend = new DanmakuRenderBackend() {
+            @Override
+            public Looper getLooper() {
+                return Looper.getMainLooper();
+            }
+
+            @Override
+            public void attach(Renderer renderer) {
+            }
+
+            @Override
+            public void requestRender() {
+                if (Looper.myLooper() == Looper.getMainLooper()) {
+                    invalidate();
+                } else {
+                    postInvalidate();
+                }
+            }
+
+            @Override
+            public void detach() {
+                postInvalidate();
+            }
+        };
+        mRenderBackend = mViewBackend;
+        mFrameClock = createFrameClock(mRenderBackend);
+    }
+
+    private DanmakuFrameClock createFrameClock(DanmakuRenderBackend backend) {
+        return DanmakuFrameClock.create(backend.getLooper(), new DanmakuFrameClock.Callback() {
+            @Override
+            public void onFrame(long frameTimeNanos) {
+                doFrame(frameTimeNanos);
+            }
+        });
+    }
+
+    /**
+     * 设置绘制目标,null表示在本View的onDraw中绘制
+     * 使用DanmakuSurfaceBackend时布局和绘制都在渲染线程中进行,SurfaceView/TextureView应与本View大小相同
+     */
+    public void setRenderBackend(DanmakuRenderBackend backend) {
+        if (backend == null) {
+            backend = mViewBackend;
+        }
+        if (backend == mRenderBackend) {
+            return;
+        }
+        boolean running = mFrameClock.isRunning();
+        mFrameClock.stop();
+        mRenderBackend.detach();
+        mRenderBackend = backend;
+        mFrameClock = createFrameClock(backend);
+        backend.attach(new DanmakuRenderBackend.Renderer() {
+            @Override
+            public void onRender(Canvas canvas) {
+                renderFrame(canvas);
+            }
+        });
+        if (running) {
+            synchronized (mLock) {
+                mLastFrameTime = -1;
+            }
+            mFrameClock.start();
+        }
+        backend.requestRender();
+    }
 
-        mDanmakuTracks = new ArrayList<>();
-        mScrapDanmakus = new LinkedList<>();
+    public DanmakuRenderBackend getRenderBackend() {
+        return mRenderBackend;
     }
 
     public void setShowDebugInfo(boolean showDebugInfo) {
@@ -114,100 +233,540 @@ public class DanmakuView extends View {
 
     public void setAvoidOverLapping(boolean avoidOverLapping) {
         this.mAvoidOverLapping = avoidOverLapping;
+        synchronized (mLock) {
+            mLayoutEngine.setAvoidOverLapping(avoidOverLapping);
+        }
+        updateLayoutPlan(); //分配方案与新的设置不一致,需要重新计算
+    }
+
+    //开启后每条弹幕只绘制一次到位图中,之后每帧直接绘制位图
+    public void setBitmapCacheEnabled(boolean enabled) {
+        setBitmapCacheEnabled(enabled, DanmakuBitmapCache.DEFAULT_MAX_BYTES);
+    }
+
+    public void setBitmapCacheEnabled(boolean enabled, int maxBytes) {
+        synchronized (mLock) {
+            DanmakuBitmapCache bitmapCache = mRenderer.getBitmapCache();
+            if (bitmapCache != null) {
+                bitmapCache.clear();
+            }
+            mRenderer.setBitmapCache(enabled ? new DanmakuBitmapCache(maxBytes) : null);
+        }
+    }
+
+    /**
+     * 开启后根据实际帧间隔在[minCount, maxCount]之间调整同屏弹幕数量,
+     * 需要丢弃弹幕时优先保留彩色、大字号的弹幕;目标帧间隔按屏幕的刷新率计算
+     */
+    public void setAdaptiveDensityEnabled(boolean enabled, int minCount, int maxCount) {
+        synchronized (mLock) {
+            if (enabled) {
+                mDensityController = new DanmakuDensityController(minCount, maxCount, mMaxDanmakuCount);
+                mDensityController.setTargetFrameNanos(getDisplayFrameNanos());
+                mLayoutEngine.setRanker(new DanmakuDensityController.StyleRanker());
+            } else {
+                mDensityController = null;
+                mLayoutEngine.setRanker(null);
+                mLayoutEngine.setMaxDanmakuCount(mMaxDanmakuCount);
+            }
+        }
+        updateLayoutPlan();
+    }
+
+    /**
+     * 设置屏蔽规则,可以在播放中随时替换,不需要重新设置数据源
+     * 已经在屏幕上的弹幕不受影响
+     */
+    public void setFilter(DanmakuFilter filter) {
+        synchronized (mLock) {
+            mLayoutEngine.setFilter(filter);
+        }
+    }
+
+    public DanmakuFilter getFilter() {
+        synchronized (mLock) {
+            return mLayoutEngine.getFilter();
+        }
+    }
+
+    //开启后内容相同的弹幕在window(ms)内只显示一条,并显示重复的数量
+    public void setMergeDuplicatesEnabled(boolean enabled, long window) {
+        synchronized (mLock) {
+            mLayoutEngine.setMerger(enabled ? new DanmakuMerger(window) : null);
+        }
+        mRenderBackend.requestRender();
+    }
+
+    /**
+     * 每帧在帧线程中回调一次播放统计,传入的Snapshot会被复用
+     * 回调时不持有布局锁,不要在回调中做耗时操作
+     */
+    public void setMetricsListener(DanmakuMetrics.Listener listener) {
+        mMetricsListener = listener;
+    }
+
+    //把当前的播放统计复制到out中,可以在任意线程调用
+    public void getMetrics(DanmakuMetrics.Snapshot out) {
+        synchronized (mLock) {
+            fillSnapshot(out);
+        }
+    }
+
+    public void resetMetrics() {
+        synchronized (mLock) {
+            mMetrics.reset();
+            mRenderer.getPool().resetStats();
+        }
+    }
+
+    private void fillSnapshot(DanmakuMetrics.Snapshot out) {
+        syncQueueDrops();
+        mMetrics.snapshot(out);
+        out.fillEngine(mLayoutEngine, mCurrentTime);
+        out.fillPool(mRenderer.getPool());
+    }
+
+    public DanmakuDensityController getDensityController() {
+        return mDensityController;
+    }
+
+    public DanmakuBitmapCache getBitmapCache() {
+        return mRenderer.getBitmapCache();
+    }
+
+    //开启后在后台线程为整个数据源预先计算轨道分配,播放时只需要查表
+    public void setLayoutPlanEnabled(boolean enabled) {
+        mLayoutPlanEnabled = enabled;
+        updateLayoutPlan();
+    }
+
+    //在主线程调用:数据源、视口或布局设置改变后,丢弃不再适用的方案,并开始计算新的方案
+    private void updateLayoutPlan() {
+        DanmakuStore store = null;
+        boolean singleSource;
+        boolean parsing;
+        boolean adaptiveDensity;
+        final float textScale;
+        synchronized (mLock) {
+            if (mTimeline != null) {
+                store = mTimeline.getStore();
+            }
+            singleSource = mSources.getSourceCount() <= 1;
+            parsing = mParseThread != null;
+            adaptiveDensity = mDensityController != null;
+            textScale = mRenderer.getScaleTextRatio();
+            for (int i = mLayoutPlans.size() - 1; i >= 0; i--) {
+                DanmakuLayoutPlan plan = mLayoutPlans.get(i);
+                if (!mLayoutPlanEnabled || plan.getStore() != store || plan.isStale()
+                        || !plan.hasSameSettings(mLayoutEngine, textScale)) {
+                    plan.cancel();
+                    mLayoutPlans.remove(i);
+                }
+            }
+            mLayoutEngine.setPlan(null);
+        }
+        if (!mLayoutPlanEnabled || store == null || mTrackY.length == 0) {
+            return;
+        }
+        if (adaptiveDensity) { //同屏数量上限随帧间隔不断变化,实时分配
+            return;
+        }
+        if (!singleSource) { //方案只包含主数据源的弹幕,有其他数据源时实时分配
+            return;
+        }
+        if (parsing) { //数据源还在不断合并新弹幕,解析完成后再计算
+            return;
+        }
+        final DanmakuLayoutPlan plan;
+        synchronized (mLock) {
+            for (int i = 0; i < mLayoutPlans.size(); i++) {
+                DanmakuLayoutPlan built = mLayoutPlans.get(i);
+                if (built.matches(store, mLayoutEngine)) {
+                    if (built.isBuilt()) {
+                        mLayoutEngine.setPlan(built);
+                    }
+                    return; //正在计算中
+                }
+            }
+            if (mLayoutPlans.size() >= MAX_LAYOUT_PLAN_COUNT) {
+                mLayoutPlans.remove(0).cancel();
+            }
+            plan = new DanmakuLayoutPlan(store, mLayoutEngine, textScale);
+        }
+        mLayoutPlans.add(plan);
+        new Thread("DanmakuLayoutPlan") {
+            @Override
+            public void run() {
+                final DanmakuTextMeasurer textMeasurer = new DanmakuTextMeasurer(); //与绘制时的测量结果相同
+                boolean built = plan.build(new DanmakuLayoutPlan.WidthMeasurer() {
+                    @Override
+                    public float measureWidth(DanmakuStore store, int index) {
+                        return textMeasurer.measureText(store, index, mRenderer.getTextSize(store.getTextSize(index), textScale));
+                    }
+                });
+                if (built) {
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            updateLayoutPlan();
+                        }
+                    });
+                }
+            }
+        }.start();
     }
 
     public void setDanmakuSource(ArrayList<Danmaku> danmakuSource) {
-        this.mDanmakus = danmakuSource;
+        synchronized (mLock) {
+            setMainTimeline(new DanmakuTimeline(danmakuSource));
+            mLiveQueue = null;
+        }
+        prepareDanmakuTrack();
+        updateLayoutPlan();
+    }
+
+    //使用已经建立好的数据源,例如从DanmakuCache读取的缓存
+    public void setDanmakuSource(DanmakuStore danmakuSource) {
+        synchronized (mLock) {
+            setMainTimeline(new DanmakuTimeline(danmakuSource));
+            mLiveQueue = null;
+        }
+        prepareDanmakuTrack();
+        updateLayoutPlan();
+    }
+
+    //替换主数据源,同时移除addDanmakuSource添加的数据源,需要持有mLock
+    private void setMainTimeline(DanmakuTimeline timeline) {
+        stopParsing(); //正在解析的弹幕不再属于当前数据源
+        if (mSegments != null) {
+            mSegments.release(mSources);
+            mSegments = null;
+        }
+        mTimeline = timeline;
+        mSources.clear();
+        mSources.add(timeline);
+    }
+
+    //持有mLock时调用,中断loadDanmakuSource的解析线程,之后解析出的弹幕不会再加入时间轴
+    private void stopParsing() {
+        if (mParseThread != null) {
+            mParseThread.interrupt();
+            mParseThread = null;
+        }
+    }
+
+    /**
+     * 分段加载的数据源,只有播放位置附近的分段在内存中
+     * 分段在后台线程加载,暂停时加载完成的分段会立即显示
+     * 在这之前通过setOnSegmentLoadedListener设置的监听仍会收到回调(包括加载失败)
+     */
+    public void setDanmakuSource(DanmakuSegmentedTimeline danmakuSource) {
+        synchronized (mLock) {
+            setMainTimeline(new DanmakuTimeline());
+            mSegments = danmakuSource;
+            mLiveQueue = null;
+        }
+        final DanmakuSegmentedTimeline.OnSegmentLoadedListener userListener = danmakuSource.getOnSegmentLoadedListener();
+        danmakuSource.setOnSegmentLoadedListener(new DanmakuSegmentedTimeline.OnSegmentLoadedListener() {
+            @Override
+            public void onSegmentLoaded(int segment) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        applyLoadedSegments();
+                    }
+                });
+                if (userListener != null) {
+                    userListener.onSegmentLoaded(segment);
+                }
+            }
+
+            @Override
+            public void onSegmentLoadFailed(int segment, Exception e) {
+                if (userListener != null) {
+                    userListener.onSegmentLoadFailed(segment, e);
+                }
+            }
+        });
         prepareDanmakuTrack();
+        updateLayoutPlan();
+    }
+
+    //播放中由doFrame加入新的分段;暂停或还没开始播放时在这里加入,并重新补出屏幕中的弹幕
+    private void applyLoadedSegments() {
+        if (mDanmakuState != PAUSE && mDanmakuState != PREPARED) {
+            return;
+        }
+        synchronized (mLock) {
+            if (mSegments == null) {
+                return;
+            }
+            long time = Math.max(mCurrentTime, 0);
+            mSegments.update(time, mSources);
+            mLayoutEngine.seekTo(mSources, time);
+        }
+        mRenderBackend.requestRender();
+    }
+
+    /**
+     * 添加一个已按时间排序的数据源(例如字幕池、本地的历史弹幕),与主数据源按时间合并显示,不复制数据
+     * 播放中添加时从当前播放时间开始出现;在主线程调用,setDanmakuSource会移除所有添加的数据源
+     */
+    public void addDanmakuSource(DanmakuStore source) {
+        synchronized (mLock) {
+            DanmakuTimeline timeline = new DanmakuTimeline(source);
+            if (mCurrentTime >= 0) {
+                timeline.seekTo(mCurrentTime + 1);
+            }
+            mSources.add(timeline);
+        }
+        updateLayoutPlan();
+    }
+
+    //移除addDanmakuSource添加的数据源,已经显示出来的弹幕继续显示到消失
+    public boolean removeDanmakuSource(DanmakuStore source) {
+        boolean removed = false;
+        synchronized (mLock) {
+            for (int i = 0; i < mSources.getSourceCount(); i++) {
+                DanmakuTimeline timeline = mSources.getSource(i);
+                if (timeline != mTimeline && timeline.getStore() == source) {
+                    removed = mSources.remove(timeline);
+                    break;
+                }
+            }
+        }
+        if (removed) {
+            updateLayoutPlan();
+        }
+        return removed;
+    }
+
+    /**
+     * 直播模式:弹幕由其他线程不断添加到queue中,每帧取出到期的弹幕显示
+     * 弹幕的时间与播放时间(getCurrentTime)使用同一个时间轴,可以先seekTo到直播的当前时间
+     */
+    public void setLiveSource(DanmakuLiveQueue queue) {
+        synchronized (mLock) {
+            setMainTimeline(new DanmakuTimeline());
+            mLiveQueue = queue;
+            if (queue != null) {
+                //之前的丢弃不属于这次播放
+                mLiveDroppedCount = queue.getDroppedCount();
+                mLiveStaleCount = queue.getStaleCount();
+            }
+        }
+        prepareDanmakuTrack();
+        updateLayoutPlan();
+    }
+
+    public DanmakuLiveQueue getLiveSource() {
+        return mLiveQueue;
+    }
+
+    /**
+     * 边解析边播放,在后台线程解析弹幕文件,解析出第一批弹幕后即可播放
+     * 之后的弹幕会在播放过程中合并进时间轴;stream在解析结束后关闭
+     */
+    public void loadDanmakuSource(InputStream stream, BiliBiliDanmakuParser parser) {
+        loadDanmakuSource(stream, parser, null);
+    }
+
+    /**
+     * 同loadDanmakuSource(stream, parser),解析结果通过listener回调
+     * 解析过程中调用setDanmakuSource、loadDanmakuSource、setLiveSource或release会停止这次解析,之后解析出的弹幕被丢弃
+     */
+    public void loadDanmakuSource(final InputStream stream, final BiliBiliDanmakuParser parser, final OnDanmakuLoadListener listener) {
+        final DanmakuTimeline target = new DanmakuTimeline();
+        Thread thread = new Thread("DanmakuParser") {
+            @Override
+            public void run() {
+                parseDanmakuSource(target, stream, parser, listener);
+            }
+        };
+        synchronized (mLock) {
+            setMainTimeline(target);
+            mLiveQueue = null;
+            mParseThread = thread;
+        }
+        thread.start();
+    }
+
+    //在解析线程中运行,target不再是当前数据源时停止解析
+    private void parseDanmakuSource(final DanmakuTimeline target, InputStream stream, BiliBiliDanmakuParser parser,
+                                    final OnDanmakuLoadListener listener) {
+        final int[] count = new int[1];
+        Exception error = null;
+        try {
+            parser.parse(stream, BiliBiliDanmakuParser.DEFAULT_BATCH_SIZE, new BiliBiliDanmakuParser.OnDanmakuParsedListener() {
+                @Override
+                public void onDanmakuParsed(List<Danmaku> batch) {
+                    if (!appendDanmakus(target, batch)) {
+                        throw new CancellationException(); //数据源已被替换
+                    }
+                    count[0] += batch.size();
+                }
+
+                @Override
+                public void onParseFinished() {
+                }
+            });
+        } catch (CancellationException | InterruptedException e) {
+            return;
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+            }
+            synchronized (mLock) {
+                if (mParseThread == Thread.currentThread()) {
+                    mParseThread = null;
+                }
+            }
+        }
+        final Exception failure = error;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mLock) {
+                    if (mTimeline != target) {
+                        return;
+                    }
+                }
+                updateLayoutPlan();
+                if (listener != null) {
+                    if (failure != null) {
+                        listener.onLoadFailed(failure);
+                    } else {
+                        listener.onLoadFinished(count[0]);
+                    }
+                }
+            }
+        });
+    }
+
+    //合并一批弹幕到当前数据源,可在任意线程调用
+    public void appendDanmakus(List<Danmaku> danmakus) {
+        DanmakuTimeline target;
+        synchronized (mLock) {
+            if (mTimeline == null) {
+                setMainTimeline(new DanmakuTimeline());
+            }
+            target = mTimeline;
+        }
+        appendDanmakus(target, danmakus);
+    }
+
+    //target已不是当前数据源时丢弃这批弹幕并返回false
+    private boolean appendDanmakus(DanmakuTimeline target, List<Danmaku> danmakus) {
+        synchronized (mLock) {
+            if (mTimeline != target || Thread.currentThread().isInterrupted()) { //解析线程在stopParsing中被中断
+                return false;
+            }
+            target.addAll(danmakus);
+            mSources.onSourceChanged();
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                prepareDanmakuTrack();
+            }
+        });
+        return true;
     }
 
     public void start() {
         if (mDanmakuState == PREPARED) {
             mDanmakuState = PLAYING;
-            mTimer = new Timer();
-            mTask = new DanmakuTimerTask();
-            mTimer.scheduleAtFixedRate(mTask, 0, REFRESH_TIME);
-            postInvalidate();
+            restartFrameClock();
         }
     }
 
     public void pause() {
-        if (mDanmakuState == PLAYING && mTimer != null && mTask != null) {
+        if (mDanmakuState == PLAYING) {
             mDanmakuState = PAUSE;
-            mTimer.cancel();
-            mTask.cancel();
-            mStartTime = -1;
-            mTimer = null;
-            mTask = null;
+            mFrameClock.stop();
         }
     }
 
     public void resume() {
         if (mDanmakuState == PAUSE) {
             mDanmakuState = PLAYING;
-            mTimer = new Timer();
-            mTask = new DanmakuTimerTask();
-            mTimer.scheduleAtFixedRate(mTask, 0, REFRESH_TIME);
-            postInvalidate();
+            restartFrameClock();
         }
     }
 
+    private void restartFrameClock() {
+        synchronized (mLock) {
+            mLastFrameTime = -1; //暂停期间的时间不计入播放时间
+            if (mDensityController != null) {
+                mDensityController.reset();
+            }
+        }
+        mFrameClock.start();
+    }
+
     public void seekTo(long time) {
         if (mDanmakuState != IDLE) {
             int preState = mDanmakuState;
             mDanmakuState = PAUSE;
-            mCurrentTime = time;
-            for (int i = 0; i < mDanmakus.size(); i++) {
-                Danmaku danmaku = mDanmakus.get(i);
-                if (danmaku.getTime() >= time) {
-                    mLastAddDanmakuIndex = i;
-                    break;
+            synchronized (mLock) {
+                mCurrentTime = time;
+                if (mSegments != null) {
+                    mSegments.seekTo(time, mSources); //优先加载目标分段
                 }
+                mLayoutEngine.seekTo(mSources, time); //补出此时应该在屏幕中的弹幕
             }
-            clearAllDanamku();
             mDanmakuState = preState;
-            postInvalidate();
+            mRenderBackend.requestRender();
         }
     }
 
     public void stop() {
         mDanmakuState = PREPARED;
-        if (mTimer != null) {
-            mTimer.cancel();
-        }
-        if (mTask != null) {
-            mTask.cancel();
-        }
-        for (DanmakuTrack track : mDanmakuTracks) {
-            track.clear();
+        mFrameClock.stop();
+        synchronized (mLock) {
+            clearAllDanamku();
+            mPendingDanmakus.clear();
+            if (mLiveQueue != null) {
+                mLiveQueue.clear();
+            }
+            mCurrentTime = -1;
+            mLastFrameTime = -1;
+            mSources.reset();
+            if (mSegments != null) {
+                mSegments.reset();
+            }
         }
-        mScrapDanmakus.clear();
-        mTimer = null;
-        mTask = null;
-        mCurrentTime = -1;
-        mStartTime = -1;
-        mNewCount = 0;
-        mLastAddDanmakuIndex = 0;
-        postInvalidate();
+        mRenderBackend.requestRender();
     }
 
     public void release() {
         stop();
         mDanmakuState = IDLE;
-        mDanmakuTracks.clear();
+        synchronized (mLock) {
+            stopParsing();
+            if (mSegments != null) { //停止加载分段的后台线程
+                mSegments.release(mSources);
+                mSegments = null;
+            }
+            mLayoutEngine.setTrackCount(0);
+            mTrackY = new float[0];
+        }
     }
 
     public void show() {
         if (!mShowDanmaku) {
             mShowDanmaku = true;
-            postInvalidate();
+            mRenderBackend.requestRender();
         }
     }
 
     public void hide() {
         if (mShowDanmaku) {
             mShowDanmaku = false;
-            postInvalidate();
+            mRenderBackend.requestRender();
         }
     }
 
@@ -241,35 +800,33 @@ public class DanmakuView extends View {
         mScreenHeight = h;
         int preState = mDanmakuState;
         pause();
-        clearAllDanamku();
-        measureTrack();
+        synchronized (mLock) {
+            clearAllDanamku();
+            measureTrack();
+        }
         if (preState == PLAYING) {
             resume();
         }
     }
 
     private void measureTrack() {
-        mDanmakuTracks.clear();
-        TextPaint measureTextPaint = new TextPaint();
-        measureTextPaint.setAntiAlias(true);
-        measureTextPaint.setFakeBoldText(true);
-        measureTextPaint.setTextSize(dip2px(MAX_TEXT_SIZE) * mScaleTextRatio);
-        TextPaint.FontMetrics fontMetrics = measureTextPaint.getFontMetrics();
-        mPeerTrackHeight = fontMetrics.bottom - fontMetrics.top;
-        float trackTotalHeight = 0;
-        int currentTrackCount = 0;
-        while (trackTotalHeight + mPeerTrackHeight < mScreenHeight && currentTrackCount < mMaxDanmakuTrackCount) {
-            trackTotalHeight += mPeerTrackHeight;
-            currentTrackCount++;
-        }
+        mPeerTrackHeight = mRenderer.measureTrackHeight();
+        mRenderer.setTrackHeight(mPeerTrackHeight);
+        int currentTrackCount = DanmakuLayoutEngine.computeTrackCount(mScreenHeight, mPeerTrackHeight, mMaxDanmakuTrackCount);
+        float trackTotalHeight = currentTrackCount * mPeerTrackHeight;
         mTrackMargin = (mScreenHeight - trackTotalHeight) / (currentTrackCount * 2);
         float currentY = mTrackMargin;
+        float[] trackY = new float[currentTrackCount];
         for (int i = 0; i < currentTrackCount; i++) {
-            DanmakuTrack track = new DanmakuTrack();
-            track.y = currentY;
-            mDanmakuTracks.add(track);
+            trackY[i] = currentY;
             currentY += (mPeerTrackHeight + 2 * mTrackMargin);
         }
+        synchronized (mLock) {
+            mTrackY = trackY;
+            mLayoutEngine.setViewportWidth(mScreenWidth);
+            mLayoutEngine.setTrackCount(currentTrackCount);
+        }
+        updateLayoutPlan();
     }
 
     //准备弹幕轨道
@@ -277,430 +834,232 @@ public class DanmakuView extends View {
         if (mDanmakuState == IDLE) {
             mDanmakuState = PREPARED;
             measureTrack();
+            prewarmDanmakuPool(mMaxDanmakuCount);
         }
     }
 
-    //添加一条弹幕数据
-    public void addDanamku(Danmaku danmaku) {
-        if (mCurrentDanmakuCount >= mMaxDanmakuCount || mDanmakuState == IDLE) {
-            return;
-        }
-        DanmakuWrapped danmakuWrapped = wrapDanmaku(danmaku);
-        if (danmaku.getType() == 1) { //滚动弹幕
-            int trackIndex = mAvoidOverLapping ? findAvaliableScrollTrackAvoidOverLapping(danmakuWrapped) : findAvaliableScrollTrack();
-            if (trackIndex >= 0 && trackIndex < mDanmakuTracks.size()) {
-                danmakuWrapped.x = getWidth();
-                addScrollDanmaku(danmakuWrapped, trackIndex);
-            } else {
-                mScrapDanmakus.add(danmakuWrapped); //不能添加就回收
-            }
-        } else if (danmaku.getType() == 5) { //顶部弹幕
-            int trackIndex = findAvaliableTopCenterTrack();
-            if (trackIndex >= 0 && trackIndex < mDanmakuTracks.size()) {
-                danmakuWrapped.x = (getWidth() - danmakuWrapped.getWidth()) / 2;
-                danmakuWrapped.showTime = System.currentTimeMillis();
-                addCenterDanmaku(danmakuWrapped, trackIndex);
-            } else {
-                mScrapDanmakus.add(danmakuWrapped); //不能添加就回收
-            }
-        } else if (danmaku.getType() == 4) { //底部弹幕
-            int trackIndex = findAvaliableBottomCenterTrack();
-            if (trackIndex >= 0 && trackIndex < mDanmakuTracks.size()) {
-                danmakuWrapped.x = (getWidth() - danmakuWrapped.getWidth()) / 2;
-                danmakuWrapped.showTime = System.currentTimeMillis();
-                addCenterDanmaku(danmakuWrapped, trackIndex);
-            } else {
-                mScrapDanmakus.add(danmakuWrapped); //不能添加就回收
-            }
-        }
-    }
-
-    private void addCenterDanmaku(DanmakuWrapped danmakuWrapped, int trackIndex) {
-        mCurrentDanmakuCount++;
-        mDanmakuTracks.get(trackIndex).addCenterDanmaku(danmakuWrapped);
-    }
-
-    private void addScrollDanmaku(DanmakuWrapped danmakuWrapped, int trackIndex) {
-        mCurrentDanmakuCount++;
-        mDanmakuTracks.get(trackIndex).addScrollDanmaku(danmakuWrapped);
-    }
-
-    private void clearAllDanamku() {
-        for (int i = 0; i < mDanmakuTracks.size(); i++) {
-            DanmakuTrack track = mDanmakuTracks.get(i);
-            ListIterator<DanmakuWrapped> iterator = track.mDanmakus.getHeadIterator();
-            while (iterator.hasNext()) {
-                DanmakuWrapped danmakuWrapped = iterator.next();
-                mScrapDanmakus.add(danmakuWrapped);
-                iterator.remove();
-            }
-            track.haveCenterDanmaku = false;
-            if (track.mWaitToAddCenterDanamku != null) {
-                mScrapDanmakus.add(track.mWaitToAddCenterDanamku);
-                track.mWaitToAddCenterDanamku = null;
-            }
-            if (track.mWaitToAddScrollDanamku != null) {
-                mScrapDanmakus.add(track.mWaitToAddScrollDanamku);
-                track.mWaitToAddScrollDanamku = null;
-            }
-            track.clear();
-            mCurrentDanmakuCount = 0;
-        }
-    }
-
-    //将添加的弹幕进行处理
-    private DanmakuWrapped wrapDanmaku(Danmaku danmaku) {
-        DanmakuWrapped danmakuWrapped;
-        if (mScrapDanmakus.size() != 0) {
-            danmakuWrapped = mScrapDanmakus.getFirst();
-            mScrapDanmakus.removeFirst();
-        } else {
-            mNewCount++;
-            danmakuWrapped = new DanmakuWrapped();
-        }
-        danmakuWrapped.wrapDanmaku(danmaku);
-        return danmakuWrapped;
-    }
-
-    //寻找一条可用的滚动弹幕轨道
-    private synchronized int findAvaliableScrollTrack() {
-        for (int i = 0; i < mDanmakuTracks.size(); i++) {
-            DanmakuTrack track = mDanmakuTracks.get(i);
-            if (track.canAddScrollDanmaku()) {
-                return i;
-            }
+    /**
+     * 设置弹幕绘制信息回收池的容量,可根据getDanmakuPool()的峰值统计按设备调整
+     */
+    public void setDanmakuPoolCapacity(int capacity) {
+        synchronized (mLock) {
+            mRenderer.setPoolCapacity(capacity);
         }
-        return -1;
     }
 
-    //寻找一条可用的滚动弹幕轨道(避免重叠)
-    private int findAvaliableScrollTrackAvoidOverLapping(DanmakuWrapped danmakuWrapped) {
-        for (int i = 0; i < mDanmakuTracks.size(); i++) {
-            DanmakuTrack track = mDanmakuTracks.get(i);
-            if (track.canAddScrollDanmakuAvoidOverLapping(danmakuWrapped)) {
-                return i;
-            }
+    //播放前预先创建count个弹幕的绘制信息
+    public void prewarmDanmakuPool(int count) {
+        synchronized (mLock) {
+            mRenderer.prewarm(count);
         }
-        return -1;
     }
 
-    //寻找一条可用的顶部居中弹幕轨道
-    private int findAvaliableTopCenterTrack() {
-        for (int i = 0; i < mDanmakuTracks.size(); i++) {
-            DanmakuTrack track = mDanmakuTracks.get(i);
-            if (track.canAddcenterDanmaku()) {
-                return i;
-            }
-        }
-        return -1;
+    //回收池的命中/未命中/峰值统计
+    public DanmakuPool<?> getDanmakuPool() {
+        return mRenderer.getPool();
     }
 
-    //寻找一条可用的底部居中弹幕轨道
-    private synchronized int findAvaliableBottomCenterTrack() {
-        for (int i = mDanmakuTracks.size() - 1; i >= 0; i--) {
-            DanmakuTrack track = mDanmakuTracks.get(i);
-            if (track.canAddcenterDanmaku()) {
-                return i;
-            }
+    /**
+     * 添加一条弹幕数据,在下一帧的播放时间出现
+     * 可以在任意线程调用,多个线程同时调用也是安全的;队列已满时丢弃,不会阻塞
+     */
+    public void addDanamku(Danmaku danmaku) {
+        if (mDanmakuState == IDLE) {
+            return;
         }
-        return -1;
+        mPendingDanmakus.offer(danmaku); //丢弃数量在队列中原子计数,帧线程再计入统计
     }
 
-    @Override
-    protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
-        for (int i = 0; i < mDanmakuTracks.size(); i++) {
-            DanmakuTrack track = mDanmakuTracks.get(i);
-            track.draw(canvas);
+    //在帧线程中把addDanamku添加的弹幕加入布局
+    private void addPendingDanmakus() {
+        Danmaku danmaku;
+        while ((danmaku = mPendingDanmakus.poll()) != null) {
+            admitDanmaku(danmaku);
         }
-        if (mShowDebugInfo) {
-            drawDebugInfo(canvas);
-        }
-        if (mDanmakuState == PLAYING) {
-            postInvalidate();
-        }
-    }
-
-    private void drawDebugInfo(Canvas canvas) {
-        mFrame++;
-        final long nowTime = System.currentTimeMillis();
-        final long deltaTime = nowTime - mDebugStartTime;
-        if (deltaTime > 1000) {
-            mFps = (int) (mFrame * 1000 / deltaTime);
-            mFrame = 0;
-            mDebugStartTime = nowTime;
-        }
-        Paint.FontMetrics fontMetrics = mDebugTextPaint.getFontMetrics();
-        float textHeight = (float) Math.ceil(fontMetrics.descent - fontMetrics.ascent);
-        canvas.drawText(String.format(Locale.getDefault(), "fps:%d count:%d/%d/%d time:%.1fs", mFps, mCurrentDanmakuCount, mScrapDanmakus.size(), mNewCount, mCurrentTime / 1000f), 0, mScreenHeight - textHeight - fontMetrics.bottom, mDebugTextPaint);
-        canvas.drawText(String.format(Locale.getDefault(), "trackCount:%d/%d trackHeight:%.1f trackMargin:%.1f screenSize:%d/%d", mDanmakuTracks.size(), mMaxDanmakuTrackCount, mPeerTrackHeight, mTrackMargin, mScreenWidth, mScreenHeight), 0, mScreenHeight - fontMetrics.bottom, mDebugTextPaint);
     }
 
     /**
-     * 根据手机的分辨率从 dip(像素) 的单位 转成为 px
+     * 生产者线程不持有mLock,队列中的丢弃数量由队列原子计数,读取统计时把新增的部分计入mMetrics
+     * 持有mLock时调用
      */
-    public int dip2px(float dpValue) {
-        return (int) (dpValue * mDensity + 0.5f);
-    }
-
-    private class DanmakuTimerTask extends TimerTask {
-
-        private long currentTime;
-        private long deltaTime;
-        private int index;
-
-        @Override
-        public void run() {
-            synchronized (mLock) {
-                if (mDanmakuState == PLAYING) {
-                    if (mStartTime == -1) {
-                        mStartTime = System.currentTimeMillis();
-                    }
-                    currentTime = System.currentTimeMillis();
-                    deltaTime = currentTime - mStartTime;
-                    mStartTime = currentTime;
-                    mCurrentTime += deltaTime;
-                    for (index = mLastAddDanmakuIndex + 1; index < mDanmakus.size(); index++) {
-                        Danmaku danmaku = mDanmakus.get(index);
-                        if (mCurrentTime - danmaku.getTime() >= 0) {
-                            addDanamku(danmaku);
-                            mLastAddDanmakuIndex = index;
-                        } else {
-                            break;
-                        }
-                    }
-                }
-            }
+    private void syncQueueDrops() {
+        int droppedCount = mPendingDanmakus.getDroppedCount();
+        mMetrics.onDropped(DanmakuMetrics.DROP_QUEUE_FULL, droppedCount - mPendingDroppedCount);
+        mPendingDroppedCount = droppedCount;
+        if (mLiveQueue != null) {
+            droppedCount = mLiveQueue.getDroppedCount();
+            mMetrics.onDropped(DanmakuMetrics.DROP_QUEUE_FULL, droppedCount - mLiveDroppedCount);
+            mLiveDroppedCount = droppedCount;
+            int staleCount = mLiveQueue.getStaleCount();
+            mMetrics.onDropped(DanmakuMetrics.DROP_STALE, staleCount - mLiveStaleCount);
+            mLiveStaleCount = staleCount;
         }
     }
 
-    // <d p="23.826000213623,1,25,16777215,1422201084,0,057075e9,757076900">我从未见过如此厚颜无耻之猴</d>
-    // 0:时间(弹幕出现时间)
-    // 1:类型(1从右至左滚动弹幕|6从左至右滚动弹幕|5顶端固定弹幕|4底端固定弹幕|7高级弹幕|8脚本弹幕)
-    // 2:字号(弹幕大小 12非常小,16特小,18小,25中,36大,45很大,64特别大)
-    // 3:颜色
-    // 4:时间戳 ?
-    // 5:弹幕池id
-    // 6:用户hash
-    // 7:弹幕id
-
-    //弹幕轨道类
-    private class DanmakuTrack {
-        private DanmakuList<DanmakuWrapped> mDanmakus;
-        private DanmakuWrapped mWaitToAddCenterDanamku; //等待加入轨道的弹幕
-        private DanmakuWrapped mWaitToAddScrollDanamku; //等待加入轨道的弹幕
-
-        private float y;
-
-        private boolean haveCenterDanmaku;
-
-        private DanmakuTrack() {
-            mDanmakus = new DanmakuList<>();
-            haveCenterDanmaku = false;
+    //不在数据源中的弹幕在当前播放时间加入布局
+    private void admitDanmaku(Danmaku danmaku) {
+        DanmakuLayoutEngine.Item item = mRenderer.obtainItem(danmaku);
+        if (!mLayoutEngine.add(item, mCurrentTime)) {
+            mRenderer.onItemRemoved(item); //不能添加就回收
         }
+    }
 
-        private boolean canAddcenterDanmaku() {
-            return !haveCenterDanmaku && mWaitToAddCenterDanamku == null;
-        }
+    private void clearAllDanamku() {
+        mLayoutEngine.clear();
+    }
 
-        private DanmakuWrapped findLastScrollDanmaku() {
-            ListIterator<DanmakuWrapped> listIterator = mDanmakus.getEndIterator();
-            while (listIterator.hasPrevious()) {
-                DanmakuWrapped danmakuWrapped = listIterator.previous();
-                if (danmakuWrapped.getType() == 1) {
-                    return danmakuWrapped;
-                }
-            }
-            return null;
+    //每帧调用一次(在绘制目标的线程):推进播放时间,加入到期的弹幕,按同一帧时间移动所有弹幕
+    private void doFrame(long frameTimeNanos) {
+        if (mDanmakuState != PLAYING) {
+            return;
         }
-
-        @SuppressWarnings("RedundantIfStatement")
-        private boolean canAddScrollDanmaku() {
-            if (mWaitToAddScrollDanamku != null) {
-                return false;
+        long frameTime = frameTimeNanos / 1000000L;
+        long lagNanos = Math.max(0, System.nanoTime() - frameTimeNanos);
+        DanmakuMetrics.Listener listener = mMetricsListener;
+        synchronized (mLock) {
+            mMetrics.onFrame(frameTimeNanos, lagNanos);
+            if (mDensityController != null) {
+                mLayoutEngine.setMaxDanmakuCount(mDensityController.onFrame(frameTimeNanos));
             }
-            DanmakuWrapped lastScrollDanmaku = findLastScrollDanmaku();
-            if (lastScrollDanmaku == null || lastScrollDanmaku.isDisAppear()) {
-                return true;
-            } else {
-                if (lastScrollDanmaku.isTotallyAppearFromLeft()) {
-                    return true;
-                } else {
-                    return false;
-                }
+            long deltaTime = mLastFrameTime == -1 ? 0 : frameTime - mLastFrameTime;
+            mLastFrameTime = frameTime;
+            mCurrentTime += deltaTime;
+            if (mSegments != null) {
+                mSegments.update(mCurrentTime, mSources);
             }
-        }
-
-
-        @SuppressWarnings("RedundantIfStatement")
-        private boolean canAddScrollDanmakuAvoidOverLapping(DanmakuWrapped addDanmaku) {
-            if (mWaitToAddScrollDanamku != null) {
-                return false;
+            mLayoutEngine.addDue(mSources, mCurrentTime);
+            addPendingDanmakus();
+            if (mLiveQueue != null) {
+                mLiveQueue.drain(mCurrentTime, mLiveSink);
             }
-            DanmakuWrapped lastScrollDanmaku = findLastScrollDanmaku();
-            if (lastScrollDanmaku == null || lastScrollDanmaku.isDisAppear()) {
-                return true;
-            } else {
-                if (lastScrollDanmaku.isTotallyAppearFromLeft()) {
-                    if (lastScrollDanmaku.checkWillOverLapping(addDanmaku)) {
-                        return false;
-                    } else {
-                        return true;
-                    }
-                } else {
-                    return false;
-                }
+            mLayoutEngine.layout(mCurrentTime);
+            if (listener != null) {
+                fillSnapshot(mMetricsSnapshot);
             }
         }
-
-        private void addScrollDanmaku(DanmakuWrapped danmakuWrapped) {
-            mWaitToAddScrollDanamku = danmakuWrapped;
-        }
-
-        private void addCenterDanmaku(DanmakuWrapped danmakuWrapped) {
-            mWaitToAddCenterDanamku = danmakuWrapped;
-            haveCenterDanmaku = true;
-        }
-
-
-        private void addToLast(DanmakuWrapped t) {
-            mDanmakus.addToLast(t);
+        mRenderBackend.requestRender();
+        if (listener != null) {
+            listener.onMetrics(mMetricsSnapshot);
         }
+    }
 
-        private void draw(Canvas canvas) {
-            if (mWaitToAddCenterDanamku != null) {
-                addToLast(mWaitToAddCenterDanamku);
-                mWaitToAddCenterDanamku = null;
+    //把当前帧画到canvas上,在绘制目标的线程调用
+    private void renderFrame(Canvas canvas) {
+        synchronized (mLock) {
+            if (mShowDanmaku) {
+                mRenderer.render(canvas, mLayoutEngine, mTrackY);
             }
-            if (mWaitToAddScrollDanamku != null) {
-                addToLast(mWaitToAddScrollDanamku);
-                mWaitToAddScrollDanamku = null;
+            if (mShowDebugInfo) {
+                drawDebugInfo(canvas);
             }
-            ListIterator<DanmakuWrapped> iterator = mDanmakus.getHeadIterator();
-            while (iterator.hasNext()) {
-                DanmakuWrapped danmaku = iterator.next();
-                if (mShowDanmaku) {
-                    danmaku.draw(canvas, y);
-                }
-                if (danmaku.danmaku.getType() == 1) {
-                    if (danmaku.isDisAppear()) {
-                        mScrapDanmakus.add(danmaku);
-                        iterator.remove();
-                        mCurrentDanmakuCount--;
-                    } else {
-                        danmaku.x -= danmaku.speed;
-                    }
-                } else if (danmaku.getType() == 4 || danmaku.getType() == 5) {
-                    if (System.currentTimeMillis() - danmaku.showTime > mCenterDanmakuShowTime) {
-                        mScrapDanmakus.add(danmaku);
-                        iterator.remove();
-                        haveCenterDanmaku = false;
-                        mCurrentDanmakuCount--;
-                    }
-                }
-            }
-        }
-
-        private void clear() {
-            mWaitToAddCenterDanamku = null;
-            mWaitToAddScrollDanamku = null;
-            mDanmakus.clear();
-            haveCenterDanmaku = false;
         }
+    }
 
-        private class Node {
-            private DanmakuWrapped t;
-            private Node pre;
-            private Node next;
-
-            Node(DanmakuWrapped t) {
-                this.t = t;
-            }
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mRenderBackend == mViewBackend) {
+            renderFrame(canvas);
         }
     }
 
-    private class DanmakuWrapped {
-
-        private Danmaku danmaku;
-
-        private float x;
-        private long showTime;
-        private float speed;
-
-        private TextPaint paint; //文本画笔
-        private TextPaint strokePaint; //描边画笔
-        private TextPaint.FontMetrics fontMetrics;
-
-        private float textHeight;
-        private float textWidth;
-        private float baseLineOffset;
-
-        private DanmakuWrapped() {
-            paint = new TextPaint();
-            strokePaint = new TextPaint();
-            strokePaint.setAntiAlias(true);
-            strokePaint.setStrokeWidth(mStrokeWidth);
-            strokePaint.setStyle(Paint.Style.STROKE);
-            strokePaint.setFakeBoldText(true);
-
-            paint.setStyle(Paint.Style.FILL);
-            paint.setAntiAlias(true);
-            paint.setFakeBoldText(true);
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mFrameClock.stop();
+    }
 
-            fontMetrics = new Paint.FontMetrics();
+    //屏幕一帧的时间,获取不到刷新率时按60Hz
+    private long getDisplayFrameNanos() {
+        WindowManager windowManager = (WindowManager) getContext().getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager == null ? 0 : windowManager.getDefaultDisplay().getRefreshRate();
+        if (refreshRate <= 0) {
+            return DanmakuDensityController.DEFAULT_TARGET_FRAME_NANOS;
         }
+        return (long) (1000000000L / refreshRate);
+    }
 
-        private void wrapDanmaku(Danmaku danmaku) {
-            this.danmaku = danmaku;
-            if (danmaku.getTextColor() == Color.WHITE) {
-                strokePaint.setColor(Color.BLACK);
-            } else {
-                strokePaint.setColor(Color.WHITE);
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        synchronized (mLock) {
+            if (mDensityController != null) {
+                mDensityController.setTargetFrameNanos(getDisplayFrameNanos()); //可能换到了刷新率不同的屏幕
             }
-            paint.setColor(danmaku.getTextColor());
-            float textSize = dip2px(danmaku.getTextSize() > MAX_TEXT_SIZE ? MAX_TEXT_SIZE : danmaku.getTextSize()) * mScaleTextRatio;
-            paint.setTextSize(textSize);
-            strokePaint.setTextSize(textSize);
-            paint.getFontMetrics(fontMetrics);
-            textHeight = fontMetrics.descent - fontMetrics.top;
-            textWidth = paint.measureText(danmaku.getContent());
-            baseLineOffset = (mPeerTrackHeight + textHeight) / 2 - fontMetrics.descent;
-            speed = mSpeedRatio * (mScreenWidth + getWidth()) * 16.7f / mScrollDanmakuShowTime;
         }
-
-        private void draw(Canvas canvas, float y) {
-            canvas.drawText(danmaku.getContent(), x, y + baseLineOffset, paint);
-            canvas.drawText(danmaku.getContent(), x, y + baseLineOffset, strokePaint);
-        }
-
-        private float getWidth() {
-            return textWidth;
-        }
-
-        private float getHeight() {
-            return textHeight;
+        if (mDanmakuState == PLAYING) {
+            restartFrameClock();
         }
+    }
 
-        private int getType() {
-            return danmaku.getType();
-        }
+    //在绘制线程中持有mLock调用,文本拼接在复用的StringBuilder中进行
+    private void drawDebugInfo(Canvas canvas) {
+        DanmakuMetrics.Snapshot snapshot = mDebugSnapshot;
+        fillSnapshot(snapshot);
+        mDebugTextPaint.getFontMetrics(mDebugFontMetrics);
+        Paint.FontMetrics fontMetrics = mDebugFontMetrics;
+        float textHeight = (float) Math.ceil(fontMetrics.descent - fontMetrics.ascent);
+        float y = mScreenHeight - fontMetrics.bottom - textHeight * 2;
+
+        StringBuilder text = mDebugText;
+        text.setLength(0);
+        text.append("fps:").append(snapshot.getFps())
+                .append(" count:").append(snapshot.getItemCount()).append('/').append(snapshot.getMaxItemCount())
+                .append(" pool:").append(snapshot.getPoolSize()).append('/').append(snapshot.getPoolMissCount())
+                .append(" time:");
+        appendDecimal(text, snapshot.getCurrentTime() / 1000f);
+        text.append("s lag:");
+        appendDecimal(text, snapshot.getLagNanos() / 1000000f);
+        text.append("ms");
+        drawDebugText(canvas, y);
+
+        text.setLength(0);
+        text.append("admitted:").append(snapshot.getAdmittedCount())
+                .append(" drop:").append(snapshot.getDroppedCount(DanmakuMetrics.DROP_FILTERED))
+                .append('/').append(snapshot.getDroppedCount(DanmakuMetrics.DROP_MERGED))
+                .append('/').append(snapshot.getDroppedCount(DanmakuMetrics.DROP_OVER_BUDGET))
+                .append('/').append(snapshot.getDroppedCount(DanmakuMetrics.DROP_NO_TRACK))
+                .append('/').append(snapshot.getDroppedCount(DanmakuMetrics.DROP_PLAN))
+                .append('/').append(snapshot.getDroppedCount(DanmakuMetrics.DROP_QUEUE_FULL))
+                .append('/').append(snapshot.getDroppedCount(DanmakuMetrics.DROP_STALE))
+                .append(" maxFrame:");
+        appendDecimal(text, snapshot.getMaxFrameNanos() / 1000000f);
+        text.append("ms");
+        drawDebugText(canvas, y + textHeight);
+
+        text.setLength(0);
+        text.append("trackCount:").append(mTrackY.length).append('/').append(mMaxDanmakuTrackCount)
+                .append(" trackHeight:");
+        appendDecimal(text, mPeerTrackHeight);
+        text.append(" trackMargin:");
+        appendDecimal(text, mTrackMargin);
+        text.append(" screenSize:").append(mScreenWidth).append('/').append(mScreenHeight);
+        drawDebugText(canvas, y + textHeight * 2);
+    }
 
-        private boolean isDisAppear() {
-            return x + textWidth < 0;
+    private void drawDebugText(Canvas canvas, float y) {
+        int length = mDebugText.length();
+        if (mDebugChars.length < length) {
+            mDebugChars = new char[length * 2];
         }
+        mDebugText.getChars(0, length, mDebugChars, 0);
+        canvas.drawText(mDebugChars, 0, length, 0, y, mDebugTextPaint);
+    }
 
-        private boolean isTotallyAppearFromLeft() {
-            return x + textWidth < mScreenWidth;
+    //保留一位小数,代替String.format
+    private static void appendDecimal(StringBuilder builder, float value) {
+        long tenths = Math.round(value * 10);
+        if (tenths < 0) {
+            builder.append('-');
+            tenths = -tenths;
         }
+        builder.append(tenths / 10).append('.').append((char) ('0' + tenths % 10));
+    }
 
-        private boolean checkWillOverLapping(DanmakuWrapped nextDanmaku) {
-            if (nextDanmaku.speed > speed && !isDisAppear()) {
-                int lastDanmakuDisappearTime = (int) ((textWidth + x) / speed);
-                int catchTime = (int) ((mScreenWidth - textWidth - x) / (nextDanmaku.speed - speed));
-                return catchTime < lastDanmakuDisappearTime;
-            } else {
-                return false;
-            }
-        }
+    /**
+     * 根据手机的分辨率从 dip(像素) 的单位 转成为 px
+     */
+    public int dip2px(float dpValue) {
+        return (int) (dpValue * mDensity + 0.5f);
     }
 }
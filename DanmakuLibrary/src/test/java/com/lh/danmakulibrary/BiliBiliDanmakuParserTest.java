@@ -0,0 +1,115 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * BiliBiliDanmakuParser 的分批流式解析
+ */
+public class BiliBiliDanmakuParserTest {
+
+    private static InputStream createXml(int count) throws Exception {
+        StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><i><chatid>1</chatid>");
+        for (int i = 0; i < count; i++) {
+            builder.append("<d p=\"").append(count - i).append(".5,1,25,16777215,1422201084,0,abc,").append(i)
+                    .append("\">").append(i % 2 == 0 ? "+1" : "text" + i).append("</d>");
+        }
+        builder.append("</i>");
+        return new ByteArrayInputStream(builder.toString().getBytes("UTF-8"));
+    }
+
+    //记录每一批的大小和结束回调
+    private static class RecordingListener implements BiliBiliDanmakuParser.OnDanmakuParsedListener {
+        final ArrayList<Integer> batchSizes = new ArrayList<>();
+        final ArrayList<Danmaku> danmakus = new ArrayList<>();
+        int finishedCount;
+
+        @Override
+        public void onDanmakuParsed(List<Danmaku> batch) {
+            assertEquals(0, finishedCount);
+            batchSizes.add(batch.size());
+            danmakus.addAll(batch);
+        }
+
+        @Override
+        public void onParseFinished() {
+            finishedCount++;
+        }
+    }
+
+    @Test
+    public void parse_deliversFullBatchesThenPartialBatch() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        new BiliBiliDanmakuParser().parse(createXml(10), 4, listener);
+        assertEquals(Arrays.asList(4, 4, 2), listener.batchSizes);
+        assertEquals(1, listener.finishedCount);
+        for (int i = 0; i < 10; i++) { //batch保持文档顺序,不排序
+            assertEquals(i, listener.danmakus.get(i).getDanmakuId());
+        }
+        assertSame(listener.danmakus.get(0).getContent(), listener.danmakus.get(2).getContent()); //重复的文本共用
+    }
+
+    @Test
+    public void parse_noEmptyBatchAtExactMultiple() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        new BiliBiliDanmakuParser().parse(createXml(8), 4, listener);
+        assertEquals(Arrays.asList(4, 4), listener.batchSizes);
+        assertEquals(1, listener.finishedCount);
+
+        listener = new RecordingListener();
+        new BiliBiliDanmakuParser().parse(createXml(0), 4, listener);
+        assertTrue(listener.batchSizes.isEmpty());
+        assertEquals(1, listener.finishedCount);
+    }
+
+    @Test
+    public void parse_skipsBlockedDanmakusBeforeBatching() throws Exception {
+        BiliBiliDanmakuParser parser = new BiliBiliDanmakuParser();
+        parser.setFilter(new DanmakuFilter.Builder().addKeyword("+1").build());
+        RecordingListener listener = new RecordingListener();
+        parser.parse(createXml(10), 4, listener);
+        assertEquals(Arrays.asList(4, 1), listener.batchSizes);
+    }
+
+    @Test
+    public void parse_stopsBeforeNextBatchWhenInterrupted() throws Exception {
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onDanmakuParsed(List<Danmaku> batch) {
+                super.onDanmakuParsed(batch);
+                Thread.currentThread().interrupt(); //例如数据源被替换
+            }
+        };
+        try {
+            new BiliBiliDanmakuParser().parse(createXml(10), 4, listener);
+            fail();
+        } catch (InterruptedException expected) {
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(Arrays.asList(4), listener.batchSizes);
+        assertEquals(0, listener.finishedCount);
+
+        listener = new RecordingListener(); //只剩最后不满一批时也不再回调
+        Thread.currentThread().interrupt();
+        try {
+            new BiliBiliDanmakuParser().parse(createXml(3), 4, listener);
+            fail();
+        } catch (InterruptedException expected) {
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(listener.batchSizes.isEmpty());
+        assertEquals(0, listener.finishedCount);
+    }
+}
@@ -0,0 +1,106 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DanmakuCache 读写,以及截断或损坏的缓存回退到重新解析
+ */
+public class DanmakuCacheTest {
+
+    private static File createSource() throws Exception {
+        StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><i>");
+        for (int i = 0; i < 200; i++) {
+            builder.append("<d p=\"").append(i / 10f).append(",1,25,16777215,1422201084,0,abc,").append(i)
+                    .append("\">弹幕").append(i % 20).append("</d>");
+        }
+        File source = File.createTempFile("danmaku", ".xml");
+        source.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(source);
+        out.write(builder.append("</i>").toString().getBytes("UTF-8"));
+        out.close();
+        return source;
+    }
+
+    private static File cacheOf(File source) {
+        File cache = new File(source.getPath() + ".cache");
+        cache.deleteOnExit();
+        return cache;
+    }
+
+    private static void assertStore(DanmakuStore store) {
+        assertEquals(200, store.size());
+        assertEquals(19000, store.getTime(190));
+        assertEquals("弹幕10", store.getContent(190));
+        assertEquals(1422201084, store.getSendTime(190));
+        assertEquals(190, store.getDanmakuId(190));
+    }
+
+    @Test
+    public void load_readsWrittenCache() throws Exception {
+        File source = createSource();
+        File cache = cacheOf(source);
+        BiliBiliDanmakuParser parser = new BiliBiliDanmakuParser();
+        assertStore(DanmakuCache.load(source, cache, parser));
+        assertTrue(cache.exists());
+        assertStore(DanmakuCache.read(cache, source));
+    }
+
+    @Test
+    public void load_reparsesTruncatedOrCorruptCache() throws Exception {
+        File source = createSource();
+        File cache = cacheOf(source);
+        BiliBiliDanmakuParser parser = new BiliBiliDanmakuParser();
+        DanmakuCache.load(source, cache, parser);
+        long length = cache.length();
+
+        RandomAccessFile file = new RandomAccessFile(cache, "rw");
+        file.setLength(length / 2); //截断
+        file.close();
+        assertTrue(DanmakuCache.read(cache, source) == null);
+        assertStore(DanmakuCache.load(source, cache, parser));
+        assertEquals(length, cache.length()); //重新写入
+
+        file = new RandomAccessFile(cache, "rw");
+        file.seek(32);
+        file.writeInt(Integer.MAX_VALUE); //count
+        file.close();
+        assertTrue(DanmakuCache.read(cache, source) == null);
+        assertStore(DanmakuCache.load(source, cache, parser));
+
+        file = new RandomAccessFile(cache, "rw");
+        file.seek(40 + 200 * (8 + 8 + 8 + 4 + 4));
+        file.writeInt(-5); //第一条弹幕的文本索引
+        file.close();
+        assertTrue(DanmakuCache.read(cache, source) == null);
+        assertStore(DanmakuCache.load(source, cache, parser));
+    }
+
+    @Test
+    public void read_checksContentOnlyWhenModifiedTimeChanges() throws Exception {
+        File source = createSource();
+        File cache = cacheOf(source);
+        DanmakuCache.load(source, cache, new BiliBiliDanmakuParser());
+        long modified = source.lastModified();
+
+        assertTrue(source.setLastModified(modified - 60000)); //只修改时间,内容相同
+        assertStore(DanmakuCache.read(cache, source));
+        RandomAccessFile file = new RandomAccessFile(cache, "r");
+        file.seek(16);
+        assertEquals(source.lastModified(), file.readLong()); //缓存记录新的修改时间
+        file.close();
+
+        file = new RandomAccessFile(source, "rw");
+        file.seek(source.length() - 10);
+        file.write('x'); //长度不变,内容改变
+        file.close();
+        assertTrue(source.setLastModified(modified - 120000));
+        assertTrue(DanmakuCache.read(cache, source) == null);
+    }
+}
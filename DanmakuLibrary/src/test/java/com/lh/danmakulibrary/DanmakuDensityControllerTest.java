@@ -0,0 +1,70 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DanmakuDensityController 按帧间隔调整上限
+ */
+public class DanmakuDensityControllerTest {
+
+    private static final long FRAME = DanmakuDensityController.DEFAULT_TARGET_FRAME_NANOS;
+
+    @Test
+    public void slowFrames_lowerBudget_fastFrames_raiseIt() throws Exception {
+        DanmakuDensityController controller = new DanmakuDensityController(10, 100, 40);
+        long time = 0;
+        for (int i = 0; i < 60; i++) {
+            time += FRAME * 2;
+            controller.onFrame(time);
+        }
+        int lowered = controller.getBudget();
+        assertTrue(lowered < 40);
+        assertTrue(lowered >= 10);
+
+        for (int i = 0; i < 1000; i++) {
+            time += FRAME;
+            controller.onFrame(time);
+        }
+        assertTrue(controller.getBudget() > lowered);
+
+        for (int i = 0; i < 100000; i++) {
+            time += FRAME;
+            controller.onFrame(time);
+        }
+        assertEquals(100, controller.getBudget());
+    }
+
+    @Test
+    public void pauseGap_isIgnored() throws Exception {
+        DanmakuDensityController controller = new DanmakuDensityController(10, 100, 40);
+        controller.onFrame(0);
+        controller.onFrame(5000000000L);
+        controller.onFrame(5000000000L + FRAME);
+        assertEquals(FRAME, controller.getAverageFrameNanos(), FRAME * 0.01);
+    }
+
+    @Test
+    public void targetFrame_followsRefreshRate() throws Exception {
+        long frame120 = 1000000000L / 120;
+        DanmakuDensityController controller = new DanmakuDensityController(10, 100, 40);
+        controller.setTargetFrameNanos(frame120);
+        long time = 0;
+        for (int i = 0; i < 60; i++) {
+            time += FRAME; //60fps在120Hz的屏幕上算掉帧
+            controller.onFrame(time);
+        }
+        assertTrue(controller.getBudget() < 40);
+
+        controller = new DanmakuDensityController(10, 100, 40);
+        controller.setTargetFrameNanos(frame120);
+        time = 0;
+        for (int i = 0; i < 60; i++) {
+            time += frame120;
+            controller.onFrame(time);
+        }
+        assertEquals(40, controller.getBudget(), 2); //从新的目标开始平均,刚设置时不会误判为慢
+    }
+}
@@ -0,0 +1,99 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DanmakuFilter 关键词自动机和用户屏蔽
+ */
+public class DanmakuFilterTest {
+
+    @Test
+    public void keywords_matchAnywhere() throws Exception {
+        DanmakuFilter filter = new DanmakuFilter.Builder()
+                .addKeyword("he")
+                .addKeyword("she")
+                .addKeyword("hers")
+                .addKeyword("剧透")
+                .addKeyword("ABC")
+                .build();
+        assertTrue(filter.containsKeyword("ushers"));
+        assertTrue(filter.containsKeyword("前方剧透预警"));
+        assertTrue(filter.containsKeyword("xxabcxx"));
+        assertFalse(filter.containsKeyword("hxsxe"));
+        assertFalse(filter.containsKeyword("剧情"));
+        assertFalse(filter.containsKeyword(null));
+    }
+
+    @Test
+    public void keywords_agreeWithContains() throws Exception {
+        Random random = new Random(3);
+        ArrayList<String> keywords = new ArrayList<>();
+        DanmakuFilter.Builder builder = new DanmakuFilter.Builder().setIgnoreCase(false);
+        for (int i = 0; i < 200; i++) {
+            String keyword = randomText(random, 2 + random.nextInt(4));
+            keywords.add(keyword);
+            builder.addKeyword(keyword);
+        }
+        DanmakuFilter filter = builder.build();
+        for (int i = 0; i < 5000; i++) {
+            String content = randomText(random, 1 + random.nextInt(20));
+            boolean expected = false;
+            for (String keyword : keywords) {
+                expected |= content.contains(keyword);
+            }
+            assertEquals(expected, filter.containsKeyword(content));
+        }
+    }
+
+    @Test
+    public void users_areBlocked() throws Exception {
+        DanmakuFilter filter = new DanmakuFilter.Builder().addUser("057075e9").build();
+        Danmaku danmaku = Danmaku.parse("23.826000213623,1,25,16777215,1422201084,0,057075e9,757076900");
+        danmaku.setContent("hello");
+        assertTrue(filter.isBlocked(danmaku));
+        danmaku.setUserHash("other");
+        assertFalse(filter.isBlocked(danmaku));
+    }
+
+    @Test
+    public void storedDanmakus_agreeWithStringPath() throws Exception {
+        String[] contents = {"前方剧透预警", "HELLO world", "ｗｗｗ", "emoji😂剧透", "Straße", "lone\uD83D", "", null, "ushers"};
+        DanmakuFilter filter = new DanmakuFilter.Builder()
+                .addKeyword("剧透").addKeyword("hello").addKeyword("😂").addKeyword("ß").addKeyword("she")
+                .addUser("057075e9").addUser("用户")
+                .build();
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        for (int i = 0; i < contents.length * 3; i++) {
+            Danmaku danmaku = new Danmaku();
+            danmaku.setContent(contents[i % contents.length]);
+            danmaku.setUserHash(i % 3 == 0 ? "057075e9" : i % 3 == 1 ? "用户x" : null);
+            danmakus.add(danmaku);
+        }
+        DanmakuStore store = DanmakuStore.create(danmakus);
+        DanmakuStore.Item item = new DanmakuStore.Item();
+        for (int i = 0; i < store.size(); i++) {
+            boolean expected = filter.isBlocked(danmakus.get(i).getContent(), danmakus.get(i).getUserHash());
+            assertEquals(expected, filter.isBlocked(store, i));
+            assertEquals(expected, filter.isBlocked(item.moveTo(store, i)));
+        }
+        assertEquals(0, store.getDecodedTextCount()); //没有解码文本
+
+        item.moveTo(store, 1).setContent("clean");
+        assertFalse(filter.isBlocked(item)); //修改过的快照按新的内容过滤
+    }
+
+    private static String randomText(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(4));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,383 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.ListIterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DanmakuLayoutEngine 的布局只由时间决定,不需要绘制就可以检查
+ */
+public class DanmakuLayoutEngineTest {
+
+    private static final int WIDTH = 1000;
+    private static final float TEXT_WIDTH = 100;
+
+    private final ArrayList<DanmakuLayoutEngine.Item> mRemoved = new ArrayList<>();
+
+    private DanmakuLayoutEngine createEngine(int trackCount) {
+        DanmakuLayoutEngine engine = new DanmakuLayoutEngine(new DanmakuLayoutEngine.Callback() {
+            @Override
+            public DanmakuLayoutEngine.Item obtainItem(DanmakuStore store, int index) {
+                return new DanmakuLayoutEngine.Item(new DanmakuStore.Item().moveTo(store, index), TEXT_WIDTH);
+            }
+
+            @Override
+            public void onItemRemoved(DanmakuLayoutEngine.Item item) {
+                mRemoved.add(item);
+            }
+        });
+        engine.setViewportWidth(WIDTH);
+        engine.setTrackCount(trackCount);
+        engine.setScrollDanmakuShowTime(8000);
+        engine.setCenterDanmakuShowTime(4000);
+        return engine;
+    }
+
+    private static Danmaku danmaku(long time, int type) {
+        Danmaku danmaku = new Danmaku();
+        danmaku.setTime(time);
+        danmaku.setType(type);
+        danmaku.setContent("d" + time);
+        return danmaku;
+    }
+
+    @Test
+    public void scrollPosition_isFunctionOfTime() throws Exception {
+        DanmakuLayoutEngine engine = createEngine(5);
+        DanmakuLayoutEngine.Item item = new DanmakuLayoutEngine.Item(danmaku(1000, 1), TEXT_WIDTH);
+        assertTrue(engine.add(item, 1000));
+        //(1000 + 100) px / 8000 ms
+        engine.layout(5000);
+        assertEquals(WIDTH - 4000 * 1100f / 8000, item.getX(), 0.01);
+        engine.layout(3000);
+        assertEquals(WIDTH - 2000 * 1100f / 8000, item.getX(), 0.01);
+        engine.layout(9001);
+        assertEquals(0, engine.getItemCount());
+        assertEquals(1, mRemoved.size());
+    }
+
+    @Test
+    public void scrollDanmaku_waitsUntilPreviousFullyAppears() throws Exception {
+        DanmakuLayoutEngine engine = createEngine(2);
+        assertTrue(engine.add(new DanmakuLayoutEngine.Item(danmaku(0, 1), TEXT_WIDTH), 0));
+        DanmakuLayoutEngine.Item second = new DanmakuLayoutEngine.Item(danmaku(10, 1), TEXT_WIDTH);
+        assertTrue(engine.add(second, 10));
+        assertEquals(1, second.getTrack());
+        assertFalse(engine.add(new DanmakuLayoutEngine.Item(danmaku(20, 1), TEXT_WIDTH), 20));
+        //第一条在 100 / (1100 / 8000) ≈ 727ms 后完全出现
+        DanmakuLayoutEngine.Item fourth = new DanmakuLayoutEngine.Item(danmaku(800, 1), TEXT_WIDTH);
+        assertTrue(engine.add(fourth, 800));
+        assertEquals(0, fourth.getTrack());
+    }
+
+    @Test
+    public void centerDanmaku_useTopAndBottomTracks() throws Exception {
+        DanmakuLayoutEngine engine = createEngine(3);
+        DanmakuLayoutEngine.Item top = new DanmakuLayoutEngine.Item(danmaku(0, 5), TEXT_WIDTH);
+        DanmakuLayoutEngine.Item bottom = new DanmakuLayoutEngine.Item(danmaku(0, 4), TEXT_WIDTH);
+        assertTrue(engine.add(top, 0));
+        assertTrue(engine.add(bottom, 0));
+        assertEquals(0, top.getTrack());
+        assertEquals(2, bottom.getTrack());
+        assertEquals((WIDTH - TEXT_WIDTH) / 2, top.getX(), 0.01);
+        engine.layout(4001);
+        assertEquals(0, engine.getItemCount());
+    }
+
+    @Test
+    public void add_removesExactlyTheExpiredItems() throws Exception {
+        DanmakuLayoutEngine engine = createEngine(8);
+        Random random = new Random(5);
+        long time = 0;
+        for (int i = 0; i < 5000; i++) {
+            time += random.nextInt(120);
+            int type = random.nextInt(4) == 0 ? (random.nextBoolean() ? 4 : 5) : 1;
+            mRemoved.clear();
+            engine.add(new DanmakuLayoutEngine.Item(danmaku(time, type), 20 + random.nextInt(400)), time);
+            for (DanmakuLayoutEngine.Item removed : mRemoved) {
+                assertTrue(removed.exitTime < time || removed.getTrack() < 0); //被移除的都已经过期(或者没有加入)
+            }
+            int count = 0;
+            for (int track = 0; track < engine.getTrackCount(); track++) {
+                ListIterator<DanmakuLayoutEngine.Item> iterator = engine.getTrackItems(track);
+                while (iterator.hasNext()) {
+                    assertFalse(engine.isExpired(iterator.next(), time));
+                    count++;
+                }
+            }
+            assertEquals(engine.getItemCount(), count);
+        }
+    }
+
+    @Test
+    public void seekTo_backFillsDanmakuInFlight() throws Exception {
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            danmakus.add(danmaku(i * 1000, 1));
+        }
+        DanmakuTimeline timeline = new DanmakuTimeline(danmakus);
+        DanmakuLayoutEngine engine = createEngine(5);
+        engine.seekTo(timeline, 50500);
+        //43000ms之后出现的弹幕在50500时仍在屏幕上
+        assertEquals(8, engine.getItemCount());
+        assertEquals(timeline.lowerBound(50500), timeline.getCursor());
+
+        //跳转到同一时间得到同样的布局
+        float[] first = positions(engine);
+        engine.seekTo(timeline, 10000);
+        engine.seekTo(timeline, 50500);
+        float[] second = positions(engine);
+        assertEquals(first.length, second.length);
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i], second[i], 0.001);
+        }
+    }
+
+    @Test
+    public void addDue_keepsHigherRankedWhenOverBudget() throws Exception {
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Danmaku danmaku = danmaku(1000, DanmakuLayoutEngine.TYPE_TOP);
+            danmaku.setTextSize(i == 2 || i == 4 ? 36 : 25);
+            danmaku.setTextColor(i == 5 ? 0xFFFF0000 : 0xFFFFFFFF);
+            danmakus.add(danmaku);
+        }
+        DanmakuTimeline timeline = new DanmakuTimeline(danmakus);
+        DanmakuLayoutEngine engine = createEngine(10);
+        engine.setMaxDanmakuCount(3);
+        engine.setRanker(new DanmakuDensityController.StyleRanker());
+        engine.addDue(timeline, 1000);
+        assertEquals(3, engine.getItemCount());
+        //彩色和大字号的弹幕被保留,仍按原来的顺序占用轨道
+        for (int i = 0; i < 3; i++) {
+            Danmaku danmaku = engine.getTrackItems(i).next().getDanmaku();
+            assertTrue(danmaku.getTextSize() == 36 || danmaku.getTextColor() != 0xFFFFFFFF);
+        }
+        assertEquals(0xFFFF0000, engine.getTrackItems(2).next().getDanmaku().getTextColor());
+    }
+
+    @Test
+    public void addDue_filteredAndMergedDoNotUseRankedSlots() throws Exception {
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Danmaku danmaku = danmaku(1000, DanmakuLayoutEngine.TYPE_TOP);
+            danmaku.setTextSize(i < 2 ? 64 : 25); //排序最高的两条被屏蔽
+            danmaku.setContent(i < 2 ? "剧透" : i == 5 ? "d500" : "c" + i);
+            danmakus.add(danmaku);
+        }
+        Danmaku shown = danmaku(500, DanmakuLayoutEngine.TYPE_TOP); //正在显示,第6条合并到这里
+        DanmakuTimeline timeline = new DanmakuTimeline(danmakus);
+        DanmakuLayoutEngine engine = createEngine(10);
+        engine.setMerger(new DanmakuMerger(5000));
+        assertTrue(engine.add(new DanmakuLayoutEngine.Item(shown, TEXT_WIDTH), 500));
+        engine.setFilter(new DanmakuFilter.Builder().addKeyword("剧透").build());
+        engine.setMaxDanmakuCount(4);
+        engine.setRanker(new DanmakuDensityController.StyleRanker());
+        DanmakuMetrics metrics = new DanmakuMetrics();
+        engine.setMetrics(metrics);
+        engine.addDue(timeline, 1000);
+        assertEquals(4, engine.getItemCount()); //3个空位都给了没有被屏蔽或合并的弹幕
+        DanmakuMetrics.Snapshot snapshot = new DanmakuMetrics.Snapshot();
+        metrics.snapshot(snapshot);
+        assertEquals(2, snapshot.getDroppedCount(DanmakuMetrics.DROP_FILTERED));
+        assertEquals(1, snapshot.getDroppedCount(DanmakuMetrics.DROP_MERGED));
+        assertEquals(0, snapshot.getDroppedCount(DanmakuMetrics.DROP_OVER_BUDGET));
+    }
+
+    @Test
+    public void merger_foldsRepeatsWithinWindow() throws Exception {
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Danmaku danmaku = danmaku(1000 + i * 100, DanmakuLayoutEngine.TYPE_SCROLL);
+            danmaku.setContent(i % 5 == 4 ? "other" : "+1");
+            danmakus.add(danmaku);
+        }
+        Danmaku late = danmaku(7000, DanmakuLayoutEngine.TYPE_SCROLL);
+        late.setContent("+1");
+        danmakus.add(late);
+        DanmakuTimeline timeline = new DanmakuTimeline(danmakus);
+        DanmakuLayoutEngine engine = createEngine(5);
+        engine.setMerger(new DanmakuMerger(5000));
+
+        engine.addDue(timeline, 2000);
+        assertEquals(2, engine.getItemCount());
+        DanmakuLayoutEngine.Item first = engine.getTrackItems(0).next();
+        assertEquals("+1", first.getDanmaku().getContent());
+        assertEquals(8, first.getMergeCount());
+        assertEquals(8, engine.getMerger().getMergedCount()); //"other"也合并了一条
+
+        //超出窗口后重新显示一条
+        engine.addDue(timeline, 7000);
+        assertEquals(3, engine.getItemCount());
+    }
+
+    @Test
+    public void merger_matchesContentAcrossSourcesWithoutDecoding() throws Exception {
+        DanmakuMultiTimeline sources = new DanmakuMultiTimeline();
+        for (int s = 0; s < 2; s++) {
+            ArrayList<Danmaku> danmakus = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                Danmaku danmaku = danmaku(1000 + s * 50 + i * 100, DanmakuLayoutEngine.TYPE_SCROLL);
+                danmaku.setContent(s == 0 ? "草" + i % 2 : i % 3 == 0 ? "padding" : "草" + i % 2);
+                danmakus.add(danmaku);
+            }
+            sources.add(new DanmakuTimeline(danmakus));
+        }
+        DanmakuLayoutEngine engine = createEngine(5);
+        engine.setMerger(new DanmakuMerger(5000));
+        engine.addDue(sources, 2000);
+        assertEquals(3, engine.getItemCount()); //"草0"、"草1"和"padding"
+        assertEquals(9, engine.getMerger().getMergedCount());
+
+        Danmaku live = danmaku(2000, DanmakuLayoutEngine.TYPE_SCROLL);
+        live.setContent("草1");
+        assertTrue(!engine.add(new DanmakuLayoutEngine.Item(live, TEXT_WIDTH), 2000)); //普通弹幕与文本表中的内容比较
+        assertEquals(10, engine.getMerger().getMergedCount());
+    }
+
+    @Test
+    public void merger_widensLastItemForBadge() throws Exception {
+        DanmakuLayoutEngine engine = createEngine(1);
+        engine.setMerger(new DanmakuMerger(5000));
+        engine.setBadgeMeasurer(new DanmakuLayoutEngine.BadgeMeasurer() {
+            @Override
+            public float measureBadge(DanmakuLayoutEngine.Item item, int mergeCount) {
+                return mergeCount > 1 ? 10 * mergeCount : 0;
+            }
+        });
+        Danmaku repeat = danmaku(0, DanmakuLayoutEngine.TYPE_SCROLL);
+        repeat.setContent("+1");
+        DanmakuLayoutEngine.Item first = new DanmakuLayoutEngine.Item(repeat, TEXT_WIDTH);
+        assertTrue(engine.add(first, 0));
+        assertFalse(engine.add(new DanmakuLayoutEngine.Item(repeat, TEXT_WIDTH), 100));
+        assertEquals(2, first.getMergeCount());
+        assertEquals(TEXT_WIDTH + 20, first.getWidth(), 0);
+        assertEquals(20, first.getBadgeWidth(), 0);
+        assertFalse(engine.isExpired(first, 8100)); //尾部变长,离开屏幕的时间推迟,速度不变
+        engine.layout(1000);
+        assertEquals(WIDTH - 1100 / 8000.0 * 1000, first.getX(), 0.01);
+
+        //后面已经有弹幕时不再变宽,新弹幕按普通弹幕分配
+        assertTrue(engine.add(new DanmakuLayoutEngine.Item(danmaku(2000, DanmakuLayoutEngine.TYPE_SCROLL), TEXT_WIDTH), 2000));
+        assertFalse(engine.add(new DanmakuLayoutEngine.Item(repeat, TEXT_WIDTH), 2100)); //唯一的轨道还没有空出来
+        assertEquals(2, first.getMergeCount());
+        assertEquals(1, engine.getMerger().getMergedCount());
+        assertEquals(2, engine.getItemCount());
+    }
+
+    @Test
+    public void plan_matchesLiveAllocation() throws Exception {
+        Random random = new Random(7);
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        int[] types = {1, 1, 1, 4, 5};
+        for (int i = 0; i < 3000; i++) {
+            danmakus.add(danmaku(random.nextInt(300000), types[random.nextInt(types.length)]));
+        }
+        Collections.sort(danmakus);
+        DanmakuTimeline timeline = new DanmakuTimeline(danmakus);
+        final DanmakuStore store = timeline.getStore();
+        final HashMap<DanmakuLayoutEngine.Item, Integer> indexes = new HashMap<>();
+        final int[] liveTracks = new int[store.size()];
+        Arrays.fill(liveTracks, DanmakuLayoutPlan.DROPPED);
+        DanmakuLayoutEngine engine = new DanmakuLayoutEngine(new DanmakuLayoutEngine.Callback() {
+            @Override
+            public DanmakuLayoutEngine.Item obtainItem(DanmakuStore store, int index) {
+                DanmakuLayoutEngine.Item item = new DanmakuLayoutEngine.Item(new DanmakuStore.Item().moveTo(store, index), widthOf(index));
+                indexes.put(item, index);
+                return item;
+            }
+
+            @Override
+            public void onItemRemoved(DanmakuLayoutEngine.Item item) {
+                Integer index = indexes.remove(item);
+                if (index != null && item.getTrack() >= 0) {
+                    liveTracks[index] = item.getTrack();
+                }
+            }
+        });
+        engine.setViewportWidth(WIDTH);
+        engine.setTrackCount(8);
+        engine.setMaxDanmakuCount(30);
+
+        DanmakuLayoutPlan plan = new DanmakuLayoutPlan(store, engine);
+        assertTrue(plan.build(new DanmakuLayoutPlan.WidthMeasurer() {
+            @Override
+            public float measureWidth(DanmakuStore store, int index) {
+                return widthOf(index);
+            }
+        }));
+
+        engine.addDue(timeline, Long.MAX_VALUE - 1);
+        engine.clear();
+        int dropped = 0;
+        for (int i = 0; i < store.size(); i++) {
+            assertEquals(liveTracks[i], plan.getTrack(i));
+            if (plan.getTrack(i) == DanmakuLayoutPlan.DROPPED) {
+                dropped++;
+            }
+        }
+        assertTrue(dropped > 0);
+    }
+
+    @Test
+    public void plan_onlyMatchesTheSettingsItWasBuiltWith() throws Exception {
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            danmakus.add(danmaku(i * 100, 1));
+        }
+        DanmakuStore store = DanmakuStore.create(danmakus);
+        DanmakuLayoutEngine engine = createEngine(4);
+        DanmakuLayoutPlan plan = new DanmakuLayoutPlan(store, engine, 0.9f);
+        assertTrue(plan.matches(store, engine));
+        assertTrue(plan.hasSameSettings(engine, 0.9f));
+        assertFalse(plan.hasSameSettings(engine, 1f));
+
+        engine.setAvoidOverLapping(!engine.isAvoidOverLapping());
+        assertFalse(plan.matches(store, engine));
+        engine.setAvoidOverLapping(!engine.isAvoidOverLapping());
+        engine.setSpeedRatio(1.5f);
+        assertFalse(plan.matches(store, engine));
+        engine.setSpeedRatio(1f);
+        engine.setMaxDanmakuCount(engine.getMaxDanmakuCount() + 1);
+        assertFalse(plan.matches(store, engine));
+        engine.setMaxDanmakuCount(engine.getMaxDanmakuCount() - 1);
+        engine.setScrollDanmakuShowTime(6000);
+        assertFalse(plan.matches(store, engine));
+        engine.setScrollDanmakuShowTime(8000);
+        assertTrue(plan.matches(store, engine));
+        engine.setViewportWidth(WIDTH / 2);
+        assertFalse(plan.matches(store, engine));
+    }
+
+    private static float widthOf(int index) {
+        return 40 + (index * 37) % 200;
+    }
+
+    private static float[] positions(DanmakuLayoutEngine engine) {
+        float[] positions = new float[engine.getItemCount()];
+        int count = 0;
+        for (int i = 0; i < engine.getTrackCount(); i++) {
+            ListIterator<DanmakuLayoutEngine.Item> iterator = engine.getTrackItems(i);
+            while (iterator.hasNext()) {
+                positions[count++] = iterator.next().getX();
+            }
+        }
+        return positions;
+    }
+
+    @Test
+    public void computeTrackCount_fitsViewportHeight() throws Exception {
+        assertEquals(4, DanmakuLayoutEngine.computeTrackCount(100, 24, 20));
+        assertEquals(3, DanmakuLayoutEngine.computeTrackCount(96, 24, 20));
+        assertEquals(2, DanmakuLayoutEngine.computeTrackCount(1000, 24, 2));
+    }
+}
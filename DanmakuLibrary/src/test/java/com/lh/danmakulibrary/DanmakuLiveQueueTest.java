@@ -0,0 +1,109 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用进程内的模拟弹幕服务器向DanmakuLiveQueue发送弹幕
+ */
+public class DanmakuLiveQueueTest {
+
+    private static final long FRAME = 16;
+
+    @Test
+    public void outOfOrderArrivals_areDeliveredInOrderWithBoundedLatency() throws Exception {
+        final long reorderDelay = 300;
+        DanmakuLiveQueue queue = new DanmakuLiveQueue(10000, reorderDelay, 3000);
+        //模拟服务器:弹幕的到达时间比发送时间晚0~200ms,因此到达顺序是乱的
+        Random random = new Random(11);
+        int count = 5000;
+        long[] sendTimes = new long[count];
+        long[] arriveTimes = new long[count];
+        for (int i = 0; i < count; i++) {
+            sendTimes[i] = i * 4;
+            arriveTimes[i] = sendTimes[i] + random.nextInt(200);
+        }
+
+        final ArrayList<Danmaku> delivered = new ArrayList<>();
+        final long[] deliverTimes = new long[count];
+        final long[] now = new long[1];
+        DanmakuLiveQueue.Sink sink = new DanmakuLiveQueue.Sink() {
+            @Override
+            public void onDanmakuDue(Danmaku danmaku) {
+                deliverTimes[delivered.size()] = now[0];
+                delivered.add(danmaku);
+            }
+        };
+        boolean[] sent = new boolean[count];
+        for (now[0] = 0; delivered.size() < count; now[0] += FRAME) {
+            for (int i = 0; i < count; i++) {
+                if (!sent[i] && arriveTimes[i] <= now[0]) {
+                    sent[i] = true;
+                    Danmaku danmaku = new Danmaku();
+                    danmaku.setTime(sendTimes[i]);
+                    assertTrue(queue.offer(danmaku));
+                }
+            }
+            queue.drain(now[0], sink);
+            assertTrue(now[0] < count * 4 + 1000);
+        }
+        for (int i = 0; i < count; i++) {
+            Danmaku danmaku = delivered.get(i);
+            if (i > 0) {
+                assertTrue(danmaku.getTime() >= delivered.get(i - 1).getTime());
+            }
+            assertTrue(deliverTimes[i] - danmaku.getTime() <= reorderDelay + FRAME);
+        }
+        assertEquals(0, queue.getStaleCount());
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void concurrentFeeders_loseNothing() throws Exception {
+        final int feederCount = 4;
+        final int perFeeder = 20000;
+        final DanmakuLiveQueue queue = new DanmakuLiveQueue(feederCount * perFeeder, 0, 1000);
+        Thread[] feeders = new Thread[feederCount];
+        for (int f = 0; f < feederCount; f++) {
+            feeders[f] = new Thread() {
+                @Override
+                public void run() {
+                    ArrayList<Danmaku> batch = new ArrayList<>();
+                    for (int i = 0; i < perFeeder; i++) {
+                        Danmaku danmaku = new Danmaku();
+                        danmaku.setTime(i % 100);
+                        batch.add(danmaku);
+                        if (batch.size() == 50) {
+                            queue.offerAll(batch);
+                            batch.clear();
+                        }
+                    }
+                    queue.offerAll(batch);
+                }
+            };
+            feeders[f].start();
+        }
+        final int[] received = new int[1];
+        DanmakuLiveQueue.Sink sink = new DanmakuLiveQueue.Sink() {
+            @Override
+            public void onDanmakuDue(Danmaku danmaku) {
+                received[0]++;
+            }
+        };
+        long deadline = System.currentTimeMillis() + 10000;
+        while (received[0] < feederCount * perFeeder && System.currentTimeMillis() < deadline) {
+            queue.drain(100, sink);
+        }
+        for (Thread feeder : feeders) {
+            feeder.join();
+        }
+        queue.drain(100, sink);
+        assertEquals(feederCount * perFeeder, received[0]);
+        assertEquals(0, queue.getDroppedCount());
+    }
+}
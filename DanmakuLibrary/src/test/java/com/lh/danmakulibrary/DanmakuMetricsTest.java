@@ -0,0 +1,83 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * DanmakuMetrics 的帧间隔直方图和丢弃原因
+ */
+public class DanmakuMetricsTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void onFrame_fillsHistogramAndIgnoresGaps() throws Exception {
+        DanmakuMetrics metrics = new DanmakuMetrics();
+        long time = 0;
+        metrics.onFrame(time, 0);
+        for (int i = 0; i < 10; i++) {
+            metrics.onFrame(time += 16 * MS, 2 * MS);
+        }
+        metrics.onFrame(time += 40 * MS, 5 * MS);
+        metrics.onFrame(time += 1000 * MS, 0); //暂停
+        metrics.onFrame(time += 16 * MS, 1 * MS);
+
+        DanmakuMetrics.Snapshot snapshot = new DanmakuMetrics.Snapshot();
+        metrics.snapshot(snapshot);
+        assertEquals(14, snapshot.getFrameCount());
+        assertEquals(11, snapshot.getFrameTimeCount(2)); //(12, 17]
+        assertEquals(1, snapshot.getFrameTimeCount(6)); //(34, 50]
+        assertEquals(40 * MS, snapshot.getMaxFrameNanos());
+        assertEquals(5 * MS, snapshot.getMaxLagNanos());
+        assertEquals(1 * MS, snapshot.getLagNanos());
+        assertEquals(17, DanmakuMetrics.getBucketBound(2));
+        assertEquals(Integer.MAX_VALUE, DanmakuMetrics.getBucketBound(DanmakuMetrics.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void engine_countsDropsByReason() throws Exception {
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        String[] contents = {"a", "a", "blocked", "b", "c", "d"};
+        for (String content : contents) {
+            Danmaku danmaku = new Danmaku();
+            danmaku.setTime(1000);
+            danmaku.setType(DanmakuLayoutEngine.TYPE_TOP);
+            danmaku.setContent(content);
+            danmakus.add(danmaku);
+        }
+        DanmakuLayoutEngine engine = new DanmakuLayoutEngine(new DanmakuLayoutEngine.Callback() {
+            @Override
+            public DanmakuLayoutEngine.Item obtainItem(DanmakuStore store, int index) {
+                return new DanmakuLayoutEngine.Item(new DanmakuStore.Item().moveTo(store, index), 10);
+            }
+
+            @Override
+            public void onItemRemoved(DanmakuLayoutEngine.Item item) {
+            }
+        });
+        engine.setViewportWidth(1000);
+        engine.setTrackCount(2);
+        engine.setMaxDanmakuCount(3);
+        engine.setMerger(new DanmakuMerger());
+        engine.setFilter(new DanmakuFilter.Builder().addKeyword("block").build());
+        DanmakuMetrics metrics = new DanmakuMetrics();
+        engine.setMetrics(metrics);
+        engine.addDue(new DanmakuTimeline(danmakus), 1000);
+
+        //a和b占满两条轨道,重复的a被合并,c和d没有空闲的轨道
+        assertEquals(2, metrics.getAdmittedCount());
+        assertEquals(1, metrics.getDroppedCount(DanmakuMetrics.DROP_MERGED));
+        assertEquals(1, metrics.getDroppedCount(DanmakuMetrics.DROP_FILTERED));
+        assertEquals(2, metrics.getDroppedCount(DanmakuMetrics.DROP_NO_TRACK));
+        assertEquals(0, metrics.getDroppedCount(DanmakuMetrics.DROP_OVER_BUDGET));
+
+        DanmakuMetrics.Snapshot snapshot = new DanmakuMetrics.Snapshot();
+        snapshot.fillEngine(engine, 1000);
+        assertEquals(2, snapshot.getTrackCount());
+        assertEquals(1, snapshot.getTrackItemCount(0));
+        assertEquals(1, snapshot.getTrackItemCount(1));
+    }
+}
@@ -0,0 +1,128 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DanmakuMultiTimeline 按时间合并多个数据源
+ */
+public class DanmakuMultiTimelineTest {
+
+    private static ArrayList<Danmaku> createDanmakus(Random random, String prefix, int count) {
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Danmaku danmaku = new Danmaku();
+            danmaku.setTime(random.nextInt(100000));
+            danmaku.setType(DanmakuLayoutEngine.TYPE_SCROLL);
+            danmaku.setContent(prefix + i);
+            danmakus.add(danmaku);
+        }
+        Collections.sort(danmakus);
+        return danmakus;
+    }
+
+    @Test
+    public void pollDue_mergesSourcesByTime() throws Exception {
+        Random random = new Random(5);
+        DanmakuMultiTimeline timeline = new DanmakuMultiTimeline();
+        for (int i = 0; i < 5; i++) {
+            timeline.add(new DanmakuTimeline(createDanmakus(random, "s" + i, 200 + i * 50)));
+        }
+        assertEquals(1500, timeline.size());
+        long last = Long.MIN_VALUE;
+        int count = 0;
+        for (long time = 0; time <= 100000; time += 16) {
+            int index;
+            while ((index = timeline.pollDue(time)) >= 0) {
+                long danmakuTime = timeline.getPolledStore().getTime(index);
+                assertTrue(danmakuTime <= time);
+                assertTrue(danmakuTime >= last);
+                last = danmakuTime;
+                count++;
+            }
+        }
+        assertEquals(1500, count);
+    }
+
+    @Test
+    public void addRemove_duringPlayback() throws Exception {
+        Random random = new Random(6);
+        DanmakuTimeline main = new DanmakuTimeline(createDanmakus(random, "main", 100));
+        DanmakuTimeline extra = new DanmakuTimeline(createDanmakus(random, "extra", 100));
+        DanmakuMultiTimeline timeline = new DanmakuMultiTimeline();
+        timeline.add(main);
+        while (timeline.pollDue(50000) >= 0) {
+            assertTrue(timeline.getPolledStore() == main.getStore());
+        }
+        extra.seekTo(50001);
+        timeline.add(extra);
+        int fromExtra = 0;
+        int index;
+        while ((index = timeline.pollDue(100000)) >= 0) {
+            assertTrue(timeline.getPolledStore().getTime(index) > 50000);
+            if (timeline.getPolledStore() == extra.getStore()) {
+                fromExtra++;
+            }
+        }
+        assertEquals(100 - extra.lowerBound(50001), fromExtra);
+
+        assertTrue(timeline.remove(extra));
+        assertFalse(timeline.remove(extra));
+        timeline.reset();
+        while (timeline.pollDue(100000) >= 0) {
+            assertTrue(timeline.getPolledStore() == main.getStore());
+        }
+    }
+
+    @Test
+    public void engine_layoutMatchesConcatenatedSource() throws Exception {
+        Random random = new Random(7);
+        ArrayList<Danmaku> all = new ArrayList<>();
+        DanmakuMultiTimeline multi = new DanmakuMultiTimeline();
+        for (int i = 0; i < 3; i++) {
+            ArrayList<Danmaku> danmakus = createDanmakus(random, "s" + i, 300);
+            all.addAll(danmakus);
+            multi.add(new DanmakuTimeline(danmakus));
+        }
+        Collections.sort(all); //时间相同时保持数据源的顺序,与合并的结果一致
+        DanmakuTimeline single = new DanmakuTimeline(all);
+
+        DanmakuLayoutEngine multiEngine = createEngine();
+        DanmakuLayoutEngine singleEngine = createEngine();
+        multiEngine.seekTo(multi, 30000);
+        singleEngine.seekTo(single, 30000);
+        for (long time = 30000; time < 60000; time += 16) {
+            multiEngine.addDue(multi, time);
+            multiEngine.layout(time);
+            singleEngine.addDue(single, time);
+            singleEngine.layout(time);
+            assertEquals(singleEngine.getItemCount(), multiEngine.getItemCount());
+        }
+        for (int i = 0; i < singleEngine.getTrackCount(); i++) {
+            assertEquals(singleEngine.getTrackItemCount(i), multiEngine.getTrackItemCount(i));
+        }
+    }
+
+    private static DanmakuLayoutEngine createEngine() {
+        DanmakuLayoutEngine engine = new DanmakuLayoutEngine(new DanmakuLayoutEngine.Callback() {
+            @Override
+            public DanmakuLayoutEngine.Item obtainItem(DanmakuStore store, int index) {
+                return new DanmakuLayoutEngine.Item(new DanmakuStore.Item().moveTo(store, index), 100);
+            }
+
+            @Override
+            public void onItemRemoved(DanmakuLayoutEngine.Item item) {
+            }
+        });
+        engine.setViewportWidth(1000);
+        engine.setTrackCount(8);
+        return engine;
+    }
+}
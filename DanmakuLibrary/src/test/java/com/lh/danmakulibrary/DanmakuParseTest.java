@@ -0,0 +1,90 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Danmaku.parse 逐字符扫描与原先基于split的实现结果一致
+ */
+public class DanmakuParseTest {
+
+    //原先的实现
+    private static Danmaku parseBySplit(String str) {
+        Danmaku danmaku = new Danmaku();
+        String[] strs = str.split(",");
+        danmaku.setTime((long) (Float.parseFloat(strs[0]) * 1000L));
+        danmaku.setType(Integer.parseInt(strs[1]));
+        danmaku.setTextSize(Integer.parseInt(strs[2]));
+        int color;
+        try {
+            color = Integer.parseInt(strs[3]) | 0xFF000000;
+        } catch (NumberFormatException e) {
+            color = 0xFFFFFFFF;
+        }
+        danmaku.setTextColor(color);
+        return danmaku;
+    }
+
+    private static void assertSameAsSplit(String attr) {
+        Danmaku expected = parseBySplit(attr);
+        Danmaku actual = Danmaku.parse(attr);
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getTextSize(), actual.getTextSize());
+        assertEquals(expected.getTextColor(), actual.getTextColor());
+        assertEquals(expected.getTime(), actual.getTime(), 1); //float解析存在1ms以内的误差
+    }
+
+    @Test
+    public void parse_matchesSplitOnGeneratedAttributes() throws Exception {
+        Random random = new Random(42);
+        int[] sizes = {12, 16, 18, 25, 36, 45, 64};
+        int[] types = {1, 1, 1, 1, 4, 5};
+        for (int i = 0; i < 2000; i++) {
+            assertSameAsSplit((random.nextInt(7200000) / 1000f) + "," + types[random.nextInt(types.length)] + ","
+                    + sizes[random.nextInt(sizes.length)] + "," + random.nextInt(0x1000000) + ","
+                    + (1422201084 + random.nextInt(100000000)) + ",0,"
+                    + Integer.toHexString(random.nextInt()) + "," + (757076900L + i));
+        }
+    }
+
+    @Test
+    public void parse_matchesSplitOnEdgeCases() throws Exception {
+        String[] attrs = {
+                "0,1,25,16777215,1422201084,0,abc,1",
+                "-1.5,1,25,16777215,1422201084,0,abc,1", //负数时间
+                "12.3456789,1,25,0,1422201084,0,abc,1",
+                "3,1,25,-1,1422201084,0,abc,1", //负数颜色
+                "3,1,25,-16777216,1422201084,0,abc,1",
+                "3,1,25,-2147483648,1422201084,0,abc,1",
+                "3,1,25,+255,1422201084,0,abc,1",
+                "3,1,25,2147483647,1422201084,0,abc,1",
+                "3,1,25,2147483648,1422201084,0,abc,1", //超出int范围
+                "3,1,25,99999999999999999999,1422201084,0,abc,1",
+                "3,1,25,,1422201084,0,abc,1", //缺少颜色
+                "3,1,25,-,1422201084,0,abc,1",
+                "3,1,25,0xFFFFFF,1422201084,0,abc,1",
+                "3,1,25,16777215", //缺少后面的属性
+        };
+        for (String attr : attrs) {
+            assertSameAsSplit(attr);
+        }
+    }
+
+    @Test
+    public void parse_readsAllFields() throws Exception {
+        Danmaku danmaku = Danmaku.parse("23.826000213623,1,25,16777215,1422201084,0,057075e9,757076900");
+        assertEquals(23826, danmaku.getTime());
+        assertEquals(0xFFFFFFFF, danmaku.getTextColor());
+        assertEquals(1422201084L, danmaku.getSendTime());
+        assertEquals(0, danmaku.getPoolId());
+        assertEquals("057075e9", danmaku.getUserHash());
+        assertEquals(757076900L, danmaku.getDanmakuId());
+
+        danmaku = Danmaku.parse("1.5,1,25"); //split会越界,扫描时缺少的颜色使用白色
+        assertEquals(1500, danmaku.getTime());
+        assertEquals(0xFFFFFFFF, danmaku.getTextColor());
+    }
+}
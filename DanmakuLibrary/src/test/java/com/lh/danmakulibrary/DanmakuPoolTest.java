@@ -0,0 +1,40 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DanmakuPool 的容量上限和统计
+ */
+public class DanmakuPoolTest {
+
+    @Test
+    public void prewarmAndBounds_areCounted() throws Exception {
+        DanmakuPool<Object> pool = new DanmakuPool<>(2, new DanmakuPool.Factory<Object>() {
+            @Override
+            public Object create() {
+                return new Object();
+            }
+        });
+        pool.prewarm(5);
+        assertEquals(2, pool.size());
+
+        Object a = pool.acquire();
+        Object b = pool.acquire();
+        Object c = pool.acquire();
+        assertEquals(2, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(3, pool.getHighWaterCount());
+
+        assertTrue(pool.release(a));
+        assertTrue(pool.release(b));
+        assertFalse(pool.release(c));
+        assertEquals(1, pool.getDropCount());
+        assertEquals(0, pool.getInUseCount());
+        assertSame(b, pool.acquire());
+    }
+}
@@ -0,0 +1,71 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DanmakuRingBuffer 多生产者单消费者
+ */
+public class DanmakuRingBufferTest {
+
+    @Test
+    public void offerPoll_keepsOrderAndBounds() throws Exception {
+        DanmakuRingBuffer<Integer> buffer = new DanmakuRingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(1, buffer.getDroppedCount());
+        assertEquals(0, (int) buffer.poll());
+        assertTrue(buffer.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, (int) buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void producers_noLostOrReorderedPerProducer() throws Exception {
+        final int producerCount = 4;
+        final int perProducer = 250000;
+        final DanmakuRingBuffer<Integer> buffer = new DanmakuRingBuffer<>(64);
+        Thread[] producers = new Thread[producerCount];
+        for (int p = 0; p < producerCount; p++) {
+            final int base = p * perProducer;
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!buffer.offer(base + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        int[] next = new int[producerCount]; //每个生产者下一个应收到的值
+        int received = 0;
+        while (received < producerCount * perProducer) {
+            Integer value = buffer.poll();
+            if (value == null) {
+                Thread.yield();
+                continue;
+            }
+            int producer = value / perProducer;
+            assertEquals(next[producer], value % perProducer);
+            next[producer]++;
+            received++;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(buffer.poll());
+    }
+}
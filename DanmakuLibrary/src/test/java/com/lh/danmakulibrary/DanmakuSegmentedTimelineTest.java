@@ -0,0 +1,200 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DanmakuSegmentedTimeline 分段加载、移除和seek预加载
+ */
+public class DanmakuSegmentedTimelineTest {
+
+    private static final long SEGMENT = 10000;
+    private static final int PER_SEGMENT = 50;
+
+    //每个分段均匀生成PER_SEGMENT条弹幕
+    private static class SyntheticLoader implements DanmakuSegmentedTimeline.SegmentLoader {
+
+        @Override
+        public DanmakuStore loadSegment(int segment, long fromTime, long toTime) throws Exception {
+            ArrayList<Danmaku> danmakus = new ArrayList<>();
+            for (int i = 0; i < PER_SEGMENT; i++) {
+                Danmaku danmaku = new Danmaku();
+                danmaku.setTime(fromTime + i * (toTime - fromTime) / PER_SEGMENT);
+                danmaku.setType(DanmakuLayoutEngine.TYPE_SCROLL);
+                danmaku.setContent(segment + "-" + i);
+                danmakus.add(danmaku);
+            }
+            return DanmakuStore.create(danmakus);
+        }
+    }
+
+    //等待加载线程完成并加入已加载的分段
+    private static void awaitLoaded(DanmakuSegmentedTimeline timeline, DanmakuMultiTimeline sources,
+                                    long time, int segment) throws InterruptedException {
+        for (int i = 0; i < 500 && !timeline.isLoaded(segment); i++) {
+            Thread.sleep(2);
+            timeline.update(time, sources);
+        }
+        assertTrue(timeline.isLoaded(segment));
+    }
+
+    @Test
+    public void update_playsEverySegmentInOrderWithBoundedResidency() throws Exception {
+        SyntheticLoader loader = new SyntheticLoader();
+        DanmakuSegmentedTimeline timeline = new DanmakuSegmentedTimeline(loader, SEGMENT * 8, SEGMENT);
+        DanmakuMultiTimeline sources = new DanmakuMultiTimeline();
+        assertEquals(8, timeline.getSegmentCount());
+
+        int polled = 0;
+        long last = -1;
+        for (long time = 0; time < SEGMENT * 8; time += 100) {
+            timeline.update(time, sources);
+            awaitLoaded(timeline, sources, time, timeline.segmentOf(time));
+            int index;
+            while ((index = sources.pollDue(time)) >= 0) {
+                long t = sources.getPolledStore().getTime(index);
+                assertTrue(t >= last);
+                last = t;
+                polled++;
+            }
+            assertTrue(timeline.getResidentCount() <= 3); //keepBehind + 当前 + preloadAhead
+        }
+        assertEquals(PER_SEGMENT * 8, polled);
+        assertTrue(timeline.getEvictedCount() > 0);
+        timeline.release(sources);
+        assertEquals(0, timeline.getResidentCount());
+        assertEquals(0, sources.getSourceCount());
+    }
+
+    @Test
+    public void seekTo_loadsTargetSegmentAndEvictsOldOnes() throws Exception {
+        SyntheticLoader loader = new SyntheticLoader();
+        DanmakuSegmentedTimeline timeline = new DanmakuSegmentedTimeline(loader, SEGMENT * 20, SEGMENT);
+        DanmakuMultiTimeline sources = new DanmakuMultiTimeline();
+        timeline.update(0, sources);
+        awaitLoaded(timeline, sources, 0, 0);
+        awaitLoaded(timeline, sources, 0, 1);
+
+        long target = SEGMENT * 15 + SEGMENT / 2;
+        timeline.seekTo(target, sources);
+        awaitLoaded(timeline, sources, target, 15);
+        awaitLoaded(timeline, sources, target, 14);
+        assertTrue(!timeline.isLoaded(0) && !timeline.isLoaded(1));
+        assertTrue(timeline.getResidentCount() <= 3);
+
+        //DanmakuLayoutEngine.seekTo会把游标定位到target之前
+        sources.seekTo(target);
+        int index = sources.pollDue(Long.MAX_VALUE - 1);
+        assertTrue(sources.getPolledStore().getTime(index) >= target);
+        timeline.release(sources);
+    }
+
+    @Test
+    public void update_newSegmentSkipsAlreadyPlayedDanmakus() throws Exception {
+        SyntheticLoader loader = new SyntheticLoader();
+        DanmakuSegmentedTimeline timeline = new DanmakuSegmentedTimeline(loader, SEGMENT * 4, SEGMENT);
+        timeline.setWindow(0, 0);
+        DanmakuMultiTimeline sources = new DanmakuMultiTimeline();
+        timeline.update(SEGMENT + 5000, sources);
+        awaitLoaded(timeline, sources, SEGMENT + 5000, 1);
+        int index = sources.pollDue(Long.MAX_VALUE - 1);
+        assertTrue(sources.getPolledStore().getTime(index) >= SEGMENT + 5000);
+        timeline.release(sources);
+    }
+
+    private static byte[] createXml(int segment) {
+        StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><i>");
+        //包含相邻分段的弹幕,加载时应该被去掉
+        for (int i = -2; i < PER_SEGMENT + 2; i++) {
+            long time = segment * SEGMENT + i * SEGMENT / PER_SEGMENT;
+            builder.append("<d p=\"").append(time / 1000f).append(",1,25,16777215,1422201084,0,abc,").append(i)
+                    .append("\">弹幕").append(i).append("</d>");
+        }
+        return builder.append("</i>").toString().getBytes();
+    }
+
+    private static byte[] compress(byte[] data, boolean gzip) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = gzip ? new GZIPOutputStream(bytes)
+                : new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, true)); //raw deflate
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void streamSegmentLoader_decompressesAndTrimsToSegment() throws Exception {
+        final byte[] gzip = compress(createXml(2), true);
+        final byte[] deflate = compress(createXml(3), false);
+        DanmakuSegmentedTimeline.StreamSegmentLoader loader =
+                new DanmakuSegmentedTimeline.StreamSegmentLoader(new BiliBiliDanmakuParser()) {
+                    @Override
+                    protected InputStream openSegment(int segment) {
+                        return new ByteArrayInputStream(segment == 2 ? gzip : deflate);
+                    }
+                };
+        DanmakuStore store = loader.loadSegment(2, SEGMENT * 2, SEGMENT * 3);
+        assertEquals(PER_SEGMENT, store.size());
+        assertEquals(SEGMENT * 2, store.getTime(0));
+        assertTrue(store.getTime(store.size() - 1) < SEGMENT * 3);
+
+        store = loader.loadSegment(3, SEGMENT * 3, SEGMENT * 4);
+        assertEquals(PER_SEGMENT, store.size());
+        assertEquals(SEGMENT * 3, store.getTime(0));
+    }
+
+    @Test
+    public void loadFailure_isReportedToListener() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("network");
+        DanmakuSegmentedTimeline timeline = new DanmakuSegmentedTimeline(new DanmakuSegmentedTimeline.SegmentLoader() {
+            @Override
+            public DanmakuStore loadSegment(int segment, long fromTime, long toTime) throws Exception {
+                throw failure;
+            }
+        }, SEGMENT * 2, SEGMENT);
+        final Exception[] reported = new Exception[1];
+        final boolean[] loaded = new boolean[1];
+        timeline.setOnSegmentLoadedListener(new DanmakuSegmentedTimeline.OnSegmentLoadedListener() {
+            @Override
+            public void onSegmentLoaded(int segment) {
+                loaded[0] = true;
+            }
+
+            @Override
+            public void onSegmentLoadFailed(int segment, Exception e) {
+                if (segment == 0) {
+                    reported[0] = e;
+                }
+            }
+        });
+        DanmakuMultiTimeline sources = new DanmakuMultiTimeline();
+        timeline.update(0, sources);
+        for (int i = 0; i < 500 && reported[0] == null; i++) {
+            Thread.sleep(2);
+        }
+        assertTrue(reported[0] == failure);
+        assertTrue(!loaded[0]);
+        timeline.release(sources);
+    }
+
+    @Test
+    public void segmentOf_clampsToLastSegment() throws Exception {
+        DanmakuSegmentedTimeline timeline = new DanmakuSegmentedTimeline(new SyntheticLoader(), SEGMENT * 3, SEGMENT);
+        assertEquals(0, timeline.segmentOf(-1));
+        assertEquals(2, timeline.segmentOf(SEGMENT * 3 - 1));
+        assertEquals(2, timeline.segmentOf(SEGMENT * 3));
+        assertEquals(2, timeline.segmentOf(Long.MAX_VALUE));
+        assertTrue(!timeline.isLoaded(timeline.segmentOf(SEGMENT * 10)));
+    }
+}
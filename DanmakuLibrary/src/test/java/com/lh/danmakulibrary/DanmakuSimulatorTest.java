@@ -0,0 +1,80 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DanmakuSimulator 回放的统计
+ */
+public class DanmakuSimulatorTest {
+
+    private static final DanmakuLayoutPlan.WidthMeasurer MEASURER = new DanmakuLayoutPlan.WidthMeasurer() {
+        @Override
+        public float measureWidth(DanmakuStore store, int index) {
+            return store.getContent(index).length() * 20;
+        }
+    };
+
+    private static ArrayList<Danmaku> createDanmakus(int count, long duration) {
+        Random random = new Random(3);
+        int[] types = {1, 1, 1, 1, 4, 5};
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Danmaku danmaku = new Danmaku();
+            danmaku.setTime(random.nextInt((int) duration));
+            danmaku.setType(types[random.nextInt(types.length)]);
+            danmaku.setContent(i % 10 == 0 ? "233" : "danmaku" + random.nextInt(100000));
+            danmakus.add(danmaku);
+        }
+        Collections.sort(danmakus);
+        return danmakus;
+    }
+
+    @Test
+    public void run_accountsForEveryDanmaku() throws Exception {
+        ArrayList<Danmaku> danmakus = createDanmakus(5000, 120000);
+        DanmakuSimulator simulator = new DanmakuSimulator(1280, 720, 40, MEASURER);
+        simulator.getEngine().setFilter(new DanmakuFilter.Builder().addKeyword("danmaku1").build());
+        simulator.getEngine().setMerger(new DanmakuMerger());
+        DanmakuSimulator.Report report = simulator.run(danmakus);
+
+        assertEquals(17, report.getTrackCount());
+        assertEquals(5000, report.getTotalCount());
+        assertEquals(report.getTotalCount(), report.getAdmittedCount() + report.getFilteredCount()
+                + report.getMergedCount() + report.getDroppedCount());
+        assertTrue(report.getFilteredCount() > 0);
+        assertTrue(report.getMergedCount() > 0);
+        assertTrue(report.getDroppedCount() > 0);
+        assertTrue(report.getPeakItemCount() <= simulator.getEngine().getMaxDanmakuCount());
+        assertTrue(report.getAverageTrackUtilization() > 0 && report.getAverageTrackUtilization() <= 1);
+        assertEquals(0, report.getOverlapViolations());
+    }
+
+    @Test
+    public void run_reportsOverlapWhenNotAvoided() throws Exception {
+        ArrayList<Danmaku> danmakus = createDanmakus(3000, 60000);
+        DanmakuSimulator simulator = new DanmakuSimulator(1280, 720, 40, MEASURER);
+        DanmakuSimulator.Report avoided = simulator.run(danmakus);
+        simulator.getEngine().setAvoidOverLapping(false);
+        DanmakuSimulator.Report overlapped = simulator.run(danmakus);
+
+        assertEquals(0, avoided.getOverlapViolations());
+        assertTrue(overlapped.getOverlapViolations() > 0);
+    }
+
+    @Test
+    public void run_rangeCountsOnlyDanmakuInRange() throws Exception {
+        ArrayList<Danmaku> danmakus = createDanmakus(2000, 100000);
+        DanmakuTimeline timeline = new DanmakuTimeline(danmakus);
+        DanmakuSimulator simulator = new DanmakuSimulator(1280, 720, 40, MEASURER);
+        DanmakuSimulator.Report report = simulator.run(timeline, 50000, 60000);
+        assertEquals(timeline.lowerBound(60001) - timeline.lowerBound(50000), report.getTotalCount());
+        assertEquals(60000 / 16 - 50000 / 16 + 1, report.getFrameCount(), 1);
+    }
+}
@@ -0,0 +1,82 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * DanmakuStore 原地归并和Item快照
+ */
+public class DanmakuStoreTest {
+
+    private static Danmaku create(long time, int id) {
+        Danmaku danmaku = new Danmaku();
+        danmaku.setTime(time);
+        danmaku.setContent("弹幕" + id);
+        danmaku.setSendTime(1422201084 + id);
+        danmaku.setPoolId(id % 3);
+        danmaku.setUserHash("user" + id % 7);
+        danmaku.setDanmakuId(id);
+        return danmaku;
+    }
+
+    @Test
+    public void merge_matchesStableSortOfAllBatches() throws Exception {
+        Random random = new Random(5);
+        DanmakuStore store = DanmakuStore.create(new ArrayList<Danmaku>());
+        ArrayList<Danmaku> expected = new ArrayList<>();
+        int id = 0;
+        for (int round = 0; round < 60; round++) {
+            ArrayList<Danmaku> batch = new ArrayList<>();
+            boolean append = round % 3 == 0; //一部分批次晚于已有的全部弹幕,走追加
+            long base = append ? round * 1000 : 0;
+            for (int i = random.nextInt(40); i >= 0; i--) {
+                batch.add(create(base + random.nextInt(append ? 1000 : 60000), id++));
+            }
+            Collections.sort(batch);
+            expected.addAll(batch);
+            Collections.sort(expected); //稳定排序:时间相同时先加入的在前
+            store.merge(batch);
+            assertEquals(expected.size(), store.size());
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            Danmaku danmaku = expected.get(i);
+            assertEquals(danmaku.getTime(), store.getTime(i));
+            assertEquals(danmaku.getContent(), store.getContent(i));
+            assertEquals(danmaku.getUserHash(), store.getUserHash(i));
+            assertEquals(danmaku.getSendTime(), store.getSendTime(i));
+            assertEquals(danmaku.getPoolId(), store.getPoolId(i));
+            assertEquals(danmaku.getDanmakuId(), store.getDanmakuId(i));
+        }
+    }
+
+    @Test
+    public void item_isSnapshotOfRow() throws Exception {
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        danmakus.add(create(100, 1));
+        danmakus.add(create(200, 2));
+        DanmakuStore store = DanmakuStore.create(danmakus);
+        DanmakuStore.Item item = new DanmakuStore.Item().moveTo(store, 1);
+
+        ArrayList<Danmaku> batch = new ArrayList<>();
+        batch.add(create(50, 3));
+        store.merge(batch); //原来的第1行移到第2行
+        assertEquals(200, item.getTime());
+        assertEquals("弹幕2", item.getContent());
+        assertEquals(1422201086, item.getSendTime());
+        assertEquals(2, item.getPoolId());
+        assertEquals(2, item.getDanmakuId());
+        assertEquals("user2", item.getUserHash());
+
+        item.setContent("changed"); //快照可以修改,不影响数据源
+        item.setDanmakuId(9);
+        assertEquals("changed", item.getContent());
+        assertEquals(9, item.getDanmakuId());
+        assertEquals("弹幕2", store.getContent(2));
+        assertEquals("弹幕3", item.moveTo(store, 0).getContent());
+    }
+}
@@ -0,0 +1,123 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DanmakuTextArena 的去重、编码和延迟解码
+ */
+public class DanmakuTextArenaTest {
+
+    private static final String[] TEXTS = {"+1", "", "233333", "我从未见过如此厚颜无耻之猴", "ｗｗｗ！",
+            "안녕하세요", "émoji😂", "lone\uD83D", "+1", "233333"};
+
+    @Test
+    public void intern_dedupesAndRoundTrips() throws Exception {
+        DanmakuTextArena arena = new DanmakuTextArena();
+        int[] ids = new int[TEXTS.length];
+        for (int i = 0; i < TEXTS.length; i++) {
+            ids[i] = arena.intern(TEXTS[i]);
+        }
+        assertEquals(0, arena.intern(null));
+        assertEquals(ids[0], ids[8]);
+        assertEquals(ids[2], ids[9]);
+        assertEquals(TEXTS.length - 2 + 1, arena.size()); //加上表示null的第0项
+        for (int i = 0; i < TEXTS.length; i++) {
+            assertEquals(new String(TEXTS[i].getBytes("UTF-8"), "UTF-8"), arena.get(ids[i]));
+        }
+        assertEquals(0, arena.decodedCount());
+        int expectedBytes = 0;
+        for (int i = 0; i < TEXTS.length - 2; i++) {
+            expectedBytes += TEXTS[i].getBytes("UTF-8").length;
+        }
+        assertEquals(expectedBytes, arena.byteSize());
+    }
+
+    @Test
+    public void intern_growsPastInitialCapacity() throws Exception {
+        DanmakuTextArena arena = new DanmakuTextArena();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 5000; i++) {
+                assertEquals(i + 1, arena.intern("弹幕" + i));
+            }
+        }
+        assertEquals(5001, arena.size());
+        assertEquals("弹幕4999", arena.get(5000));
+    }
+
+    @Test
+    public void load_decodesOnlyDisplayedDanmakus() throws Exception {
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Danmaku danmaku = new Danmaku();
+            danmaku.setTime(i);
+            danmaku.setContent(i % 2 == 0 ? "+1" : "text" + i);
+            danmakus.add(danmaku);
+        }
+        DanmakuStore store = DanmakuStore.create(danmakus);
+        assertEquals("text1", store.getContent(1)); //临时解码
+        assertEquals(0, store.getDecodedTextCount());
+
+        DanmakuStore.Item item = new DanmakuStore.Item();
+        assertEquals("+1", item.moveTo(store, 0).getContent());
+        assertTrue(item.getContent() == item.moveTo(store, 2).getContent()); //重复的文本共用一个缓存
+        assertEquals("text3", item.moveTo(store, 3).getContent());
+        assertEquals(2, store.getDecodedTextCount());
+        assertTrue(store.getContent(3) == item.getContent());
+    }
+
+    @Test
+    public void load_cacheIsBounded() throws Exception {
+        DanmakuTextArena arena = new DanmakuTextArena();
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("弹幕" + i, arena.load(arena.intern("弹幕" + i)));
+        }
+        assertTrue(arena.decodedCount() <= 1024);
+        assertEquals("弹幕1", arena.get(2));
+    }
+
+    @Test
+    public void hashAndEquals_matchEncodedBytes() throws Exception {
+        DanmakuTextArena arena = new DanmakuTextArena();
+        DanmakuTextArena other = new DanmakuTextArena();
+        other.intern("padding");
+        for (String text : TEXTS) {
+            int id = arena.intern(text);
+            int otherId = other.intern(text);
+            byte[] bytes = text.getBytes("UTF-8");
+            assertEquals(DanmakuTextArena.hash(bytes, 0, bytes.length), DanmakuTextArena.hash(text));
+            assertEquals(DanmakuTextArena.hash(text), arena.hash(id));
+            assertTrue(arena.equals(id, text));
+            assertTrue(arena.equals(id, other, otherId));
+            assertTrue(!arena.equals(id, text + "x"));
+            assertTrue(!arena.equals(id, other, 1));
+        }
+        byte[] invalid = {(byte) 0xE5, (byte) 0xBC, 'a', (byte) 0xFF};
+        assertEquals(1 << DanmakuTextArena.LENGTH_SHIFT | 0xFFFD, DanmakuTextArena.decodeAt(invalid, 0, 4));
+        assertEquals(1 << DanmakuTextArena.LENGTH_SHIFT | 'a', DanmakuTextArena.decodeAt(invalid, 2, 4));
+    }
+
+    @Test
+    public void cachedBytes_rebuildSameArena() throws Exception {
+        DanmakuTextArena arena = new DanmakuTextArena();
+        for (String text : TEXTS) {
+            arena.intern(text);
+        }
+        int count = arena.size();
+        DanmakuTextArena copy = new DanmakuTextArena(Arrays.copyOf(arena.bytes(), arena.byteSize()),
+                Arrays.copyOf(arena.offsets(), count + 1), count);
+        for (int i = 1; i < count; i++) {
+            assertEquals(arena.get(i), copy.get(i));
+        }
+        for (int i = 0; i < TEXTS.length; i++) {
+            assertEquals(arena.intern(TEXTS[i]), copy.intern(TEXTS[i])); //从缓存读入后去重仍然有效
+        }
+        assertEquals(count, copy.size());
+        assertEquals(count, copy.intern("new"));
+    }
+}
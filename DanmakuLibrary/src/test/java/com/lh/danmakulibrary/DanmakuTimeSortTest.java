@@ -0,0 +1,95 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DanmakuTimeSort 的稳定性和 BiliBiliDanmakuParser.parseParallel 与单线程解析的一致性
+ */
+public class DanmakuTimeSortTest {
+
+    private static ArrayList<Danmaku> createDanmakus(Random random, int count, long range) {
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Danmaku danmaku = new Danmaku();
+            danmaku.setTime((long) (random.nextDouble() * range) - range / 4); //包含负数
+            danmaku.setContent(String.valueOf(i));
+            danmakus.add(danmaku);
+        }
+        return danmakus;
+    }
+
+    @Test
+    public void sort_isStableAndMatchesCollectionsSort() throws Exception {
+        Random random = new Random(11);
+        long[] ranges = {1, 20, 1000, 7200000, Long.MAX_VALUE / 2};
+        int[] counts = {0, 1, 10, 33, 5000};
+        for (long range : ranges) {
+            for (int count : counts) {
+                ArrayList<Danmaku> expected = createDanmakus(random, count, range);
+                ArrayList<Danmaku> actual = new ArrayList<>(expected);
+                Collections.sort(expected); //TimSort是稳定的,compareTo在相同时间时返回0
+                DanmakuTimeSort.sort(actual);
+                for (int i = 0; i < count; i++) {
+                    assertTrue(expected.get(i) == actual.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void compareTo_returnsZeroForSameTime() throws Exception {
+        Danmaku a = new Danmaku();
+        Danmaku b = new Danmaku();
+        a.setTime(100);
+        b.setTime(100);
+        assertEquals(0, a.compareTo(b));
+        assertEquals(0, b.compareTo(a));
+        b.setTime(101);
+        assertEquals(-1, a.compareTo(b));
+        assertEquals(1, b.compareTo(a));
+    }
+
+    private static byte[] createXml(Random random, int count) throws Exception {
+        StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><i>"
+                + "<chatserver>chat.bilibili.com</chatserver><chatid>1</chatid><maxlimit>3000</maxlimit>\n");
+        String[] contents = {"+1", "233333", "a &amp; b", "&lt;d p=\"1\"&gt;", "弹幕"};
+        for (int i = 0; i < count; i++) {
+            builder.append("<d p=\"").append(random.nextInt(60000) / 100f).append(",1,25,16777215,1422201084,0,abc,")
+                    .append(i).append("\">").append(contents[random.nextInt(contents.length)]).append(i).append("</d>\n");
+        }
+        return builder.append("</i>").toString().getBytes("UTF-8");
+    }
+
+    @Test
+    public void parseParallel_matchesSequentialParse() throws Exception {
+        byte[] xml = createXml(new Random(3), 40000); //约2.5MB,分成多块
+        BiliBiliDanmakuParser parser = new BiliBiliDanmakuParser();
+        ArrayList<Danmaku> expected = parser.parse(new ByteArrayInputStream(xml));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int chunkCount : new int[]{1, 3, 16}) {
+                ArrayList<Danmaku> actual = parser.parseParallel(xml, chunkCount, executor);
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).getTime(), actual.get(i).getTime());
+                    assertEquals(expected.get(i).getContent(), actual.get(i).getContent());
+                    assertEquals(expected.get(i).getDanmakuId(), actual.get(i).getDanmakuId());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(expected.size(), parser.parseParallel(new ByteArrayInputStream(xml), 2).size());
+        assertEquals(0, parser.parseParallel(new ByteArrayInputStream("<i></i>".getBytes()), 2).size());
+    }
+}
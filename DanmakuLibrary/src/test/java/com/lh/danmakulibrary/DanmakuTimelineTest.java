@@ -0,0 +1,117 @@
+package com.lh.danmakulibrary;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * DanmakuTimeline 的二分定位、游标和区间遍历
+ */
+public class DanmakuTimelineTest {
+
+    private static Danmaku createDanmaku(long time) {
+        Danmaku danmaku = new Danmaku();
+        danmaku.setTime(time);
+        danmaku.setType(DanmakuLayoutEngine.TYPE_SCROLL);
+        danmaku.setContent("d" + time);
+        return danmaku;
+    }
+
+    private static DanmakuTimeline createTimeline(long... times) {
+        ArrayList<Danmaku> danmakus = new ArrayList<>();
+        for (long time : times) {
+            danmakus.add(createDanmaku(time));
+        }
+        return new DanmakuTimeline(danmakus);
+    }
+
+    private static ArrayList<Long> pollAll(DanmakuTimeline timeline, long currentTime) {
+        ArrayList<Long> times = new ArrayList<>();
+        int index;
+        while ((index = timeline.pollDue(currentTime)) >= 0) {
+            times.add(timeline.getStore().getTime(index));
+        }
+        return times;
+    }
+
+    @Test
+    public void lowerBound_findsFirstDanmakuNotBeforeTime() throws Exception {
+        DanmakuTimeline timeline = createTimeline(0, 100, 100, 200, 300);
+        assertEquals(0, timeline.lowerBound(-5));
+        assertEquals(0, timeline.lowerBound(0));
+        assertEquals(1, timeline.lowerBound(100)); //时间相同时返回第一条
+        assertEquals(3, timeline.lowerBound(150));
+        assertEquals(4, timeline.lowerBound(300));
+        assertEquals(5, timeline.lowerBound(301));
+        assertEquals(0, new DanmakuTimeline().lowerBound(100));
+    }
+
+    @Test
+    public void seekTo_movesCursorAndPollsFromThere() throws Exception {
+        DanmakuTimeline timeline = createTimeline(0, 100, 100, 200, 300);
+        timeline.seekTo(100);
+        assertEquals(1, timeline.getCursor());
+        assertEquals(1, timeline.peekNext());
+        assertEquals(-1, timeline.pollDue(99));
+        assertEquals(Arrays.asList(100L, 100L), pollAll(timeline, 150));
+        assertEquals(Arrays.asList(200L, 300L), pollAll(timeline, 1000));
+        assertEquals(-1, timeline.peekNext());
+
+        timeline.seekTo(250); //向回跳转
+        assertEquals(4, timeline.getCursor());
+        assertEquals(Arrays.asList(300L), pollAll(timeline, 300));
+
+        timeline.reset();
+        assertEquals(Arrays.asList(0L, 100L, 100L, 200L, 300L), pollAll(timeline, 300));
+    }
+
+    @Test
+    public void addAll_keepsPlaybackProgress() throws Exception {
+        DanmakuTimeline timeline = createTimeline(0, 100, 200, 300);
+        assertEquals(Arrays.asList(0L, 100L), pollAll(timeline, 150));
+        //无序的一批,早于已播放进度的弹幕不再出现
+        timeline.addAll(new ArrayList<>(Arrays.asList(createDanmaku(250), createDanmaku(50), createDanmaku(150))));
+        assertEquals(7, timeline.size());
+        assertEquals(Arrays.asList(200L, 250L, 300L), pollAll(timeline, 300));
+
+        DanmakuTimeline empty = new DanmakuTimeline(); //还没有开始播放时全部可以出现
+        empty.addAll(new ArrayList<>(Arrays.asList(createDanmaku(20), createDanmaku(10))));
+        assertEquals(Arrays.asList(10L, 20L), pollAll(empty, 100));
+    }
+
+    @Test
+    public void range_iteratesHalfOpenInterval() throws Exception {
+        DanmakuTimeline timeline = createTimeline(0, 100, 100, 200, 300);
+        ArrayList<Long> times = new ArrayList<>();
+        for (Danmaku danmaku : timeline.range(100, 300)) {
+            times.add(danmaku.getTime());
+        }
+        assertEquals(Arrays.asList(100L, 100L, 200L), times);
+
+        times.clear();
+        for (Danmaku danmaku : timeline.range(-100, 1000)) {
+            times.add(danmaku.getTime());
+        }
+        assertEquals(5, times.size());
+
+        assertFalse(timeline.range(300, 300).iterator().hasNext());
+        assertFalse(timeline.range(200, 100).iterator().hasNext()); //结束早于开始
+        assertFalse(timeline.range(301, 1000).iterator().hasNext());
+
+        Iterator<Danmaku> iterator = timeline.range(300, 301).iterator();
+        assertEquals("d300", iterator.next().getContent());
+        try {
+            iterator.next();
+            fail();
+        } catch (NoSuchElementException expected) {
+        }
+        assertEquals(0, timeline.getCursor()); //遍历不影响游标
+    }
+}